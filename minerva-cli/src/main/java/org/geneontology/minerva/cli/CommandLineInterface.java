@@ -23,6 +23,7 @@ import org.geneontology.minerva.json.InferenceProvider;
 import org.geneontology.minerva.json.JsonModel;
 import org.geneontology.minerva.json.MolecularModelJsonRenderer;
 import org.geneontology.minerva.legacy.sparql.GPADData;
+import org.geneontology.minerva.legacy.sparql.GPADExportManifest;
 import org.geneontology.minerva.legacy.sparql.GPADSPARQLExport;
 import org.geneontology.minerva.model.ActivityUnit;
 import org.geneontology.minerva.model.GoCamModel;
@@ -37,6 +38,7 @@ import org.geneontology.minerva.validation.ValidationResultSet;
 import org.geneontology.minerva.validation.Violation;
 import org.geneontology.minerva.validation.pipeline.BatchPipelineValidationReport;
 import org.geneontology.minerva.validation.pipeline.ErrorMessage;
+import org.geneontology.minerva.validation.pipeline.ReportWriter;
 import org.obolibrary.robot.CatalogXmlIRIMapper;
 import org.openrdf.model.Statement;
 import org.openrdf.model.ValueFactory;
@@ -66,6 +68,11 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.geneontology.minerva.server.handler.OperationsTools.createModelRenderer;
 
@@ -319,6 +326,8 @@ public class CommandLineInterface {
                         "Use this to specify local copies of the ontology and or its imports to " +
                         "speed and control the process. If not used, will download the tbox and all its imports.");
                 gpad_options.addOption("ontojournal", "ontojournal", true, "Specify a blazegraph journal file containing the merged, pre-reasoned tbox aka go-lego.owl");
+                gpad_options.addOption("incremental", "incremental", false, "If present, only models changed since the last export into the output folder are exported again");
+                gpad_options.addOption("combined", "gpad-combined", true, "Also write all GPAD rows into this file");
                 cmd = parser.parse(gpad_options, args, false);
                 String inputDB = cmd.getOptionValue("input");
                 String gpadOutputFolder = cmd.getOptionValue("gpad-output");
@@ -334,7 +343,8 @@ public class CommandLineInterface {
                     System.err.println("Missing -- ontojournal .  Need to specify location for blazegraph journal file containing the merged go-lego tbox (neo, GO-plus, etc..). If a journal does not exist at that location, the tbox ontology will be used to initialize one.");
                     System.exit(-1);
                 }
-                legoToAnnotationsSPARQL(modelIdPrefix, modelIdcurie, inputDB, gpadOutputFolder, ontologyIRI, catalog, go_lego_journal_file);
+                legoToAnnotationsSPARQL(modelIdPrefix, modelIdcurie, inputDB, gpadOutputFolder, ontologyIRI, catalog, go_lego_journal_file,
+                        cmd.hasOption("incremental"), cmd.getOptionValue("gpad-combined"));
             } else if (cmd.hasOption("version")) {
                 printVersion();
             } else if (cmd.hasOption("validate-go-cams")) {
@@ -359,6 +369,9 @@ public class CommandLineInterface {
                 validate_options.addOption("ontojournal", "ontojournal", true, "Specify a blazegraph journal file containing the merged, pre-reasoned tbox aka go-lego.owl");
                 validate_options.addOption("reasoner_report", "reasoner_report", false, "Add a report with reasoning results to the output of the validation. ");
                 validate_options.addOption("graph", "check-graph-type", false, "Run the checks agains a GO graphstore journal; check only graphs with graphType noctuaCam.");
+                validate_options.addOption("threads", "threads", true, "Number of models to validate in parallel, default: number of processors");
+                validate_options.addOption("jsonl", "jsonl-reports", false, "Write the reports as JSON lines instead of tab separated values");
+                validate_options.addOption("gz", "gzip-reports", false, "Compress the reports with gzip");
 
 
                 cmd = parser.parse(validate_options, args, false);
@@ -408,7 +421,17 @@ public class CommandLineInterface {
                 if (cmd.hasOption("check-graph-type")) {
                     checkGraphType = true;
                 }
-                validateGoCams(input, outputFolder, ontologyIRI, catalog, modelIdPrefix, modelIdcurie, shexpath, shapemappath, travisMode, shouldFail, checkShex, go_lego_journal_file, run_reasoner_report, checkGraphType);
+                int nThreads = Runtime.getRuntime().availableProcessors();
+                if (cmd.hasOption("threads")) {
+                    nThreads = Integer.parseInt(cmd.getOptionValue("threads"));
+                }
+                ReportWriter.Format reportFormat = ReportWriter.Format.TSV;
+                if (cmd.hasOption("jsonl-reports")) {
+                    reportFormat = ReportWriter.Format.JSON_LINES;
+                }
+                boolean gzipReports = cmd.hasOption("gzip-reports");
+                validateGoCams(input, outputFolder, ontologyIRI, catalog, modelIdPrefix, modelIdcurie, shexpath, shapemappath, travisMode, shouldFail, checkShex, go_lego_journal_file, run_reasoner_report, checkGraphType, nThreads,
+                        reportFormat, gzipReports);
             }
         } catch (ParseException exp) {
             System.out.println("Parameter parse exception.  Note that the first parameter must be one of: "
@@ -813,6 +836,27 @@ public class CommandLineInterface {
      * @throws Exception
      */
     public static void legoToAnnotationsSPARQL(String modelIdPrefix, String modelIdcurie, String inputDB, String gpadOutputFolder, String ontologyIRI, String catalog, String go_lego_journal_file) throws Exception {
+        legoToAnnotationsSPARQL(modelIdPrefix, modelIdcurie, inputDB, gpadOutputFolder, ontologyIRI, catalog, go_lego_journal_file, false, null);
+    }
+
+    /**
+     * Output GPAD files via inference+SPARQL, recording the exported models
+     * in a manifest in the output folder.
+     * cli --lego-to-gpad-sparql --incremental --gpad-combined
+     *
+     * @param modelIdPrefix
+     * @param modelIdcurie
+     * @param inputDB
+     * @param gpadOutputFolder
+     * @param ontologyIRI
+     * @param catalog
+     * @param go_lego_journal_file
+     * @param incremental      only export models, which are new or changed since the manifest of the last export
+     * @param combinedGpadFile if not null, write the GPAD of all models into this file
+     * @throws Exception
+     */
+    public static void legoToAnnotationsSPARQL(String modelIdPrefix, String modelIdcurie, String inputDB, String gpadOutputFolder, String ontologyIRI, String catalog, String go_lego_journal_file,
+                                               boolean incremental, String combinedGpadFile) throws Exception {
         if (modelIdPrefix == null) {
             modelIdPrefix = "http://model.geneontology.org/";
         }
@@ -846,20 +890,73 @@ public class CommandLineInterface {
         }
         final String immutableModelIdPrefix = modelIdPrefix;
         final String immutableGpadOutputFolder = gpadOutputFolder;
-        m3.getAvailableModelIds().stream().parallel().forEach(modelIRI -> {
+        final File outputFolder = new File(gpadOutputFolder);
+        // one exporter for all models, it is thread-safe
+        final GPADSPARQLExport exporter = new GPADSPARQLExport(curieHandler, m3.getLegacyRelationShorthandIndex(), m3.getTboxShorthandIndex(), m3.getGolego_repo().regulatorsToRegulated);
+        // a changed tbox or exporter may change the GPAD of every model
+        final String tbox = GPADExportManifest.createKey(ontology, exporter);
+        final GPADExportManifest previous = GPADExportManifest.load(outputFolder);
+        final GPADExportManifest manifest = new GPADExportManifest(tbox);
+        final boolean reuse = incremental && previous != null && tbox.equals(previous.getTbox());
+        if (incremental && !reuse) {
+            LOGGER.info("No manifest of a previous export with the same tbox and exporter, exporting all models");
+        }
+        final Set<IRI> modelIds = m3.getAvailableModelIds();
+        if (previous != null) {
+            // remove the GPAD files of deleted models
+            for (IRI modelIRI : previous.getModelIds()) {
+                GPADExportManifest.Entry entry = previous.get(modelIRI);
+                if (!modelIds.contains(modelIRI) && entry.fileName != null) {
+                    LOGGER.info("Removing GPAD of deleted model: " + modelIRI);
+                    new File(outputFolder, entry.fileName).delete();
+                }
+            }
+        }
+        final AtomicInteger skipped = new AtomicInteger();
+        new ArrayList<>(modelIds).parallelStream().forEach(modelIRI -> {
+            String fileName = StringUtils.replaceOnce(modelIRI.toString(), immutableModelIdPrefix, "") + ".gpad";
+            File gpadFile = Paths.get(immutableGpadOutputFolder, fileName).toFile();
+            String hash;
             try {
+                hash = m3.getStoredModelHash(modelIRI);
+            } catch (IOException e) {
+                LOGGER.error("Couldn't read model: " + modelIRI, e);
+                return;
+            }
+            if (reuse && previous.isUnchanged(tbox, modelIRI, hash)) {
+                GPADExportManifest.Entry entry = previous.get(modelIRI);
+                if (entry.fileName == null || new File(outputFolder, entry.fileName).isFile()) {
+                    manifest.put(modelIRI, entry.hash, entry.fileName);
+                    skipped.incrementAndGet();
+                    return;
+                }
+            }
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(gpadFile), StandardCharsets.UTF_8))) {
                 //TODO investigate whether changing to a neo-lite model has an impact on this - may need to make use of ontology journal
-                String gpad = new GPADSPARQLExport(curieHandler, m3.getLegacyRelationShorthandIndex(), m3.getTboxShorthandIndex(), m3.getGolego_repo().regulatorsToRegulated).exportGPAD(m3.createInferredModel(modelIRI), modelIRI);
-                String fileName = StringUtils.replaceOnce(modelIRI.toString(), immutableModelIdPrefix, "") + ".gpad";
-                Writer writer = new OutputStreamWriter(new FileOutputStream(Paths.get(immutableGpadOutputFolder, fileName).toFile()), StandardCharsets.UTF_8);
-                writer.write(gpad);
-                writer.close();
+                exporter.exportGPAD(m3.createInferredModel(modelIRI), modelIRI, writer);
             } catch (InconsistentOntologyException e) {
                 LOGGER.error("Inconsistent ontology: " + modelIRI);
+                // nothing was written
+                gpadFile.delete();
+                if (hash != null) {
+                    manifest.put(modelIRI, hash, null);
+                }
+                return;
             } catch (IOException e) {
                 LOGGER.error("Couldn't export GPAD for: " + modelIRI, e);
+                return;
+            }
+            // models only in memory have no hash and are always exported
+            if (hash != null) {
+                manifest.put(modelIRI, hash, fileName);
             }
         });
+        LOGGER.info("Exported GPAD for " + (modelIds.size() - skipped.get()) + " models, " + skipped.get() + " unchanged models skipped");
+        manifest.save(outputFolder);
+        if (combinedGpadFile != null) {
+            LOGGER.info("Writing combined GPAD to: " + combinedGpadFile);
+            manifest.assemble(outputFolder, new File(combinedGpadFile));
+        }
         m3.dispose();
     }
 
@@ -887,6 +984,20 @@ public class CommandLineInterface {
                                       String ontologyIRI, String catalog, String modelIdPrefix, String modelIdcurie,
                                       String shexpath, String shapemappath, boolean travisMode, boolean shouldFail, boolean checkShex,
                                       String go_lego_journal_file, boolean run_reasoner_report, boolean checkGraphType) throws OWLOntologyCreationException, IOException {
+        validateGoCams(input, outputFolder, ontologyIRI, catalog, modelIdPrefix, modelIdcurie, shexpath, shapemappath, travisMode, shouldFail, checkShex,
+                go_lego_journal_file, run_reasoner_report, checkGraphType, Runtime.getRuntime().availableProcessors(), ReportWriter.Format.TSV, false);
+    }
+
+    /**
+     * Same as above, validating up to nThreads models in parallel.
+     * The report rows are written in the order of the model IRIs,
+     * as tab separated values or JSON lines, optionally gzipped.
+     */
+    public static void validateGoCams(String input, String outputFolder,
+                                      String ontologyIRI, String catalog, String modelIdPrefix, String modelIdcurie,
+                                      String shexpath, String shapemappath, boolean travisMode, boolean shouldFail, boolean checkShex,
+                                      String go_lego_journal_file, boolean run_reasoner_report, boolean checkGraphType, int nThreads,
+                                      ReportWriter.Format reportFormat, boolean gzipReports) throws OWLOntologyCreationException, IOException {
         LOGGER.setLevel(Level.INFO);
         String inputDB = "blazegraph.jnl";
         String shexFileUrl = "https://raw.githubusercontent.com/geneontology/go-shapes/master/shapes/go-cam-shapes.shex";
@@ -908,7 +1019,8 @@ public class CommandLineInterface {
         }
 
         LOGGER.info("loading tbox ontology: " + ontologyIRI);
-        OWLOntologyManager ontman = OWLManager.createOWLOntologyManager();
+        //the models are loaded and reasoned by several workers with this manager
+        OWLOntologyManager ontman = OWLManager.createConcurrentOWLOntologyManager();
         if (catalog != null) {
             LOGGER.info("using catalog: " + catalog);
             try {
@@ -1035,32 +1147,27 @@ public class CommandLineInterface {
         //shex validator is ready, now build the inference provider (which provides access to the shex validator and provides inferences useful for shex)
         String reasonerOpt = "arachne";
         LOGGER.info("Building OWL inference provider: " + reasonerOpt);
-        InferenceProviderCreator ipc = StartUpTool.createInferenceProviderCreator(reasonerOpt, m3, shex);
+        //one reasoner per worker thread
+        InferenceProviderCreator ipc = StartUpTool.createInferenceProviderCreator(reasonerOpt, m3, shex, nThreads);
         LOGGER.info("Validating models: " + reasonerOpt);
 
-        //Set up all the report files.
-        String basic_output_file = outputFolder + "main_report.txt";
-        String explanations_file = outputFolder + "explanations.txt";
-        String activity_output_file = outputFolder + "activity_report.txt";
-        if (outputFolder != null) {
-            try {
-                //valid or not
-                FileWriter basic_shex_output = new FileWriter(basic_output_file, false);
-                basic_shex_output.write("filename\tmodel_title\tmodel_url\tmodelstate\tcontributor\tprovider\tdate\tOWL_consistent\tshex_valid\tshex_meta_problem\tshex_data_problem\tvalidation_time_milliseconds\taxioms\tn_rows_gpad\t");
-                basic_shex_output.write(GoCamModelStats.statsHeader() + "\n");
-                basic_shex_output.close();
-                //tab delimited explanations for failures
-                FileWriter explanations = new FileWriter(explanations_file, false);
-                explanations.write("filename\tmodel_title\tmodel_iri\tnode\tNode_types\tproperty\tIntended_range_shapes\tobject\tObject_types\tObject_shapes\n");
-                explanations.close();
-                //tab delimited summary of properties of activity units
-                FileWriter activity_output = new FileWriter(activity_output_file, false);
-                activity_output.write("filename\tmodel_title\tmodel_url\tmodelstate\tcontributor\tprovider\tdate\tactivity_iri\tactivity_xref\tactivity_label\tcomplete\tinputs\toutputs\tenablers\tlocations\tcausal upstream\tcausal downstream\tpart of n BP\tMF\tBP\n");
-                activity_output.close();
-            } catch (IOException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
+        //Set up all the report files, they stay open until all models are done
+        ReportWriter basic_report = null;
+        ReportWriter explanations_report = null;
+        ReportWriter activity_report = null;
+        try {
+            //valid or not
+            basic_report = ReportWriter.open(outputFolder + "main_report", "filename\tmodel_title\tmodel_url\tmodelstate\tcontributor\tprovider\tdate\tOWL_consistent\tshex_valid\tshex_meta_problem\tshex_data_problem\tvalidation_time_milliseconds\taxioms\tn_rows_gpad\t"
+                    + GoCamModelStats.statsHeader(), reportFormat, gzipReports);
+            //tab delimited explanations for failures
+            explanations_report = ReportWriter.open(outputFolder + "explanations", "filename\tmodel_title\tmodel_iri\tnode\tNode_types\tproperty\tIntended_range_shapes\tobject\tObject_types\tObject_shapes", reportFormat, gzipReports);
+            //tab delimited summary of properties of activity units
+            activity_report = ReportWriter.open(outputFolder + "activity_report", "filename\tmodel_title\tmodel_url\tmodelstate\tcontributor\tprovider\tdate\tactivity_iri\tactivity_xref\tactivity_label\tcomplete\tinputs\toutputs\tenablers\tlocations\tcausal upstream\tcausal downstream\tpart of n BP\tMF\tBP", reportFormat, gzipReports);
+        } catch (IOException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+            IOUtils.closeQuietly(basic_report, explanations_report, activity_report);
+            return;
         }
         //this will generate the json file used for the go rules report for the pipeline
         BatchPipelineValidationReport pipe_report = null;
@@ -1080,91 +1187,57 @@ public class CommandLineInterface {
         //only used if OWL reasoning report is requested
         ReasonerReport reasoner_report = null;
         if (run_reasoner_report) {
-            reasoner_report = initReasonerReport(outputFolder);
+            reasoner_report = initReasonerReport(outputFolder, reportFormat, gzipReports);
         }
+        //travis mode quits after the reports are closed
+        boolean quit = false;
         //now process each gocam
+        //the models are loaded, reasoned and validated in parallel, the results are written in model order
+        List<IRI> modelIRIs = new ArrayList<IRI>();
+        //the exporter has no state per model, the workers share it
+        final GPADSPARQLExport exporter = new GPADSPARQLExport(curieHandler, m3.getLegacyRelationShorthandIndex(), m3.getTboxShorthandIndex(), m3.getGolego_repo().regulatorsToRegulated);
+        ExecutorService workers = Executors.newFixedThreadPool(nThreads);
         try {
-            for (IRI modelIRI : m3.getAvailableModelIds()) {
-                long start = System.currentTimeMillis();
-                String filename = modelid_filename.get(modelIRI.toString());
-                boolean isConsistent = true; //OWL
-                boolean isConformant = true; //shex
-                if (filename != null) {
-                    LOGGER.info("processing " + filename + "\t" + modelIRI);
-                } else {
-                    LOGGER.info("processing \t" + modelIRI);
-                }
-                //this is where everything actually happens
-                ModelContainer mc = m3.getModel(modelIRI);
-                OWLOntology gocam = mc.getAboxOntology();
-                final IRI graphType = IRI.create("http://model.geneontology.org/graphType");
-                final IRI noctuaCam = IRI.create("http://model.geneontology.org/noctuaCam");
-                if (checkGraphType) {
-                    if (gocam.getAnnotations().stream().noneMatch(annotation ->
-                            annotation.getProperty().getIRI().equals(graphType)
-                                    && annotation.getValue().isIRI()
-                                    && annotation.getValue().equals(noctuaCam))) {
-                        System.out.println("SKIPPING: " + modelIRI);
-                        continue;
-                    }
+            modelIRIs.addAll(m3.getAvailableModelIds());
+            Collections.sort(modelIRIs);
+            Iterator<IRI> todo = modelIRIs.iterator();
+            Deque<Future<GoCamValidation>> running = new ArrayDeque<Future<GoCamValidation>>();
+            while (todo.hasNext() || !running.isEmpty()) {
+                //keep a few models ahead of the writer, but not the whole corpus in memory
+                while (todo.hasNext() && running.size() < 2 * nThreads) {
+                    final IRI modelIRI = todo.next();
+                    final String filename = modelid_filename.get(modelIRI.toString());
+                    running.add(workers.submit(() -> validateGoCam(modelIRI, filename, m3, ipc, exporter, checkGraphType)));
                 }
+                GoCamValidation result;
                 try {
-                    //if a model does not have an import statement that links in an ontology that defines all of its classes and object properties
-                    //or if the model does not define the classes and object properties itself, parsing problems will prevail
-                    //this step makes sure that does not happen
-                    gocam = CoreMolecularModelManager.fixBrokenObjectPropertiesAndAxioms(gocam);
-                } catch (OWLOntologyCreationException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
-                LOGGER.info("preparing model stats...");
-                //The GoCamModel code is used to capture model-level statistics such as 'how many causal relations are there?'
-                //This might be an area for a speed improvement if needed
-                GoCamModel gcm = new GoCamModel(gocam, m3);
-                String title = "title";
-                if (gcm.getTitle() != null) {
-                    title = makeColSafe(gcm.getTitle());
-                } else {
-                    LOGGER.error("no title for " + filename);
+                    result = running.poll().get();
+                } catch (ExecutionException e) {
+                    throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
                 }
-                //this is to make clickable links in reports
-                String link = modelIRI.toString().replace("http://model.geneontology.org/", "http://noctua.geneontology.org/editor/graph/gomodel:");
-                if (modelIRI.toString().contains("R-HSA")) {
-                    link = link.replace("noctua.geneontology", "noctua-dev.berkeleybop");
+                String filename = result.filename;
+                IRI modelIRI = result.modelIRI;
+                if (result.skipped) {
+                    System.out.println("SKIPPING: " + modelIRI);
+                    continue;
                 }
-                String modelstate = makeColSafe(gcm.getModelstate());
-                String contributor = makeColSafe(gcm.getContributors().toString());
-                String date = makeColSafe(gcm.getDate());
-                String provider = makeColSafe(gcm.getProvided_by().toString());
+                boolean isConsistent = result.isConsistent; //OWL
+                boolean isConformant = true; //shex
+                InferenceProvider ip = result.ip;
+                GoCamModel gcm = result.gcm;
+                String title = result.title;
+                String link = result.link;
+                String modelstate = result.modelstate;
+                String contributor = result.contributor;
+                String date = result.date;
+                String provider = result.provider;
                 pipe_report.setTaxa(gcm.getIn_taxon());
-                LOGGER.info("model stats done for title: " + title);
-                int axioms = gocam.getAxiomCount();
                 //add activity level statistics as a default
-                FileWriter activity_output = new FileWriter(activity_output_file, true);
                 for (ActivityUnit unit : gcm.getActivities()) {
-                    activity_output.write(filename + "\t" + title + "\t" + link + "\t" + modelstate + "\t" + contributor + "\t" + provider + "\t" + date + "\t" + unit.getIndividual().getIRI().toString() + "\t" + unit.getXref() + "\t" + unit.getLabel() + "\t");
-                    activity_output.write(unit.isComplete() + "\t" + unit.getInputs().size() + "\t" + unit.getOutputs().size() + "\t" + unit.getEnablers().size() + "\t" + unit.getLocations().size() +
-                            "\t" + unit.getCausal_in().size() + "\t" + unit.getCausal_out().size() + "\t" + unit.getContaining_processes().size() + "\t" + unit.stringForClasses(unit.getDirect_types()) + "\t" + unit.getURIsForConnectedBPs() + "\n");
+                    activity_report.writeRow(filename, title, link, modelstate, contributor, provider, date, unit.getIndividual().getIRI().toString(), unit.getXref(), unit.getLabel(),
+                            unit.isComplete(), unit.getInputs().size(), unit.getOutputs().size(), unit.getEnablers().size(), unit.getLocations().size(),
+                            unit.getCausal_in().size(), unit.getCausal_out().size(), unit.getContaining_processes().size(), unit.stringForClasses(unit.getDirect_types()), unit.getURIsForConnectedBPs());
                 }
-                activity_output.close();
-
-                InferenceProvider ip = ipc.create(mc);
-                isConsistent = ip.isConsistent();
-                //TODO re-use reasoner object from ip
-                //TODO this is another area that could be touched/removed for speed improvement
-                int n_rows_gpad = 0;
-                if (isConsistent) {
-                    try {
-                        Set<GPADData> gpad = new GPADSPARQLExport(curieHandler, m3.getLegacyRelationShorthandIndex(), m3.getTboxShorthandIndex(), m3.getGolego_repo().regulatorsToRegulated).getGPAD(m3.createInferredModel(modelIRI), modelIRI);
-                        if (gpad != null) {
-                            n_rows_gpad = gpad.size();
-                        }
-                    } catch (InconsistentOntologyException e) {
-                        LOGGER.error("inconsistent ontology, can't make gpad");
-                    }
-                }
-                long done = System.currentTimeMillis();
-                long milliseconds = (done - start);
                 //for rules report in pipeline
                 if (!ip.isConsistent()) {
                     String level = "ERROR";
@@ -1175,19 +1248,17 @@ public class CommandLineInterface {
                     owl_errors.add(owl);
                 }
                 if (!isConsistent) {
-                    FileWriter explanations = new FileWriter(explanations_file, true);
-                    explanations.write(filename + "\t" + title + "\t" + modelIRI + "\tOWL fail explanation: " + ip.getValidation_results().getOwlvalidation().getAsText() + "\n");
-                    explanations.close();
+                    explanations_report.writeRow(filename, title, modelIRI, "OWL fail explanation: " + ip.getValidation_results().getOwlvalidation().getAsText());
                 }
                 //travis mode causes the system to exit when an invalid model is detected (unless shouldFail is on)
                 if (travisMode && !isConsistent) {
                     if (!shouldFail) {
                         LOGGER.error(filename + "\t" + title + "\t" + modelIRI + "\tOWL:is inconsistent, quitting");
-                        System.exit(-1);
+                        quit = true;
+                        break;
                     }
                 }
                 //basic is just one row per model - did it validate or not
-                FileWriter basic = new FileWriter(basic_output_file, true);
                 if (!shex_output) {
                     if (ip.isConsistent()) {
                         good_models++;
@@ -1213,17 +1284,17 @@ public class CommandLineInterface {
                             shex_message.setExplanations(validations);
                         }
                         shex_errors.add(shex_message);
-                        FileWriter explanations = new FileWriter(explanations_file, true);
-                        explanations.write(ip.getValidation_results().getShexvalidation().getAsTab(filename + "\t" + title + "\t" + modelIRI));
-                        explanations.close();
+                        explanations_report.writeRows(ip.getValidation_results().getShexvalidation().getAsTab(filename + "\t" + title + "\t" + modelIRI));
                     }
                     if (travisMode) {
                         if (!isConformant && !shouldFail) {
                             LOGGER.error(filename + "\t" + title + "\t" + modelIRI + "\tshex is nonconformant, quitting, explanation:\n" + ip.getValidation_results().getShexvalidation().getAsText());
-                            System.exit(-1);
+                            quit = true;
+                            break;
                         } else if (isConformant && shouldFail) {
                             LOGGER.error(filename + "\t" + title + "\t" + modelIRI + "\tshex validates, but it should not be, quitting");
-                            System.exit(-1);
+                            quit = true;
+                            break;
                         }
                     }
                     //is it a metadata violation or data ?
@@ -1247,17 +1318,25 @@ public class CommandLineInterface {
                         }
                     }
                     LOGGER.info(filename + "\t" + title + "\t" + modelIRI + "\tOWL:" + isConsistent + "\tshex:" + isConformant);
-                    basic.write(filename + "\t" + title + "\t" + link + "\t" + modelstate + "\t" + contributor + "\t" + provider + "\t" + date + "\t" + isConsistent + "\t" + isConformant + "\t" + shex_meta_problem + "\t" + shex_data_problem + "\t" + milliseconds + "\t" + axioms + "\t" +
-                            n_rows_gpad + "\t" + gcm.getGoCamModelStats().stats2cols() + "\n");
+                    basic_report.writeRow(filename, title, link, modelstate, contributor, provider, date, isConsistent, isConformant, shex_meta_problem, shex_data_problem, result.milliseconds, result.axioms,
+                            result.n_rows_gpad, gcm.getGoCamModelStats().stats2cols());
                 }
-                basic.close();
                 if (run_reasoner_report) {
-                    addReasonerReport(outputFolder, gocam, ip, title, reasoner_report);
+                    addReasonerReport(outputFolder, result.gocam, ip, title, reasoner_report);
                 }
             }
         } catch (Exception e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
+        } finally {
+            workers.shutdownNow();
+            IOUtils.closeQuietly(basic_report, explanations_report, activity_report);
+            if (reasoner_report != null) {
+                IOUtils.closeQuietly(reasoner_report.rows);
+            }
+        }
+        if (quit) {
+            System.exit(-1);
         }
         if (run_reasoner_report) {
             summarizeReasonerReport(outputFolder, reasoner_report);
@@ -1282,32 +1361,126 @@ public class CommandLineInterface {
         LOGGER.info("done with validation");
     }
 
+    /**
+     * Everything computed for one model, before the report rows are written.
+     */
+    static class GoCamValidation {
+        IRI modelIRI;
+        String filename;
+        boolean skipped = false;
+        OWLOntology gocam;
+        GoCamModel gcm;
+        String title;
+        String link;
+        String modelstate;
+        String contributor;
+        String date;
+        String provider;
+        int axioms;
+        InferenceProvider ip;
+        boolean isConsistent;
+        int n_rows_gpad = 0;
+        long milliseconds;
+    }
+
+    private static GoCamValidation validateGoCam(IRI modelIRI, String filename, UndoAwareMolecularModelManager m3, InferenceProviderCreator ipc, GPADSPARQLExport exporter, boolean checkGraphType) throws Exception {
+        long start = System.currentTimeMillis();
+        GoCamValidation v = new GoCamValidation();
+        v.modelIRI = modelIRI;
+        v.filename = filename;
+        if (filename != null) {
+            LOGGER.info("processing " + filename + "\t" + modelIRI);
+        } else {
+            LOGGER.info("processing \t" + modelIRI);
+        }
+        //this is where everything actually happens
+        ModelContainer mc = m3.getModel(modelIRI);
+        OWLOntology gocam = mc.getAboxOntology();
+        final IRI graphType = IRI.create("http://model.geneontology.org/graphType");
+        final IRI noctuaCam = IRI.create("http://model.geneontology.org/noctuaCam");
+        if (checkGraphType) {
+            if (gocam.getAnnotations().stream().noneMatch(annotation ->
+                    annotation.getProperty().getIRI().equals(graphType)
+                            && annotation.getValue().isIRI()
+                            && annotation.getValue().equals(noctuaCam))) {
+                v.skipped = true;
+                return v;
+            }
+        }
+        try {
+            //if a model does not have an import statement that links in an ontology that defines all of its classes and object properties
+            //or if the model does not define the classes and object properties itself, parsing problems will prevail
+            //this step makes sure that does not happen
+            gocam = CoreMolecularModelManager.fixBrokenObjectPropertiesAndAxioms(gocam);
+        } catch (OWLOntologyCreationException e) {
+            // TODO Auto-generated catch block
+            e.printStackTrace();
+        }
+        v.gocam = gocam;
+        LOGGER.info("preparing model stats...");
+        //The GoCamModel code is used to capture model-level statistics such as 'how many causal relations are there?'
+        //This might be an area for a speed improvement if needed
+        GoCamModel gcm = new GoCamModel(gocam, m3);
+        v.gcm = gcm;
+        v.title = "title";
+        if (gcm.getTitle() != null) {
+            v.title = makeColSafe(gcm.getTitle());
+        } else {
+            LOGGER.error("no title for " + filename);
+        }
+        //this is to make clickable links in reports
+        v.link = modelIRI.toString().replace("http://model.geneontology.org/", "http://noctua.geneontology.org/editor/graph/gomodel:");
+        if (modelIRI.toString().contains("R-HSA")) {
+            v.link = v.link.replace("noctua.geneontology", "noctua-dev.berkeleybop");
+        }
+        v.modelstate = makeColSafe(gcm.getModelstate());
+        v.contributor = makeColSafe(gcm.getContributors().toString());
+        v.date = makeColSafe(gcm.getDate());
+        v.provider = makeColSafe(gcm.getProvided_by().toString());
+        LOGGER.info("model stats done for title: " + v.title);
+        v.axioms = gocam.getAxiomCount();
+
+        InferenceProvider ip = ipc.create(mc);
+        v.ip = ip;
+        v.isConsistent = ip.isConsistent();
+        //TODO re-use reasoner object from ip
+        //TODO this is another area that could be touched/removed for speed improvement
+        if (v.isConsistent) {
+            try {
+                Set<GPADData> gpad = exporter.getGPAD(m3.createInferredModel(modelIRI), modelIRI);
+                if (gpad != null) {
+                    v.n_rows_gpad = gpad.size();
+                }
+            } catch (InconsistentOntologyException e) {
+                LOGGER.error("inconsistent ontology, can't make gpad");
+            }
+        }
+        long done = System.currentTimeMillis();
+        v.milliseconds = (done - start);
+        return v;
+    }
+
     static class ReasonerReport {
         Map<String, Integer> term_asserted_instances_mapped = new HashMap<String, Integer>();
         Map<String, Integer> term_deepened_instances_mapped = new HashMap<String, Integer>();
         Map<String, Integer> term_asserted_instances_created = new HashMap<String, Integer>();
         Map<String, Integer> term_deepened_instances_created = new HashMap<String, Integer>();
+        ReportWriter rows;
     }
 
 
-    private static ReasonerReport initReasonerReport(String outputFolder) {
-        String reasoner_report_file = outputFolder + "reasoner_report_all.txt";
-        FileWriter reasoner_report;
+    private static ReasonerReport initReasonerReport(String outputFolder, ReportWriter.Format reportFormat, boolean gzipReports) {
+        ReasonerReport report = new ReasonerReport();
         try {
-            reasoner_report = new FileWriter(reasoner_report_file, false);
-            reasoner_report.write("title\tindividual\txref\tasserted\tinferred\n");
-            reasoner_report.close();
+            report.rows = ReportWriter.open(outputFolder + "reasoner_report_all", "title\tindividual\txref\tasserted\tinferred", reportFormat, gzipReports);
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
         }
-        ReasonerReport report = new ReasonerReport();
         return report;
     }
 
     private static ReasonerReport addReasonerReport(String outputFolder, OWLOntology gocam, InferenceProvider ip, String title, ReasonerReport report) throws IOException {
-        String reasoner_report_file = outputFolder + "reasoner_report_all.txt";
-        FileWriter reasoner_report = new FileWriter(reasoner_report_file, true);
         Set<OWLNamedIndividual> individuals = gocam.getIndividualsInSignature();
         for (OWLNamedIndividual individual : individuals) {
             //what kind of individual - mapped or created.  mapped have xrefs, created do not.
@@ -1336,7 +1509,7 @@ public class CommandLineInterface {
                 }
             }
             inferred_direct.removeAll(asserted);
-            reasoner_report.write(title + "\t" + individual.getIRI() + "\t" + xref + "\t" + asserted + "\t" + inferred_direct + "\n");
+            report.rows.writeRow(title, individual.getIRI(), xref, asserted, inferred_direct);
             if (asserted != null) {
                 for (OWLClass go : asserted) {
                     if (xref.equals("none")) {
@@ -1375,11 +1548,11 @@ public class CommandLineInterface {
                 }
             }
         }
-        reasoner_report.close();
         return report;
     }
 
     private static void summarizeReasonerReport(String outputFolder, ReasonerReport report) {
+        IOUtils.closeQuietly(report.rows);
         String reasoner_report_summary_file = outputFolder + "reasoner_report_summary.txt";
         FileWriter reasoner_report_summary;
         try {
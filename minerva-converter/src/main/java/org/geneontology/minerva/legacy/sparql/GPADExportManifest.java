@@ -0,0 +1,206 @@
+package org.geneontology.minerva.legacy.sparql;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import org.apache.log4j.Logger;
+import org.semanticweb.owlapi.model.IRI;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.parameters.Imports;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Record of a GPAD export in the output folder: the key of the tbox and
+ * exporter used for the export and for each model the hash of its content
+ * and the name of its GPAD file. The next export only needs to re-export
+ * models with a different hash, as long as the key did not change.
+ * <p>
+ * Entries can be updated concurrently by the export of several models.
+ */
+public class GPADExportManifest {
+
+    private static final Logger LOG = Logger.getLogger(GPADExportManifest.class);
+
+    public static final String FILE_NAME = "gpad-manifest.tsv";
+    private static final String TBOX = "tbox";
+
+    private final String tbox;
+    private final Map<IRI, Entry> entries = new ConcurrentHashMap<>();
+
+    public static class Entry {
+        public final String hash;
+        // null, if the model had no GPAD file, e.g. it was inconsistent
+        public final String fileName;
+
+        public Entry(String hash, String fileName) {
+            this.hash = hash;
+            this.fileName = fileName;
+        }
+    }
+
+    /**
+     * @param tbox identifies the tbox and exporter used for the export, see {@link #createKey(OWLOntology, GPADSPARQLExport)}
+     */
+    public GPADExportManifest(String tbox) {
+        this.tbox = tbox;
+    }
+
+    /**
+     * Create the key for the tbox and exporter of an export from the
+     * content of the tbox, including its imports, and the configuration
+     * of the exporter.
+     *
+     * @param tbox
+     * @param exporter
+     * @return key
+     * @throws IOException
+     */
+    public static String createKey(OWLOntology tbox, GPADSPARQLExport exporter) throws IOException {
+        List<HashCode> axioms = tbox.getAxioms(Imports.INCLUDED).stream()
+                .map(axiom -> Hashing.murmur3_128().hashString(axiom.toString(), StandardCharsets.UTF_8))
+                .collect(Collectors.toList());
+        String content = axioms.isEmpty() ? "empty" : Hashing.combineUnordered(axioms).toString();
+        return tbox.getOntologyID() + "|" + content + "|" + exporter.getConfigurationHash();
+    }
+
+    /**
+     * Read the manifest of a previous export.
+     *
+     * @param folder output folder
+     * @return manifest or null, if the folder contains no readable manifest
+     */
+    public static GPADExportManifest load(File folder) {
+        File file = new File(folder, FILE_NAME);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            GPADExportManifest manifest = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] columns = line.split("\t", -1);
+                if (manifest == null) {
+                    if (columns.length != 2 || !TBOX.equals(columns[0])) {
+                        LOG.warn("Ignoring GPAD manifest without tbox: " + file);
+                        return null;
+                    }
+                    manifest = new GPADExportManifest(columns[1]);
+                } else if (columns.length == 3) {
+                    manifest.put(IRI.create(columns[0]), columns[1], columns[2].isEmpty() ? null : columns[2]);
+                } else {
+                    LOG.warn("Ignoring invalid line in GPAD manifest: " + line);
+                }
+            }
+            return manifest;
+        } catch (IOException e) {
+            LOG.warn("Could not read GPAD manifest: " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Write the manifest to the folder, replacing the previous one only
+     * after it was written completely.
+     *
+     * @param folder output folder
+     * @throws IOException
+     */
+    public void save(File folder) throws IOException {
+        File file = new File(folder, FILE_NAME);
+        File temp = new File(folder, FILE_NAME + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+            writer.write("# GPAD export manifest: model, content hash, GPAD file\n");
+            writer.write(TBOX + "\t" + tbox + "\n");
+            for (Map.Entry<IRI, Entry> entry : getSortedEntries().entrySet()) {
+                Entry value = entry.getValue();
+                writer.write(entry.getKey() + "\t" + value.hash + "\t" + (value.fileName == null ? "" : value.fileName) + "\n");
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public String getTbox() {
+        return tbox;
+    }
+
+    public Entry get(IRI modelId) {
+        return entries.get(modelId);
+    }
+
+    public void put(IRI modelId, String hash, String fileName) {
+        entries.put(modelId, new Entry(hash, fileName));
+    }
+
+    public Entry remove(IRI modelId) {
+        return entries.remove(modelId);
+    }
+
+    public Set<IRI> getModelIds() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * @param modelId
+     * @param hash current content hash of the model
+     * @return true, if the model was exported with the same content
+     */
+    public boolean isUnchanged(IRI modelId, String hash) {
+        Entry entry = entries.get(modelId);
+        return hash != null && entry != null && hash.equals(entry.hash);
+    }
+
+    /**
+     * @param tbox    key of the tbox and exporter of the current export
+     * @param modelId
+     * @param hash    current content hash of the model
+     * @return true, if the model was exported with the same content, tbox and exporter
+     */
+    public boolean isUnchanged(String tbox, IRI modelId, String hash) {
+        return this.tbox.equals(tbox) && isUnchanged(modelId, hash);
+    }
+
+    /**
+     * Concatenate the GPAD files of all models in the manifest into one
+     * GPAD file with a single header, ordered by model id.
+     *
+     * @param folder folder with the GPAD files of the models
+     * @param output combined GPAD file
+     * @throws IOException
+     */
+    public void assemble(File folder, File output) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(output.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(GPADRenderer.HEADER);
+            writer.write("\n");
+            for (Entry entry : getSortedEntries().values()) {
+                if (entry.fileName == null) {
+                    continue;
+                }
+                try (BufferedReader reader = Files.newBufferedReader(new File(folder, entry.fileName).toPath(), StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        // skip the header of each model
+                        if (!line.startsWith("!")) {
+                            writer.write(line);
+                            writer.write("\n");
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private SortedMap<IRI, Entry> getSortedEntries() {
+        SortedMap<IRI, Entry> sorted = new TreeMap<>(Comparator.comparing(IRI::toString));
+        sorted.putAll(entries);
+        return sorted;
+    }
+}
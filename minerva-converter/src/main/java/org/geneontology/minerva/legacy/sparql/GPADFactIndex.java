@@ -0,0 +1,201 @@
+package org.geneontology.minerva.legacy.sparql;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.vocabulary.OWL2;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.semanticweb.owlapi.model.IRI;
+
+import java.util.*;
+
+/**
+ * Index of the facts of a model by subject and predicate, built in one pass
+ * over the facts. It provides the evidence of the reified axioms and the
+ * annotation extensions with hash lookups, matching the same patterns as
+ * the queries gpad-relation-evidence-multiple.rq and gpad-extensions.rq.
+ * The evidence query is no longer run by the export, GPADFactIndexTest
+ * checks the index against it.
+ */
+class GPADFactIndex {
+
+    private static final Node AXIOM = OWL2.Axiom.asNode();
+    private static final Node ANNOTATED_SOURCE = OWL2.annotatedSource.asNode();
+    private static final Node ANNOTATED_PROPERTY = OWL2.annotatedProperty.asNode();
+    private static final Node ANNOTATED_TARGET = OWL2.annotatedTarget.asNode();
+    private static final Node TYPE = RDF.type.asNode();
+    private static final Node SUB_PROPERTY_OF = RDFS.subPropertyOf.asNode();
+    private static final Node INDIRECT_TYPE = NodeFactory.createURI("http://arachne.geneontology.org/indirect_type");
+    private static final Node EVIDENCE = NodeFactory.createURI("http://geneontology.org/lego/evidence");
+    private static final Node EVIDENCE_WITH = NodeFactory.createURI("http://geneontology.org/lego/evidence-with");
+    private static final Node CONTRIBUTOR = NodeFactory.createURI("http://purl.org/dc/elements/1.1/contributor");
+    private static final Node DATE = NodeFactory.createURI("http://purl.org/dc/elements/1.1/date");
+    private static final Node SOURCE = NodeFactory.createURI("http://purl.org/dc/elements/1.1/source");
+    private static final Node PROVIDED_BY = NodeFactory.createURI("http://purl.org/pav/providedBy");
+    private static final String CARO_NAMESPACE = "http://purl.obolibrary.org/obo/CARO_";
+    private static final Set<Node> excludedTypes = new HashSet<>(Arrays.asList(
+            RDFS.Resource.asNode(), OWL2.Thing.asNode(), OWL2.NamedIndividual.asNode(),
+            NodeFactory.createURI("http://purl.obolibrary.org/obo/BFO_0000002"),
+            NodeFactory.createURI("http://purl.obolibrary.org/obo/BFO_0000003"),
+            NodeFactory.createURI("http://purl.obolibrary.org/obo/BFO_0000004"),
+            NodeFactory.createURI("http://purl.obolibrary.org/obo/BFO_0000015"),
+            NodeFactory.createURI("http://purl.obolibrary.org/obo/BFO_0000040")));
+
+    private final Map<Node, Map<Node, Set<Node>>> outgoing = new HashMap<>();
+    // reified axioms by their annotated source, property and target
+    private final Map<Triple, Set<Node>> axioms = new HashMap<>();
+    // sub properties by their super property
+    private final Map<Node, Set<Node>> subProperties = new HashMap<>();
+
+    /**
+     * Evidence of a fact, the values of a single evidence individual.
+     */
+    static class Evidence {
+        final IRI evidenceType;
+        final Optional<String> with;
+        final String modificationDate;
+        // all sources, sorted and separated by '|'
+        final String source;
+        final Set<String> contributors;
+        final Optional<String> providedBy;
+
+        Evidence(IRI evidenceType, Optional<String> with, String modificationDate, String source, Set<String> contributors, Optional<String> providedBy) {
+            this.evidenceType = evidenceType;
+            this.with = with;
+            this.modificationDate = modificationDate;
+            this.source = source;
+            this.contributors = contributors;
+            this.providedBy = providedBy;
+        }
+    }
+
+    GPADFactIndex(Collection<Triple> facts) {
+        List<Node> axiomNodes = new ArrayList<>();
+        for (Triple fact : facts) {
+            outgoing.computeIfAbsent(fact.getSubject(), k -> new HashMap<>())
+                    .computeIfAbsent(fact.getPredicate(), k -> new HashSet<>())
+                    .add(fact.getObject());
+            if (fact.getPredicate().equals(TYPE) && fact.getObject().equals(AXIOM)) {
+                axiomNodes.add(fact.getSubject());
+            } else if (fact.getPredicate().equals(SUB_PROPERTY_OF)) {
+                subProperties.computeIfAbsent(fact.getObject(), k -> new HashSet<>()).add(fact.getSubject());
+            }
+        }
+        for (Node axiom : axiomNodes) {
+            for (Node source : getObjects(axiom, ANNOTATED_SOURCE)) {
+                for (Node property : getObjects(axiom, ANNOTATED_PROPERTY)) {
+                    for (Node target : getObjects(axiom, ANNOTATED_TARGET)) {
+                        axioms.computeIfAbsent(Triple.create(source, property, target), k -> new HashSet<>()).add(axiom);
+                    }
+                }
+            }
+        }
+    }
+
+    Set<Node> getObjects(Node subject, Node predicate) {
+        return outgoing.getOrDefault(subject, Collections.emptyMap()).getOrDefault(predicate, Collections.emptySet());
+    }
+
+    /**
+     * The evidence of the reified axioms of the fact. An evidence requires
+     * a direct type, a contributor, a date and a source.
+     *
+     * @param fact
+     * @return evidence, one for each combination of type, date and with
+     */
+    List<Evidence> getEvidence(Triple fact) {
+        List<Evidence> result = new ArrayList<>();
+        for (Node axiom : axioms.getOrDefault(fact, Collections.emptySet())) {
+            for (Node evidence : getObjects(axiom, EVIDENCE)) {
+                Set<String> contributors = getStrings(evidence, CONTRIBUTOR);
+                Set<String> dates = getStrings(evidence, DATE);
+                Set<String> sources = getStrings(evidence, SOURCE);
+                if (contributors.isEmpty() || dates.isEmpty() || sources.isEmpty()) {
+                    continue;
+                }
+                String source = String.join("|", sources);
+                Optional<String> providedBy = getStrings(evidence, PROVIDED_BY).stream().findFirst();
+                Set<String> withs = getStrings(evidence, EVIDENCE_WITH);
+                List<Optional<String>> withOptions = new ArrayList<>();
+                withs.forEach(w -> withOptions.add(Optional.of(w)));
+                if (withOptions.isEmpty()) {
+                    withOptions.add(Optional.empty());
+                }
+                for (Node type : getDirectTypes(evidence)) {
+                    for (String date : dates) {
+                        for (Optional<String> with : withOptions) {
+                            result.add(new Evidence(IRI.create(type.getURI()), with, date, source, contributors, providedBy));
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The annotation extensions of the target, via one of the relations.
+     * Reflexive links and links redundant with a link via a sub property
+     * are excluded.
+     *
+     * @param target
+     * @param relations
+     * @return extensions for each direct type of the extension filler
+     */
+    Set<AnnotationExtension> getExtensions(Node target, Set<Node> relations) {
+        Set<AnnotationExtension> extensions = new HashSet<>();
+        for (Map.Entry<Node, Set<Node>> entry : outgoing.getOrDefault(target, Collections.emptyMap()).entrySet()) {
+            Node relation = entry.getKey();
+            if (!relations.contains(relation)) {
+                continue;
+            }
+            for (Node extension : entry.getValue()) {
+                if (extension.equals(target) || isRedundant(target, relation, extension)) {
+                    continue;
+                }
+                for (Node type : getDirectTypes(extension)) {
+                    if (!type.getURI().startsWith(CARO_NAMESPACE)) {
+                        extensions.add(new AnnotationExtension(Triple.create(target, relation, extension), IRI.create(type.getURI())));
+                    }
+                }
+            }
+        }
+        return extensions;
+    }
+
+    private boolean isRedundant(Node target, Node relation, Node extension) {
+        for (Node subProperty : subProperties.getOrDefault(relation, Collections.emptySet())) {
+            if (!subProperty.equals(relation) && getObjects(target, subProperty).contains(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Node> getDirectTypes(Node individual) {
+        Set<Node> indirect = getObjects(individual, INDIRECT_TYPE);
+        List<Node> types = new ArrayList<>();
+        for (Node type : getObjects(individual, TYPE)) {
+            if (type.isURI() && !excludedTypes.contains(type) && !indirect.contains(type)) {
+                types.add(type);
+            }
+        }
+        return types;
+    }
+
+    /**
+     * @return the lexical forms and IRIs of the values, sorted
+     */
+    private Set<String> getStrings(Node subject, Node predicate) {
+        Set<String> strings = new TreeSet<>();
+        for (Node node : getObjects(subject, predicate)) {
+            if (node.isLiteral()) {
+                strings.add(node.getLiteralLexicalForm());
+            } else if (node.isURI()) {
+                strings.add(node.getURI());
+            }
+        }
+        return strings;
+    }
+}
@@ -4,6 +4,7 @@ import org.geneontology.minerva.curie.CurieHandler;
 import org.geneontology.minerva.legacy.sparql.GPADData.ConjunctiveExpression;
 import org.semanticweb.owlapi.model.IRI;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -36,6 +37,23 @@ public class GPADRenderer {
         return sb.toString();
     }
 
+    /**
+     * Write the header and the annotations to the output, without building
+     * the complete text in memory.
+     *
+     * @param data
+     * @param output
+     * @throws IOException
+     */
+    public void renderAll(Collection<GPADData> data, Appendable output) throws IOException {
+        output.append(HEADER);
+        output.append("\n");
+        for (GPADData annotation : data) {
+            output.append(render(annotation));
+            output.append("\n");
+        }
+    }
+
     public String render(GPADData data) {
         try {
             List<String> columns = new ArrayList<>();
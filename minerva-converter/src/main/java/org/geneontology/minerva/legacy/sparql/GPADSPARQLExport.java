@@ -1,19 +1,20 @@
 package org.geneontology.minerva.legacy.sparql;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.graph.Triple;
 import org.apache.jena.query.*;
-import org.apache.jena.rdf.model.Literal;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.sparql.core.Var;
-import org.apache.jena.sparql.engine.binding.Binding;
-import org.apache.jena.sparql.engine.binding.BindingFactory;
-import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.syntax.ElementData;
+import org.apache.jena.sparql.syntax.ElementVisitorBase;
+import org.apache.jena.sparql.syntax.ElementWalker;
 import org.apache.jena.vocabulary.RDF;
 import org.apache.log4j.Logger;
 import org.geneontology.minerva.curie.CurieHandler;
@@ -26,6 +27,7 @@ import org.semanticweb.owlapi.reasoner.InconsistentOntologyException;
 import scala.collection.JavaConverters;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.function.Function;
@@ -36,6 +38,11 @@ import static java.util.stream.Collectors.mapping;
 import static java.util.stream.Collectors.toSet;
 
 /* 	 Note: the example GPAD files are available at this link: http://www.informatics.jax.org/downloads/reports/mgi.gpa.gz */
+
+/**
+ * Export of the GPAD annotations of a model. Instances are immutable and
+ * thread-safe, create one per export run and share it for all models.
+ */
 public class GPADSPARQLExport {
     private static final Logger LOG = Logger.getLogger(GPADSPARQLExport.class);
     private static final String ND = "http://purl.obolibrary.org/obo/ECO_0000307";
@@ -52,73 +59,134 @@ public class GPADSPARQLExport {
     private static final String UBERON_NAMESPACE = "http://purl.obolibrary.org/obo/UBERON_";
 
     protected static final String TAXON_NAMESPACE = "http://purl.obolibrary.org/obo/NCBITaxon_";
-    private static final String inconsistentQuery =
+    private static final Query inconsistentQuery = QueryFactory.create(
             "PREFIX rdf: <http://www.w3.org/1999/02/22-rdf-syntax-ns#>" +
                     "PREFIX owl: <http://www.w3.org/2002/07/owl#>" +
-                    "ASK WHERE { ?s rdf:type owl:Nothing . } ";
-
-    private static String mainQuery;
+                    "ASK WHERE { ?s rdf:type owl:Nothing . } ");
 
-    static {
-        try {
-            mainQuery = IOUtils.toString(GPADSPARQLExport.class.getResourceAsStream("gpad-basic.rq"), StandardCharsets.UTF_8);
-        } catch (IOException e) {
-            LOG.error("Could not load SPARQL query from jar", e);
-        }
-    }
+    /* The queries are parsed once and only read afterwards. */
+    private static final Query mainQuery = loadQuery("gpad-basic.rq");
+    private static final Query modelAnnotationsQuery = loadQuery("gpad-model-level-annotations.rq");
+    /* The extensions are matched with the GPADFactIndex, the query only provides the relations. */
+    private static final Set<Node> extensionRelations = loadExtensionRelations(loadQuery("gpad-extensions.rq"));
 
-    private static String multipleEvidenceQuery;
+    /* Classes and queries of the export, a different version may change the GPAD of every model. */
+    private static final List<String> codeResources = Arrays.asList(
+            "GPADSPARQLExport.class", "GPADFactIndex.class", "GPADFactIndex$Evidence.class", "GPADRenderer.class",
+            "DefaultGPADData.class", "BasicGPADData.class", "AnnotationExtension.class", "GPADEvidence.class",
+            "gpad-basic.rq", "gpad-model-level-annotations.rq", "gpad-extensions.rq");
 
-    static {
+    private static Query loadQuery(String resource) {
         try {
-            multipleEvidenceQuery = IOUtils.toString(GPADSPARQLExport.class.getResourceAsStream("gpad-relation-evidence-multiple.rq"), StandardCharsets.UTF_8);
+            Query query = QueryFactory.create(IOUtils.toString(GPADSPARQLExport.class.getResourceAsStream(resource), StandardCharsets.UTF_8));
+            // initialize the lazy result variables, before the query is shared
+            query.setResultVars();
+            return query;
         } catch (IOException e) {
             LOG.error("Could not load SPARQL query from jar", e);
+            return null;
         }
     }
 
-    private static String extensionsQuery;
-
-    static {
-        try {
-            extensionsQuery = IOUtils.toString(GPADSPARQLExport.class.getResourceAsStream("gpad-extensions.rq"), StandardCharsets.UTF_8);
-        } catch (IOException e) {
-            LOG.error("Could not load SPARQL query from jar", e);
-        }
-    }
-
-    private static String modelAnnotationsQuery;
-
-    static {
-        try {
-            modelAnnotationsQuery = IOUtils.toString(GPADSPARQLExport.class.getResourceAsStream("gpad-model-level-annotations.rq"), StandardCharsets.UTF_8);
-        } catch (IOException e) {
-            LOG.error("Could not load SPARQL query from jar", e);
+    private static Set<Node> loadExtensionRelations(Query query) {
+        Set<Node> relations = new HashSet<>();
+        if (query != null) {
+            Var relation = Var.alloc("extension_rel");
+            ElementWalker.walk(query.getQueryPattern(), new ElementVisitorBase() {
+                @Override
+                public void visit(ElementData data) {
+                    data.getRows().stream().map(row -> row.get(relation)).filter(Objects::nonNull).forEach(relations::add);
+                }
+            });
         }
+        return Collections.unmodifiableSet(relations);
     }
 
     private final CurieHandler curieHandler;
     private final Map<IRI, String> relationShorthandIndex;
     private final Map<IRI, String> tboxShorthandIndex;
     private final Map<IRI, Set<IRI>> regulators;
+    private final GPADRenderer renderer;
 
+    /**
+     * The exporter keeps no state between models, a single instance can be
+     * shared by all threads of an export. The indices must not be modified
+     * during the export.
+     *
+     * @param handler
+     * @param shorthandIndex
+     * @param tboxShorthandIndex
+     * @param regulators
+     */
     public GPADSPARQLExport(CurieHandler handler, Map<IRI, String> shorthandIndex, Map<IRI, String> tboxShorthandIndex, Map<IRI, Set<IRI>> regulators) {
         this.curieHandler = handler;
-        this.relationShorthandIndex = shorthandIndex;
-        this.tboxShorthandIndex = tboxShorthandIndex;
-        this.regulators = regulators;
+        this.relationShorthandIndex = Collections.unmodifiableMap(shorthandIndex);
+        this.tboxShorthandIndex = Collections.unmodifiableMap(tboxShorthandIndex);
+        this.regulators = Collections.unmodifiableMap(regulators);
+        this.renderer = new GPADRenderer(curieHandler, relationShorthandIndex);
+    }
+
+    /**
+     * Hash of the export besides the model and the tbox: the classes and
+     * queries of the export, the curie mappings, the shorthand indices and
+     * the regulators. If it changes, the GPAD of every model may change.
+     *
+     * @return hash
+     * @throws IOException
+     */
+    public String getConfigurationHash() throws IOException {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (String resource : codeResources) {
+            try (InputStream stream = GPADSPARQLExport.class.getResourceAsStream(resource)) {
+                if (stream == null) {
+                    throw new IOException("Missing resource of the GPAD export: " + resource);
+                }
+                hasher.putBytes(IOUtils.toByteArray(stream));
+            }
+        }
+        hasher.putString(new TreeMap<>(curieHandler.getMappings()).toString(), StandardCharsets.UTF_8);
+        hasher.putString(sorted(relationShorthandIndex).toString(), StandardCharsets.UTF_8);
+        hasher.putString(sorted(tboxShorthandIndex).toString(), StandardCharsets.UTF_8);
+        SortedMap<String, SortedSet<String>> sortedRegulators = new TreeMap<>();
+        regulators.forEach((regulator, regulated) -> sortedRegulators.put(regulator.toString(),
+                regulated.stream().map(IRI::toString).collect(Collectors.toCollection(TreeSet::new))));
+        hasher.putString(sortedRegulators.toString(), StandardCharsets.UTF_8);
+        return hasher.hash().toString();
+    }
+
+    private static SortedMap<String, String> sorted(Map<IRI, String> index) {
+        SortedMap<String, String> sorted = new TreeMap<>();
+        index.forEach((iri, value) -> sorted.put(iri.toString(), value));
+        return sorted;
     }
 
     public String exportGPAD(WorkingMemory wm, IRI modelIRI) throws InconsistentOntologyException {
         Set<GPADData> annotations = getGPAD(wm, modelIRI);
-        return new GPADRenderer(curieHandler, relationShorthandIndex).renderAll(annotations);
+        return renderer.renderAll(annotations);
+    }
+
+    /**
+     * Write the GPAD of the model to the output, one row at a time.
+     *
+     * @param wm
+     * @param modelIRI
+     * @param output
+     * @throws InconsistentOntologyException
+     * @throws IOException
+     */
+    public void exportGPAD(WorkingMemory wm, IRI modelIRI, Appendable output) throws InconsistentOntologyException, IOException {
+        Set<GPADData> annotations = getGPAD(wm, modelIRI);
+        renderer.renderAll(annotations, output);
     }
 
     /* This is a bit convoluted in order to minimize redundant queries, for performance reasons. */
     public Set<GPADData> getGPAD(WorkingMemory wm, IRI modelIRI) throws InconsistentOntologyException {
+        List<Triple> facts = toJava(wm.facts()).stream().map(Bridge::jenaFromTriple).collect(Collectors.toList());
         Model model = ModelFactory.createDefaultModel();
-        model.add(JavaConverters.setAsJavaSetConverter(wm.facts()).asJava().stream().map(t -> model.asStatement(Bridge.jenaFromTriple(t))).collect(Collectors.toList()));
+        facts.forEach(model.getGraph()::add);
         if (!isConsistent(model)) throw new InconsistentOntologyException();
+        /* Evidence and extensions are looked up in an index of the facts, instead of joining them in SPARQL. */
+        GPADFactIndex index = new GPADFactIndex(facts);
         Map<String, String> modelLevelAnnotations = getModelAnnotations(model);
         /* The first step of constructing GPAD records is to construct candidate/basic GPAD records by running gpad-basic.rq. */
         QueryExecution qe = QueryExecutionFactory.create(mainQuery, model);
@@ -147,13 +215,13 @@ public class GPADSPARQLExport {
          * The rest of fields in GPAD are then constructed by joining the candidate mappings with mappings describing evidences and so on.
          * If the output of this exporter (i.e. GPAD files) does not contain the values you expect,
          * dump the above "QuerySolution qs" variable and see whether they are included in the dump. */
-        Set<AnnotationExtension> possibleExtensions = possibleExtensions(basicAnnotations, model);
+        Set<AnnotationExtension> possibleExtensions = possibleExtensions(basicAnnotations, index);
         Set<Triple> statementsToExplain = new HashSet<>();
         basicAnnotations.forEach(ba -> statementsToExplain.add(Triple.create(ba.getObjectNode(), NodeFactory.createURI(ba.getQualifier().toString()), ba.getOntologyClassNode())));
         possibleExtensions.forEach(ae -> statementsToExplain.add(ae.getTriple()));
         Map<Triple, Set<Explanation>> allExplanations = statementsToExplain.stream().collect(Collectors.toMap(Function.identity(), s -> toJava(wm.explain(Bridge.tripleFromJena(s)))));
 
-        Map<Triple, Set<GPADEvidence>> allEvidences = evidencesForFacts(allExplanations.values().stream().flatMap(es -> es.stream()).flatMap(e -> toJava(e.facts()).stream().map(t -> Bridge.jenaFromTriple(t))).collect(toSet()), model, modelID, modelLevelAnnotations);
+        Map<Triple, Set<GPADEvidence>> allEvidences = evidencesForFacts(allExplanations.values().stream().flatMap(es -> es.stream()).flatMap(e -> toJava(e.facts()).stream().map(t -> Bridge.jenaFromTriple(t))).collect(toSet()), index, modelID, modelLevelAnnotations);
         Set<IRI> gpsWithAnyMFNotRootMF = basicAnnotations.stream().filter(a -> functionRelations.contains(a.getQualifier().toString())).filter(a -> !a.getOntologyClass().toString().equals(MF)).map(a -> a.getObject()).collect(toSet());
         Map<Node, Set<IRI>> nodesToOntologyClasses = basicAnnotations.stream().collect(Collectors.groupingBy(BasicGPADData::getObjectNode, mapping(BasicGPADData::getOntologyClass, toSet())));
         for (BasicGPADData annotation : basicAnnotations) {
@@ -233,51 +301,31 @@ public class GPADSPARQLExport {
 
     /**
      * Given a set of triples extracted/generated from the result/answer of query gpad-basic.rq, we find matching evidence subgraphs.
-     * In other words, if there are no matching evidence (i.e. no bindings for evidence_type), we discard (basic) GPAD instance.
+     * In other words, if there are no matching evidence, we discard (basic) GPAD instance.
      * <p>
      * The parameter "facts" consists of triples <?subject, ?predicate, ?object> constructed from a binding of ?pr, ?rel, ?target in gpad_basic.rq.
      * (The codes that constructing these triples are executed right before this method is called).
      * <p>
-     * These triples are then decomposed into values used as the parameters/bindings for objects of the following patterns.
+     * The evidence is attached to the reified axioms of these triples:
      * ?axiom owl:annotatedSource   ?subject (i.e. ?pr in gpad_basic.rq)
      * ?axiom owl:annotatedProperty ?predicate (i.e., ?rel in gpad_basic.rq, which denotes qualifier in GPAD)
      * ?axiom owl:annotatedTarget    ?object (i.e., ?target in gpad_basic.rq)
      * <p>
-     * If we find the bindings of ?axioms and the values of these bindings have some rdf:type triples, we proceed. (If not, we discard).
-     * The bindings of the query gpad-relation-evidence-multiple.rq are then used for filling up fields in GPAD records/tuples.
+     * The index looks up the axioms of each triple and their evidence, matching the patterns of gpad-relation-evidence-multiple.rq.
+     * The evidence values are then used for filling up fields in GPAD records/tuples.
      */
-    private Map<Triple, Set<GPADEvidence>> evidencesForFacts(Set<Triple> facts, Model model, String modelID, Map<String, String> modelLevelAnnotations) {
-        Query query = QueryFactory.create(multipleEvidenceQuery);
-        Var subject = Var.alloc("subject");
-        Var predicate = Var.alloc("predicate");
-        Var object = Var.alloc("object");
-        List<Var> variables = new ArrayList<>();
-        variables.add(subject);
-        variables.add(predicate);
-        variables.add(object);
-        Stream<Binding> bindings = facts.stream().map(f -> createBinding(Pair.of(subject, f.getSubject()), Pair.of(predicate, f.getPredicate()), Pair.of(object, f.getObject())));
-        query.setValuesDataBlock(variables, bindings.collect(Collectors.toList()));
-        QueryExecution evidenceExecution = QueryExecutionFactory.create(query, model);
-        ResultSet evidenceResults = evidenceExecution.execSelect();
-        Map<Triple, Set<GPADEvidence>> allEvidences = facts.stream().collect(Collectors.toMap(Function.identity(), f -> new HashSet<GPADEvidence>()));
-        while (evidenceResults.hasNext()) {
-            QuerySolution eqs = evidenceResults.next();
-            if (eqs.get("evidence_type") != null) {
-                Triple statement = Triple.create(eqs.getResource("subject").asNode(), eqs.getResource("predicate").asNode(), eqs.getResource("object").asNode());
-                IRI evidenceType = IRI.create(eqs.getResource("evidence_type").getURI());
-                Optional<String> with = Optional.ofNullable(eqs.getLiteral("with")).map(Literal::getLexicalForm);
+    private Map<Triple, Set<GPADEvidence>> evidencesForFacts(Set<Triple> facts, GPADFactIndex index, String modelID, Map<String, String> modelLevelAnnotations) {
+        Map<Triple, Set<GPADEvidence>> allEvidences = new HashMap<>();
+        for (Triple fact : facts) {
+            Set<GPADEvidence> evidences = new HashSet<>();
+            for (GPADFactIndex.Evidence evidence : index.getEvidence(fact)) {
                 Set<Pair<String, String>> annotationAnnotations = new HashSet<>();
                 annotationAnnotations.add(Pair.of("noctua-model-id", modelID));
-                annotationAnnotations.addAll(getContributors(eqs).stream().map(c -> Pair.of("contributor", c)).collect(toSet()));
-                String modificationDate = eqs.getLiteral("modification_date").getLexicalForm();
-                Optional<String> creationDate = Optional.ofNullable(eqs.getLiteral("creation_date")).map(Literal::getLexicalForm);
-                // Add this back after announced to consortium; also re-enable tests
-                //creationDate.ifPresent(date -> annotationAnnotations.add(Pair.of("creation-date", date)));
-                String reference = eqs.getLiteral("source").getLexicalForm();
+                annotationAnnotations.addAll(evidence.contributors.stream().map(c -> Pair.of("contributor", c)).collect(toSet()));
+                // Add creation-date back after announced to consortium; also re-enable tests
                 final String usableAssignedBy;
-                Optional<String> assignedByIRIOpt = getAnnotationAssignedBy(eqs);
-                if (assignedByIRIOpt.isPresent()) {
-                    String usableAssignedByIRI = assignedByIRIOpt.get();
+                if (evidence.providedBy.isPresent()) {
+                    String usableAssignedByIRI = evidence.providedBy.get();
                     usableAssignedBy = this.tboxShorthandIndex.getOrDefault(IRI.create(usableAssignedByIRI), usableAssignedByIRI);
                 } else if (modelLevelAnnotations.containsKey("assigned-by")) {
                     String usableAssignedByIRI = modelLevelAnnotations.get("assigned-by");
@@ -288,59 +336,22 @@ public class GPADSPARQLExport {
                 if (modelLevelAnnotations.containsKey("model-state")) {
                     annotationAnnotations.add(Pair.of("model-state", modelLevelAnnotations.get("model-state")));
                 }
-                allEvidences.get(statement).add(new GPADEvidence(evidenceType, reference, with, modificationDate, usableAssignedBy, annotationAnnotations, Optional.empty()));
+                evidences.add(new GPADEvidence(evidence.evidenceType, evidence.source, evidence.with, evidence.modificationDate, usableAssignedBy, annotationAnnotations, Optional.empty()));
             }
+            allEvidences.put(fact, evidences);
         }
-        evidenceExecution.close();
         return allEvidences;
     }
 
-    @SafeVarargs
-    private final Binding createBinding(Pair<Var, Node>... bindings) {
-        BindingMap map = BindingFactory.create();
-        for (Pair<Var, Node> binding : bindings) {
-            map.add(binding.getLeft(), binding.getRight());
-        }
-        return map;
-    }
-
-    private Set<AnnotationExtension> possibleExtensions(Set<BasicGPADData> basicAnnotations, Model model) {
+    private Set<AnnotationExtension> possibleExtensions(Set<BasicGPADData> basicAnnotations, GPADFactIndex index) {
         Set<AnnotationExtension> possibleExtensions = new HashSet<>();
-        Var targetVar = Var.alloc("target");
-        List<Binding> bindings = basicAnnotations.stream().map(ba -> createBinding(Pair.of(targetVar, ba.getOntologyClassNode()))).collect(Collectors.toList());
-        Query query = QueryFactory.create(extensionsQuery);
-        query.setValuesDataBlock(Arrays.asList(targetVar), bindings);
-        QueryExecution qe = QueryExecutionFactory.create(query, model);
-        ResultSet results = qe.execSelect();
-        while (results.hasNext()) {
-            QuerySolution result = results.next();
-            Triple statement = Triple.create(result.getResource("target").asNode(), result.getResource("extension_rel").asNode(), result.getResource("extension").asNode());
-            IRI extensionType = IRI.create(result.getResource("extension_type").getURI());
-            possibleExtensions.add(new AnnotationExtension(statement, extensionType));
+        Set<Node> targets = basicAnnotations.stream().map(BasicGPADData::getOntologyClassNode).collect(toSet());
+        for (Node target : targets) {
+            possibleExtensions.addAll(index.getExtensions(target, extensionRelations));
         }
-        qe.close();
         return possibleExtensions;
     }
 
-    private Set<String> getContributors(QuerySolution result) {
-        Set<String> contributors = new HashSet<>();
-        if (result.getLiteral("contributors") != null) {
-            for (String contributor : result.getLiteral("contributors").getLexicalForm().split("\\|")) {
-                contributors.add(contributor);
-            }
-        }
-        return Collections.unmodifiableSet(contributors);
-    }
-
-    private Optional<String> getAnnotationAssignedBy(QuerySolution result) {
-        if (result.getLiteral("provided_bys") != null) {
-            for (String group : result.getLiteral("provided_bys").getLexicalForm().split("\\|")) {
-                return Optional.of(group);
-            }
-        }
-        return Optional.empty();
-    }
-
     private boolean isConsistent(Model model) {
         QueryExecution qe = QueryExecutionFactory.create(inconsistentQuery, model);
         boolean inconsistent = qe.execAsk();
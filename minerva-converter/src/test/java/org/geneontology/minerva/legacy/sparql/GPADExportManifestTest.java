@@ -0,0 +1,93 @@
+package org.geneontology.minerva.legacy.sparql;
+
+import org.apache.commons.io.FileUtils;
+import org.geneontology.minerva.curie.CurieHandler;
+import org.geneontology.minerva.curie.DefaultCurieHandler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class GPADExportManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        IRI model1 = IRI.create("http://model.geneontology.org/1");
+        IRI model2 = IRI.create("http://model.geneontology.org/2");
+        File output = folder.getRoot();
+        assertNull(GPADExportManifest.load(output));
+
+        GPADExportManifest manifest = new GPADExportManifest("go-lego");
+        manifest.put(model1, "hash1", "1.gpad");
+        // inconsistent model without GPAD file
+        manifest.put(model2, "hash2", null);
+        manifest.save(output);
+
+        GPADExportManifest loaded = GPADExportManifest.load(output);
+        assertEquals("go-lego", loaded.getTbox());
+        assertEquals(new HashSet<>(Arrays.asList(model1, model2)), loaded.getModelIds());
+        assertEquals("1.gpad", loaded.get(model1).fileName);
+        assertNull(loaded.get(model2).fileName);
+        assertTrue(loaded.isUnchanged(model1, "hash1"));
+        assertFalse(loaded.isUnchanged(model1, "hash3"));
+        assertFalse(loaded.isUnchanged(IRI.create("http://model.geneontology.org/3"), "hash1"));
+        assertFalse(loaded.isUnchanged(model1, null));
+    }
+
+    @Test
+    public void testAssemble() throws Exception {
+        File output = folder.getRoot();
+        FileUtils.write(new File(output, "2.gpad"), GPADRenderer.HEADER + "\nrow2\n", StandardCharsets.UTF_8);
+        FileUtils.write(new File(output, "1.gpad"), GPADRenderer.HEADER + "\nrow1a\nrow1b\n", StandardCharsets.UTF_8);
+        GPADExportManifest manifest = new GPADExportManifest("go-lego");
+        manifest.put(IRI.create("http://model.geneontology.org/2"), "hash2", "2.gpad");
+        manifest.put(IRI.create("http://model.geneontology.org/1"), "hash1", "1.gpad");
+        manifest.put(IRI.create("http://model.geneontology.org/3"), "hash3", null);
+        File combined = folder.newFile("all.gpad");
+        manifest.assemble(output, combined);
+        assertEquals(GPADRenderer.HEADER + "\nrow1a\nrow1b\nrow2\n", FileUtils.readFileToString(combined, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTboxChange() throws Exception {
+        OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
+        OWLDataFactory df = manager.getOWLDataFactory();
+        OWLOntology tbox = manager.createOntology(IRI.create("http://purl.obolibrary.org/obo/go/extensions/go-lego.owl"));
+        OWLClass mf = df.getOWLClass(IRI.create("http://purl.obolibrary.org/obo/GO_0003674"));
+        OWLClass kinase = df.getOWLClass(IRI.create("http://purl.obolibrary.org/obo/GO_0016301"));
+        manager.addAxiom(tbox, df.getOWLDeclarationAxiom(mf));
+        CurieHandler curieHandler = DefaultCurieHandler.getDefaultHandler();
+        GPADSPARQLExport exporter = new GPADSPARQLExport(curieHandler, Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap());
+        String key = GPADExportManifest.createKey(tbox, exporter);
+        assertEquals(key, GPADExportManifest.createKey(tbox, new GPADSPARQLExport(curieHandler, Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap())));
+
+        IRI model = IRI.create("http://model.geneontology.org/1");
+        GPADExportManifest manifest = new GPADExportManifest(key);
+        manifest.put(model, "hash1", "1.gpad");
+        manifest.save(folder.getRoot());
+        GPADExportManifest loaded = GPADExportManifest.load(folder.getRoot());
+        assertTrue(loaded.isUnchanged(key, model, "hash1"));
+
+        // the unchanged model is exported again with a changed tbox
+        manager.addAxiom(tbox, df.getOWLSubClassOfAxiom(kinase, mf));
+        String changedTbox = GPADExportManifest.createKey(tbox, exporter);
+        assertNotEquals(key, changedTbox);
+        assertFalse(loaded.isUnchanged(changedTbox, model, "hash1"));
+
+        // or with different regulators
+        Map<IRI, Set<IRI>> regulators = Collections.singletonMap(kinase.getIRI(), Collections.singleton(mf.getIRI()));
+        String changedExporter = GPADExportManifest.createKey(tbox, new GPADSPARQLExport(curieHandler, Collections.emptyMap(), Collections.emptyMap(), regulators));
+        assertNotEquals(changedTbox, changedExporter);
+        assertFalse(loaded.isUnchanged(changedExporter, model, "hash1"));
+    }
+}
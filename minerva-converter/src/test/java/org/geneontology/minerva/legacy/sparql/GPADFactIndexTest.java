@@ -0,0 +1,152 @@
+package org.geneontology.minerva.legacy.sparql;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.*;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.vocabulary.OWL2;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Test;
+import org.semanticweb.owlapi.model.IRI;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class GPADFactIndexTest {
+
+    private static Node uri(String iri) {
+        return NodeFactory.createURI(iri);
+    }
+
+    private static final Node ENABLES = uri("http://purl.obolibrary.org/obo/RO_0002327");
+    private static final Node PART_OF = uri("http://purl.obolibrary.org/obo/BFO_0000050");
+    private static final Node OCCURS_IN = uri("http://purl.obolibrary.org/obo/BFO_0000066");
+    private static final Node INDIRECT_TYPE = uri("http://arachne.geneontology.org/indirect_type");
+
+    @Test
+    public void testEvidence() {
+        Node gp = uri("http://model.geneontology.org/gp");
+        Node mf = uri("http://model.geneontology.org/mf");
+        Node axiom = NodeFactory.createBlankNode();
+        Node evidence = uri("http://model.geneontology.org/evidence");
+        Node incomplete = uri("http://model.geneontology.org/incomplete");
+        Triple fact = Triple.create(gp, ENABLES, mf);
+        List<Triple> facts = new ArrayList<>(Arrays.asList(fact,
+                Triple.create(axiom, RDF.type.asNode(), OWL2.Axiom.asNode()),
+                Triple.create(axiom, OWL2.annotatedSource.asNode(), gp),
+                Triple.create(axiom, OWL2.annotatedProperty.asNode(), ENABLES),
+                Triple.create(axiom, OWL2.annotatedTarget.asNode(), mf),
+                Triple.create(axiom, uri("http://geneontology.org/lego/evidence"), evidence),
+                Triple.create(axiom, uri("http://geneontology.org/lego/evidence"), incomplete),
+                Triple.create(evidence, RDF.type.asNode(), uri("http://purl.obolibrary.org/obo/ECO_0000315")),
+                Triple.create(evidence, RDF.type.asNode(), uri("http://purl.obolibrary.org/obo/ECO_0000000")),
+                Triple.create(evidence, INDIRECT_TYPE, uri("http://purl.obolibrary.org/obo/ECO_0000000")),
+                Triple.create(evidence, RDF.type.asNode(), OWL2.NamedIndividual.asNode()),
+                Triple.create(evidence, uri("http://purl.org/dc/elements/1.1/contributor"), NodeFactory.createLiteral("orcid1")),
+                Triple.create(evidence, uri("http://purl.org/dc/elements/1.1/contributor"), NodeFactory.createLiteral("orcid2")),
+                Triple.create(evidence, uri("http://purl.org/dc/elements/1.1/date"), NodeFactory.createLiteral("2020-01-01")),
+                Triple.create(evidence, uri("http://purl.org/dc/elements/1.1/source"), NodeFactory.createLiteral("PMID:2")),
+                Triple.create(evidence, uri("http://purl.org/dc/elements/1.1/source"), NodeFactory.createLiteral("PMID:1")),
+                Triple.create(evidence, uri("http://purl.org/pav/providedBy"), NodeFactory.createLiteral("http://informatics.jax.org")),
+                // without source
+                Triple.create(incomplete, RDF.type.asNode(), uri("http://purl.obolibrary.org/obo/ECO_0000315")),
+                Triple.create(incomplete, uri("http://purl.org/dc/elements/1.1/contributor"), NodeFactory.createLiteral("orcid1")),
+                Triple.create(incomplete, uri("http://purl.org/dc/elements/1.1/date"), NodeFactory.createLiteral("2020-01-01"))));
+        GPADFactIndex index = new GPADFactIndex(facts);
+        List<GPADFactIndex.Evidence> evidences = index.getEvidence(fact);
+        assertEquals(1, evidences.size());
+        GPADFactIndex.Evidence found = evidences.get(0);
+        assertEquals(IRI.create("http://purl.obolibrary.org/obo/ECO_0000315"), found.evidenceType);
+        assertEquals("PMID:1|PMID:2", found.source);
+        assertEquals("2020-01-01", found.modificationDate);
+        assertEquals(new HashSet<>(Arrays.asList("orcid1", "orcid2")), found.contributors);
+        assertEquals(Optional.of("http://informatics.jax.org"), found.providedBy);
+        assertEquals(Optional.empty(), found.with);
+        assertTrue(index.getEvidence(Triple.create(mf, ENABLES, gp)).isEmpty());
+    }
+
+    @Test
+    public void testExtensions() {
+        Node bp = uri("http://model.geneontology.org/bp");
+        Node cell = uri("http://model.geneontology.org/cell");
+        Node tissue = uri("http://model.geneontology.org/tissue");
+        Node cellType = uri("http://purl.obolibrary.org/obo/CL_0000235");
+        List<Triple> facts = Arrays.asList(
+                Triple.create(OCCURS_IN, RDFS.subPropertyOf.asNode(), PART_OF),
+                Triple.create(bp, OCCURS_IN, cell),
+                // redundant with the occurs in link
+                Triple.create(bp, PART_OF, cell),
+                Triple.create(bp, PART_OF, tissue),
+                // reflexive
+                Triple.create(bp, PART_OF, bp),
+                Triple.create(cell, RDF.type.asNode(), cellType),
+                Triple.create(tissue, RDF.type.asNode(), uri("http://purl.obolibrary.org/obo/CARO_0000000")));
+        GPADFactIndex index = new GPADFactIndex(facts);
+        Set<AnnotationExtension> extensions = index.getExtensions(bp, new HashSet<>(Arrays.asList(PART_OF, OCCURS_IN)));
+        assertEquals(1, extensions.size());
+        AnnotationExtension extension = extensions.iterator().next();
+        assertEquals(Triple.create(bp, OCCURS_IN, cell), extension.getTriple());
+        assertEquals(IRI.create(cellType.getURI()), extension.getValueType());
+        assertTrue(index.getExtensions(bp, Collections.singleton(ENABLES)).isEmpty());
+    }
+
+    @Test
+    public void testEvidenceMatchesQuery() throws Exception {
+        Query query = QueryFactory.create(IOUtils.toString(GPADSPARQLExport.class.getResourceAsStream("gpad-relation-evidence-multiple.rq"), StandardCharsets.UTF_8));
+        int found = 0;
+        for (String file : Arrays.asList("/581e072c00000473.ttl", "/59d1072300000074.ttl", "/MGI_MGI_2429397.ttl", "/created-date-test.ttl", "/no_uberon_with_emapa.ttl")) {
+            Model model = ModelFactory.createDefaultModel();
+            model.read(getClass().getResourceAsStream(file), "", "ttl");
+            Set<Triple> triples = model.getGraph().find().toSet();
+            Set<String> expected = new HashSet<>();
+            try (QueryExecution execution = QueryExecutionFactory.create(query, model)) {
+                ResultSet results = execution.execSelect();
+                while (results.hasNext()) {
+                    QuerySolution row = results.next();
+                    Triple fact = Triple.create(row.get("subject").asNode(), row.get("predicate").asNode(), row.get("object").asNode());
+                    triples.add(fact);
+                    expected.add(describe(fact, row.getResource("evidence_type").getURI(), getString(row, "with"), getString(row, "modification_date"),
+                            split(getString(row, "source")), split(getString(row, "contributors")), split(getString(row, "provided_bys"))));
+                }
+            }
+            GPADFactIndex index = new GPADFactIndex(model.getGraph().find().toList());
+            Set<String> actual = new HashSet<>();
+            for (Triple fact : triples) {
+                for (GPADFactIndex.Evidence evidence : index.getEvidence(fact)) {
+                    actual.add(describe(fact, evidence.evidenceType.toString(), evidence.with.orElse(null), evidence.modificationDate,
+                            split(evidence.source), new TreeSet<>(evidence.contributors), evidence.providedBy.map(Collections::singleton).orElse(Collections.emptySet())));
+                }
+            }
+            assertEquals(file, expected, actual);
+            found += expected.size();
+        }
+        assertTrue(found > 0);
+    }
+
+    private static String describe(Triple fact, String type, String with, String date, Set<String> sources, Set<String> contributors, Set<String> providedBy) {
+        return fact + " " + type + " " + with + " " + date + " " + sources + " " + contributors + " " + providedBy;
+    }
+
+    private static String getString(QuerySolution row, String variable) {
+        RDFNode node = row.get(variable);
+        if (node == null) {
+            return null;
+        }
+        return node.isLiteral() ? node.asLiteral().getLexicalForm() : node.asResource().getURI();
+    }
+
+    private static Set<String> split(String values) {
+        if (values == null || values.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return Arrays.stream(values.split("\\|")).collect(Collectors.toCollection(TreeSet::new));
+    }
+}
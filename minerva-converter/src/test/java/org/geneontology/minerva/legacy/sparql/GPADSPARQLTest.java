@@ -25,6 +25,7 @@ import org.semanticweb.owlapi.model.parameters.Imports;
 import scala.collection.JavaConverters;
 
 import java.io.File;
+import java.io.StringWriter;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -62,6 +63,30 @@ public class GPADSPARQLTest {
     }
 
 
+    @Test
+    public void testSharedExporter() throws Exception {
+        Model model = ModelFactory.createDefaultModel();
+        model.read(this.getClass().getResourceAsStream("/581e072c00000473.ttl"), "", "ttl");
+        Set<Triple> triples = model.listStatements().toList().stream().map(s -> Bridge.tripleFromJena(s.asTriple())).collect(Collectors.toSet());
+        WorkingMemory mem = arachne.processTriples(JavaConverters.asScalaSetConverter(triples).asScala());
+        Set<String> expected = new HashSet<>(Arrays.asList(exporter.exportGPAD(mem, IRI.create("http://test.org")).split("\n")));
+        // the same exporter streams the rows of several models in parallel
+        List<Set<String>> results = Collections.synchronizedList(new ArrayList<>());
+        Collections.nCopies(8, mem).parallelStream().forEach(m -> {
+            StringWriter writer = new StringWriter();
+            try {
+                exporter.exportGPAD(m, IRI.create("http://test.org"), writer);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            results.add(new HashSet<>(Arrays.asList(writer.toString().split("\n"))));
+        });
+        Assert.assertEquals(8, results.size());
+        for (Set<String> result : results) {
+            Assert.assertEquals(expected, result);
+        }
+    }
+
     /**
      * This test needs improvements; the current background axioms used in the tests are resulting in the Uberon inference we're trying to avoid
      *
@@ -4,6 +4,8 @@ import com.bigdata.journal.Options;
 import com.bigdata.rdf.sail.BigdataSail;
 import com.bigdata.rdf.sail.BigdataSailRepository;
 import com.bigdata.rdf.sail.BigdataSailRepositoryConnection;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import info.aduna.iteration.Iterations;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -12,6 +14,7 @@ import org.geneontology.minerva.MolecularModelManager.UnknownIdentifierException
 import org.geneontology.minerva.curie.CurieHandler;
 import org.geneontology.minerva.util.AnnotationShorthand;
 import org.geneontology.minerva.util.BlazegraphMutationCounter;
+import org.geneontology.minerva.util.Metrics;
 import org.geneontology.minerva.util.ReverseChangeGenerator;
 import org.openrdf.model.*;
 import org.openrdf.model.impl.URIImpl;
@@ -32,8 +35,10 @@ import org.semanticweb.owlapi.rio.RioRenderer;
 
 import javax.annotation.Nonnull;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 
 public class BlazegraphMolecularModelManager<METADATA> extends CoreMolecularModelManager<METADATA> {
@@ -54,6 +59,7 @@ public class BlazegraphMolecularModelManager<METADATA> extends CoreMolecularMode
 
     private final List<PreFileSaveHandler> preFileSaveHandlers = new ArrayList<PreFileSaveHandler>();
     private final List<PostLoadOntologyFilter> postLoadOntologyFilters = new ArrayList<PostLoadOntologyFilter>();
+    private final List<StoredModelListener> storedModelListeners = new CopyOnWriteArrayList<StoredModelListener>();
 
 
     /**
@@ -128,11 +134,15 @@ public class BlazegraphMolecularModelManager<METADATA> extends CoreMolecularMode
 
         // Create an arbitrary unique ID and add it to the system.
         IRI modelId = generateId(modelIdPrefix);
+        LOG.info("Generating blank model for new modelId: " + modelId);
+        return createBlankModel(modelId);
+    }
+
+    private ModelContainer createBlankModel(IRI modelId) throws OWLOntologyCreationException {
         if (modelMap.containsKey(modelId)) {
             throw new OWLOntologyCreationException(
                     "A model already exists for this db: " + modelId);
         }
-        LOG.info("Generating blank model for new modelId: " + modelId);
 
         // create empty ontology, use model id as ontology IRI
         final OWLOntologyManager m = tbox.getOWLOntologyManager();
@@ -153,6 +163,44 @@ public class BlazegraphMolecularModelManager<METADATA> extends CoreMolecularMode
         return model;
     }
 
+    /**
+     * Log all changes applied from now on and replay the unsaved changes
+     * from the previous run. Models, which were never saved, are created
+     * again.
+     *
+     * @param log
+     * @throws IOException
+     */
+    public void setChangeLog(ChangeLog log) throws IOException {
+        Map<IRI, List<byte[]>> unsaved = log.recover();
+        Set<IRI> stored = unsaved.isEmpty() ? Collections.emptySet() : getStoredModelIds();
+        changeLog = log;
+        for (Entry<IRI, List<byte[]>> entry : unsaved.entrySet()) {
+            IRI modelId = entry.getKey();
+            ModelContainer model;
+            try {
+                model = stored.contains(modelId) ? getModel(modelId) : createBlankModel(modelId);
+            } catch (OWLOntologyCreationException e) {
+                model = null;
+            }
+            if (model == null) {
+                LOG.error("Could not replay the unsaved changes of model: " + modelId);
+                continue;
+            }
+            OWLOntology abox = model.getAboxOntology();
+            int count = 0;
+            synchronized (abox) {
+                for (byte[] data : entry.getValue()) {
+                    List<OWLOntologyChange> changes = ChangeLog.read(data, abox);
+                    logChanges(model, model.applyChanges(changes));
+                    count += changes.size();
+                }
+            }
+            LOG.info("Replayed " + count + " unsaved changes of model: " + modelId);
+        }
+        log.deleteRecovered();
+    }
+
     /**
      * Save all models to disk.
      *
@@ -183,6 +231,7 @@ public class BlazegraphMolecularModelManager<METADATA> extends CoreMolecularMode
     public void saveModel(ModelContainer m)
             throws OWLOntologyStorageException, OWLOntologyCreationException,
             IOException, RepositoryException, UnknownIdentifierException {
+        final long start = System.nanoTime();
         IRI modelId = m.getModelId();
         OWLOntology ont2save = m.getAboxOntology();
         Set<String> taxa = getTaxonsForModel(modelId.toString());
@@ -190,15 +239,22 @@ public class BlazegraphMolecularModelManager<METADATA> extends CoreMolecularMode
             for (String taxon : taxa) {
                 ont2save = getGolego_repo().addTaxonModelMetaData(ont2save, IRI.create(taxon));
             }
+            // the taxon annotations stay in the abox
+            m.incrementVersion();
         }
         final OWLOntology ont = ont2save;
         final OWLOntologyManager manager = ont.getOWLOntologyManager();
         List<OWLOntologyChange> changes = preSaveFileHandler(ont);
+        if (changes != null) {
+            // renderings during the save must not be reused afterwards
+            m.incrementVersion();
+        }
         synchronized (ont) {
             try {
                 this.writeModelToDatabase(ont, modelId);
                 // reset modified flag for abox after successful save
                 m.setAboxModified(false);
+                checkpointChanges(modelId);
                 // dump stored model to export file
                 if (this.pathToExportFolder != null) {
                     File folder = new File(this.pathToExportFolder);
@@ -210,8 +266,10 @@ public class BlazegraphMolecularModelManager<METADATA> extends CoreMolecularMode
                             .invertChanges(changes);
                     if (invertedChanges != null && !invertedChanges.isEmpty()) {
                         manager.applyChanges(invertedChanges);
+                        m.incrementVersion();
                     }
                 }
+                Metrics.getDefault().stage("save").observeSince(start);
             }
         }
     }
@@ -238,6 +296,7 @@ public class BlazegraphMolecularModelManager<METADATA> extends CoreMolecularMode
                 connection.close();
             }
         }
+        fireStoredModelChanged(modelId);
     }
 
     private List<OWLOntologyChange> preSaveFileHandler(OWLOntology model) throws UnknownIdentifierException {
@@ -420,6 +479,7 @@ public class BlazegraphMolecularModelManager<METADATA> extends CoreMolecularMode
     }
 
     public QueryResult executeSPARQLQuery(String queryText, int timeout) throws MalformedQueryException, QueryEvaluationException, RepositoryException {
+        final long start = System.nanoTime();
         BigdataSailRepositoryConnection connection = repo.getReadOnlyConnection();
         try {
             List<QueryPrologLexer.Token> tokens = QueryPrologLexer.lex(queryText);
@@ -447,10 +507,12 @@ public class BlazegraphMolecularModelManager<METADATA> extends CoreMolecularMode
             }
         } finally {
             connection.close();
+            observeQuery(start);
         }
     }
 
     public QueryResult executeSPARQLQueryWithoutPrefixManipulation(String queryText, int timeout) throws MalformedQueryException, QueryEvaluationException, RepositoryException {
+        final long start = System.nanoTime();
         BigdataSailRepositoryConnection connection = repo.getReadOnlyConnection();
         try {
             Query query = connection.prepareQuery(QueryLanguage.SPARQL, queryText.toString());
@@ -468,11 +530,17 @@ public class BlazegraphMolecularModelManager<METADATA> extends CoreMolecularMode
             }
         } finally {
             connection.close();
+            observeQuery(start);
         }
     }
 
+    private static void observeQuery(long start) {
+        Metrics.getDefault().histogram("minerva_blazegraph_query_seconds", "Time to prepare and start the evaluation of SPARQL queries.").observeSince(start);
+    }
+
     @Override
     public void loadModel(IRI modelId, boolean isOverride) throws OWLOntologyCreationException {
+        final long start = System.nanoTime();
         if (modelMap.containsKey(modelId)) {
             if (!isOverride) {
                 throw new OWLOntologyCreationException("Model already exists: " + modelId);
@@ -500,6 +568,8 @@ public class BlazegraphMolecularModelManager<METADATA> extends CoreMolecularMode
             }
         } catch (RepositoryException e) {
             throw new OWLOntologyCreationException(e);
+        } finally {
+            Metrics.getDefault().stage("load").observeSince(start);
         }
     }
 
@@ -542,6 +612,46 @@ public class BlazegraphMolecularModelManager<METADATA> extends CoreMolecularMode
         }
     }
 
+    /**
+     * Hash of the stored triples of a model, independent of their order. It
+     * only changes, when the stored model changes. Unsaved changes in memory
+     * are not included.
+     *
+     * @param modelId
+     * @return hash or null, if the model is not stored
+     * @throws IOException
+     */
+    public String getStoredModelHash(IRI modelId) throws IOException {
+        try {
+            BigdataSailRepositoryConnection connection = repo.getReadOnlyConnection();
+            try {
+                RepositoryResult<Statement> statements =
+                        connection.getStatements(null, null, null, false, new URIImpl(modelId.toString()));
+                List<HashCode> hashes = new ArrayList<>();
+                try {
+                    while (statements.hasNext()) {
+                        Statement statement = statements.next();
+                        hashes.add(Hashing.murmur3_128().newHasher()
+                                .putString(statement.getSubject().stringValue(), StandardCharsets.UTF_8).putByte((byte) 0)
+                                .putString(statement.getPredicate().stringValue(), StandardCharsets.UTF_8).putByte((byte) 0)
+                                .putString(statement.getObject().toString(), StandardCharsets.UTF_8)
+                                .hash());
+                    }
+                } finally {
+                    statements.close();
+                }
+                if (hashes.isEmpty()) {
+                    return null;
+                }
+                return Hashing.combineUnordered(hashes).toString();
+            } finally {
+                connection.close();
+            }
+        } catch (RepositoryException e) {
+            throw new IOException(e);
+        }
+    }
+
     private OWLOntology postLoadFileFilter(OWLOntology model) {
         for (PostLoadOntologyFilter filter : postLoadOntologyFilters) {
             model = filter.filter(model);
@@ -560,6 +670,30 @@ public class BlazegraphMolecularModelManager<METADATA> extends CoreMolecularMode
         }
     }
 
+    /**
+     * Notified after the stored version of a model changed in the database.
+     */
+    public static interface StoredModelListener {
+
+        public void storedModelChanged(IRI modelId);
+    }
+
+    public void addStoredModelListener(StoredModelListener listener) {
+        if (listener != null) {
+            storedModelListeners.add(listener);
+        }
+    }
+
+    private void fireStoredModelChanged(IRI modelId) {
+        for (StoredModelListener listener : storedModelListeners) {
+            try {
+                listener.storedModelChanged(modelId);
+            } catch (RuntimeException e) {
+                LOG.error("Could not notify listener about stored model: " + modelId, e);
+            }
+        }
+    }
+
     /**
      * Imports ontology RDF directly to database. Will remove any import statements in the ontology (because GO-CAMs should not have any as of now)
      *
@@ -618,6 +752,7 @@ public class BlazegraphMolecularModelManager<METADATA> extends CoreMolecularMode
                             connection.close();
                         }
                     }
+                    fireStoredModelChanged(IRI.create(modeliri));
                 }
             } else {
                 throw new OWLOntologyCreationException("Detected anonymous ontology; must have IRI");
@@ -991,6 +1126,7 @@ public class BlazegraphMolecularModelManager<METADATA> extends CoreMolecularMode
                 conn.close();
             }
         }
+        fireStoredModelChanged(model_iri);
         return changes;
     }
 
@@ -0,0 +1,385 @@
+package org.geneontology.minerva;
+
+import org.apache.log4j.Logger;
+import org.geneontology.minerva.util.OntologyChangeCodec;
+import org.semanticweb.owlapi.model.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the changes applied to the models in memory, used to
+ * recover the unsaved changes after a crash.
+ * <p>
+ * Appending only queues the changes, a background thread writes them and
+ * syncs the file once per interval. A crash loses at most the changes of
+ * the last interval. Saving a model writes a checkpoint, its earlier
+ * changes are not replayed anymore. The log is split into segments, a
+ * segment is deleted, once all its models have a checkpoint.
+ */
+public class ChangeLog implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(ChangeLog.class);
+
+    private static final String PREFIX = "changes-";
+    private static final String SUFFIX = ".log";
+    static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    private static final byte CHANGES = 1;
+    private static final byte CHECKPOINT = 2;
+
+    private final File folder;
+    private final long segmentBytes;
+    private final Queue<Frame> queue = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "change-log");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // segments of the previous run, oldest first
+    private final List<File> recovered;
+    // models with changes after their last checkpoint, for each segment
+    private final SortedMap<Long, Set<IRI>> pending = new TreeMap<>();
+    private long segment;
+    private FileChannel channel;
+    private volatile boolean closed = false;
+
+    /**
+     * @param folder     folder for the log segments
+     * @param syncMillis interval for writing and syncing the changes
+     * @throws IOException
+     */
+    public ChangeLog(File folder, long syncMillis) throws IOException {
+        this(folder, syncMillis, DEFAULT_SEGMENT_BYTES);
+    }
+
+    ChangeLog(File folder, long syncMillis, long segmentBytes) throws IOException {
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Could not create the change log folder: " + folder);
+        }
+        this.folder = folder;
+        this.segmentBytes = segmentBytes;
+        this.recovered = listSegments(folder);
+        this.segment = recovered.isEmpty() ? 0 : getSegmentNumber(recovered.get(recovered.size() - 1)) + 1;
+        this.channel = openSegment(segment);
+        writer.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (IOException e) {
+                LOG.error("Could not write the change log", e);
+            }
+        }, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue the changes of a model. Only axiom and ontology annotation
+     * changes of the given ontology are logged.
+     *
+     * @param modelId
+     * @param abox
+     * @param changes applied changes
+     */
+    public void append(IRI modelId, OWLOntology abox, List<? extends OWLOntologyChange> changes) {
+        if (closed) {
+            return;
+        }
+        List<OWLOntologyChange> logged = new ArrayList<>(changes.size());
+        for (OWLOntologyChange change : changes) {
+            if (abox.equals(change.getOntology())) {
+                logged.add(change);
+            }
+        }
+        if (logged.isEmpty()) {
+            return;
+        }
+        if (OntologyChangeCodec.isSupported(logged) == false) {
+            LOG.warn("Skipping unsupported changes in the change log of model: " + modelId);
+            logged.removeIf(change -> OntologyChangeCodec.isSupported(Collections.singletonList(change)) == false);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            OntologyChangeCodec.write(out, logged);
+        } catch (IOException e) {
+            // writing to memory
+            throw new IllegalStateException(e);
+        }
+        queue.add(createFrame(CHANGES, modelId, bytes.toByteArray()));
+    }
+
+    /**
+     * Queue a checkpoint for the model, e.g. after it was saved or its
+     * changes were discarded.
+     *
+     * @param modelId
+     */
+    public void checkpoint(IRI modelId) {
+        if (closed) {
+            return;
+        }
+        queue.add(createFrame(CHECKPOINT, modelId, new byte[0]));
+    }
+
+    /**
+     * Write and sync the queued changes.
+     *
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        boolean written = false;
+        Frame frame;
+        // only remove the frame from the queue, once it is written
+        while ((frame = queue.peek()) != null) {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(frame.encoded);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                // a partial frame ends the recovery of the segment, write the following frames to a new one
+                startNewSegment();
+                throw e;
+            }
+            queue.poll();
+            track(frame);
+            written = true;
+        }
+        if (written) {
+            channel.force(false);
+            if (channel.size() >= segmentBytes) {
+                startNewSegment();
+            }
+            deleteCompletedSegments();
+        }
+    }
+
+    private void startNewSegment() throws IOException {
+        // a segment with only checkpoints is deleted as well
+        pending.computeIfAbsent(segment, k -> new HashSet<>());
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.warn("Could not close change log segment: " + getSegmentFile(segment), e);
+        }
+        segment += 1;
+        channel = openSegment(segment);
+    }
+
+    /**
+     * Read the changes of the previous run, which are not covered by a
+     * checkpoint. A torn frame at the end of a segment ends its reading.
+     *
+     * @return changes for each model in the order of the log, see {@link #read(byte[], OWLOntology)}
+     * @throws IOException
+     */
+    public Map<IRI, List<byte[]>> recover() throws IOException {
+        Map<IRI, List<byte[]>> unsaved = new LinkedHashMap<>();
+        for (File file : recovered) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                while (true) {
+                    Frame frame = readFrame(in);
+                    if (frame == null) {
+                        break;
+                    }
+                    if (frame.type == CHANGES) {
+                        unsaved.computeIfAbsent(frame.modelId, k -> new ArrayList<>()).add(frame.data);
+                    } else {
+                        unsaved.remove(frame.modelId);
+                    }
+                }
+            } catch (EOFException e) {
+                LOG.warn("Ignoring the incomplete end of the change log: " + file);
+            }
+        }
+        return unsaved;
+    }
+
+    /**
+     * Delete the segments of the previous run, after their unsaved changes
+     * have been replayed and appended to this log.
+     *
+     * @throws IOException
+     */
+    public void deleteRecovered() throws IOException {
+        flush();
+        for (File file : recovered) {
+            if (!file.delete()) {
+                LOG.warn("Could not delete change log segment: " + file);
+            }
+        }
+        recovered.clear();
+    }
+
+    /**
+     * @param data  changes from {@link #recover()}
+     * @param abox  ontology of the model
+     * @return changes for the ontology
+     * @throws IOException
+     */
+    public static List<OWLOntologyChange> read(byte[] data, OWLOntology abox) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return OntologyChangeCodec.read(in, abox);
+        }
+    }
+
+    /**
+     * Write the queued changes and stop logging.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            flush();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void track(Frame frame) {
+        if (frame.type == CHANGES) {
+            pending.computeIfAbsent(segment, k -> new HashSet<>()).add(frame.modelId);
+        } else {
+            for (Set<IRI> modelIds : pending.values()) {
+                modelIds.remove(frame.modelId);
+            }
+        }
+    }
+
+    /**
+     * Delete the oldest segments, as long as they have no pending models. A
+     * later segment may hold the only checkpoint for changes in an earlier
+     * segment, it is kept until all earlier segments are deleted.
+     */
+    private void deleteCompletedSegments() {
+        Iterator<Map.Entry<Long, Set<IRI>>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Set<IRI>> entry = iterator.next();
+            if (entry.getKey() >= segment || !entry.getValue().isEmpty()) {
+                return;
+            }
+            File file = getSegmentFile(entry.getKey());
+            if (!file.delete() && file.exists()) {
+                return;
+            }
+            iterator.remove();
+        }
+    }
+
+    /*
+     * frame: length of the payload, CRC32 of the payload and the payload
+     * payload: type, model id and data
+     */
+    private static Frame createFrame(byte type, IRI modelId, byte[] data) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(data.length + 128);
+        try (DataOutputStream out = new DataOutputStream(payload)) {
+            out.writeByte(type);
+            out.writeUTF(modelId.toString());
+            out.writeInt(data.length);
+            out.write(data);
+        } catch (IOException e) {
+            // writing to memory
+            throw new IllegalStateException(e);
+        }
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteBuffer frame = ByteBuffer.allocate(12 + bytes.length);
+        frame.putInt(bytes.length);
+        frame.putLong(crc.getValue());
+        frame.put(bytes);
+        return new Frame(type, modelId, data, frame.array());
+    }
+
+    /**
+     * @param in
+     * @return frame or null at the end of the input or of the valid frames
+     * @throws IOException
+     */
+    private static Frame readFrame(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        long expected = in.readLong();
+        if (length < 0 || length > 1024 * 1024 * 1024) {
+            LOG.warn("Invalid frame length in the change log: " + length);
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        if (crc.getValue() != expected) {
+            LOG.warn("Invalid checksum in the change log, ignoring the rest of the segment");
+            return null;
+        }
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte type = payload.readByte();
+        IRI modelId = IRI.create(payload.readUTF());
+        byte[] data = new byte[payload.readInt()];
+        payload.readFully(data);
+        return new Frame(type, modelId, data, null);
+    }
+
+    private static class Frame {
+        final byte type;
+        final IRI modelId;
+        final byte[] data;
+        // the frame as written to the log
+        final byte[] encoded;
+
+        Frame(byte type, IRI modelId, byte[] data, byte[] encoded) {
+            this.type = type;
+            this.modelId = modelId;
+            this.data = data;
+            this.encoded = encoded;
+        }
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        return FileChannel.open(getSegmentFile(number).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private File getSegmentFile(long number) {
+        return new File(folder, String.format("%s%012d%s", PREFIX, number, SUFFIX));
+    }
+
+    private static long getSegmentNumber(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private static List<File> listSegments(File folder) {
+        File[] files = folder.listFiles((dir, name) -> name.matches(PREFIX + "\\d+" + SUFFIX));
+        List<File> segments = new ArrayList<>();
+        if (files != null) {
+            segments.addAll(Arrays.asList(files));
+        }
+        segments.sort(Comparator.comparingLong(ChangeLog::getSegmentNumber));
+        return segments;
+    }
+}
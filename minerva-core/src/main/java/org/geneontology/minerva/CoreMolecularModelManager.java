@@ -9,6 +9,7 @@ import org.apache.log4j.Logger;
 import org.geneontology.jena.OWLtoRules;
 import org.geneontology.jena.SesameJena;
 import org.geneontology.minerva.util.AnnotationShorthand;
+import org.geneontology.minerva.util.Metrics;
 import org.geneontology.rules.engine.RuleEngine;
 import org.geneontology.rules.engine.Triple;
 import org.geneontology.rules.engine.WorkingMemory;
@@ -75,6 +76,8 @@ public abstract class CoreMolecularModelManager<METADATA> {
     private final IRI tboxIRI;
 
     final Map<IRI, ModelContainer> modelMap = new HashMap<IRI, ModelContainer>();
+    // log of the applied changes, if any
+    volatile ChangeLog changeLog = null;
     Set<IRI> additionalImports;
 
     private final RuleEngine ruleEngine;
@@ -804,6 +807,8 @@ public abstract class CoreMolecularModelManager<METADATA> {
         ModelContainer model = modelMap.get(id);
         model.dispose();
         modelMap.remove(id);
+        // unsaved changes are discarded
+        checkpointChanges(id);
     }
 
     /**
@@ -817,6 +822,16 @@ public abstract class CoreMolecularModelManager<METADATA> {
      * internal method to cleanup this instance
      */
     public void dispose() {
+        // keep the unsaved changes for the next start
+        ChangeLog log = changeLog;
+        changeLog = null;
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                LOG.error("Could not close the change log", e);
+            }
+        }
         Set<IRI> ids = new HashSet<IRI>(getModelIds());
         for (IRI id : ids) {
             unlinkModel(id);
@@ -1253,8 +1268,37 @@ public abstract class CoreMolecularModelManager<METADATA> {
 
     private void applyChanges(ModelContainer model, OWLOntologyManager m,
                               List<? extends OWLOntologyChange> changes, METADATA metadata) {
+        final long start = System.nanoTime();
         List<OWLOntologyChange> appliedChanges = model.applyChanges(changes);
+        logChanges(model, appliedChanges);
         addToHistory(model, appliedChanges, metadata);
+        Metrics.getDefault().stage("apply").observeSince(start);
+    }
+
+    /**
+     * Append applied changes to the change log, if there is one.
+     *
+     * @param model
+     * @param appliedChanges
+     */
+    protected void logChanges(ModelContainer model, List<OWLOntologyChange> appliedChanges) {
+        ChangeLog log = changeLog;
+        if (log != null && appliedChanges != null && !appliedChanges.isEmpty()) {
+            log.append(model.getModelId(), model.getAboxOntology(), appliedChanges);
+        }
+    }
+
+    /**
+     * The logged changes of the model are not needed anymore, because it
+     * was saved or its changes were discarded.
+     *
+     * @param modelId
+     */
+    protected void checkpointChanges(IRI modelId) {
+        ChangeLog log = changeLog;
+        if (log != null) {
+            log.checkpoint(modelId);
+        }
     }
 
     /**
@@ -8,6 +8,7 @@ import org.semanticweb.owlapi.model.parameters.ChangeApplied;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ModelContainer {
 
@@ -21,6 +22,10 @@ public class ModelContainer {
 
     private final List<ModelChangeListener> listeners = new CopyOnWriteArrayList<>();
 
+    // versions are drawn from one counter, so a reloaded model never repeats a version of its previous container
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    private volatile long version = VERSIONS.incrementAndGet();
+
     /**
      * The container is seeded with a tbox (i.e. ontology). An abox will be created
      * automatically.
@@ -149,6 +154,7 @@ public class ModelContainer {
                 }
             }
             if (relevantChanges.isEmpty() == false) {
+                version = VERSIONS.incrementAndGet();
                 for (ModelChangeListener listener : listeners) {
                     listener.handleChange(relevantChanges);
                 }
@@ -157,6 +163,21 @@ public class ModelContainer {
         return new ArrayList<OWLOntologyChange>(changes);
     }
 
+    /**
+     * @return version of the abox, increases with each applied change
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Increase the version for changes, which were applied directly to the
+     * abox and not with {@link #applyChanges(List)}, e.g. by the save.
+     */
+    public void incrementVersion() {
+        version = VERSIONS.incrementAndGet();
+    }
+
     public boolean isModified() {
         return aboxModified;
     }
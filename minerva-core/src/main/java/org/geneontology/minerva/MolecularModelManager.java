@@ -254,6 +254,7 @@ public class MolecularModelManager<METADATA> extends BlazegraphMolecularModelMan
         ModelContainer model = modelMap.remove(modelId);
         if (model != null) {
             model.dispose();
+            checkpointChanges(modelId);
             return true;
         }
         return false;
@@ -9,6 +9,7 @@ import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyChange;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicLong;
@@ -18,65 +19,7 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class UndoAwareMolecularModelManager extends MolecularModelManager<UndoMetadata> {
 
-    private final Map<IRI, UndoRedo> allChanges = new HashMap<>();
-
-    private static class UndoRedo {
-        final Deque<ChangeEvent> undoBuffer = new LinkedList<>();
-        final Deque<ChangeEvent> redoBuffer = new LinkedList<>();
-        private UndoMetadata token = null;
-
-        void addUndo(List<OWLOntologyChange> changes, UndoMetadata metadata) {
-            addUndo(new ChangeEvent(metadata.userId, changes, System.currentTimeMillis()), metadata);
-        }
-
-        void addUndo(List<OWLOntologyChange> changes, String userId) {
-            token = null;
-            undoBuffer.push(new ChangeEvent(userId, changes, System.currentTimeMillis()));
-        }
-
-        void addUndo(ChangeEvent changes, UndoMetadata token) {
-            if (this.token == null || this.token.equals(token) == false) {
-                // new event or different event
-                undoBuffer.push(changes);
-                this.token = token;
-            } else {
-                // append to last event
-                ChangeEvent current = undoBuffer.peek();
-                if (current != null) {
-                    current.getChanges().addAll(changes.getChanges());
-                } else {
-                    undoBuffer.push(changes);
-                }
-            }
-        }
-
-        ChangeEvent getUndo() {
-            if (undoBuffer.peek() != null) {
-                return undoBuffer.pop();
-            }
-            return null;
-        }
-
-        void addRedo(List<OWLOntologyChange> changes, String userId) {
-            addRedo(new ChangeEvent(userId, changes, System.currentTimeMillis()));
-        }
-
-        void addRedo(ChangeEvent changes) {
-            redoBuffer.push(changes);
-            this.token = null;
-        }
-
-        ChangeEvent getRedo() {
-            if (redoBuffer.peek() != null) {
-                return redoBuffer.pop();
-            }
-            return null;
-        }
-
-        void clearRedo() {
-            redoBuffer.clear();
-        }
-    }
+    private final UndoHistory allChanges = new UndoHistory();
 
     public static class UndoMetadata {
         private static final AtomicLong instanceCounter = new AtomicLong(0L);
@@ -136,6 +79,8 @@ public class UndoAwareMolecularModelManager extends MolecularModelManager<UndoMe
         final String userId;
         final List<OWLOntologyChange> changes;
         final long time;
+        // estimated size, maintained by the history
+        long bytes = 0;
 
         /**
          * @param userId
@@ -166,27 +111,45 @@ public class UndoAwareMolecularModelManager extends MolecularModelManager<UndoMe
         super(tbox, curieHandler, modelIdLongFormPrefix, pathToJournal, pathToExportFolder, pathToOntologyJournal, downloadOntologyJournal);
     }
 
+    /**
+     * Limit the undo and redo history. Events beyond the limits are dropped
+     * or spilled to disk, see {@link #setUndoSpillFolder(File)}. Values of
+     * zero or less disable a limit.
+     *
+     * @param maxDepth      maximum number of undo and of redo events per model
+     * @param maxBytes      maximum estimated size of the history per model
+     * @param maxTotalBytes maximum estimated size of the history of all models
+     */
+    public void setUndoLimits(int maxDepth, long maxBytes, long maxTotalBytes) {
+        allChanges.setLimits(maxDepth, maxBytes, maxTotalBytes);
+    }
+
+    /**
+     * Keep the undo events beyond the limits in a compressed log per model
+     * in this folder. Undo reads them back, when it reaches them.
+     *
+     * @param folder folder for the logs or null to drop the events
+     * @throws IOException
+     */
+    public void setUndoSpillFolder(File folder) throws IOException {
+        allChanges.setSpillFolder(folder);
+    }
+
     @Override
     protected void addToHistory(ModelContainer model, List<OWLOntologyChange> appliedChanges, UndoMetadata metadata) {
         if (appliedChanges == null || appliedChanges.isEmpty()) {
             // do nothing
             return;
         }
-        UndoRedo undoRedo;
-        synchronized (allChanges) {
-            IRI modelId = model.getModelId();
-            undoRedo = allChanges.get(modelId);
-            if (undoRedo == null) {
-                undoRedo = new UndoRedo();
-                allChanges.put(modelId, undoRedo);
-            }
-        }
+        UndoHistory.UndoRedo undoRedo = allChanges.getOrCreate(model.getModelId());
         synchronized (undoRedo) {
             // append to undo
             undoRedo.addUndo(appliedChanges, metadata);
             // clear redo
             undoRedo.clearRedo();
         }
+        // enforce the limit for all models, without holding the lock of this model
+        allChanges.trim();
     }
 
     /**
@@ -197,10 +160,7 @@ public class UndoAwareMolecularModelManager extends MolecularModelManager<UndoMe
      * @return true if the undo was successful
      */
     public boolean undo(ModelContainer model, String userId) {
-        UndoRedo undoRedo;
-        synchronized (allChanges) {
-            undoRedo = allChanges.get(model.getModelId());
-        }
+        UndoHistory.UndoRedo undoRedo = allChanges.get(model.getModelId());
         if (undoRedo != null) {
             final OWLOntology abox = model.getAboxOntology();
             synchronized (abox) {
@@ -210,7 +170,7 @@ public class UndoAwareMolecularModelManager extends MolecularModelManager<UndoMe
                  */
                 synchronized (undoRedo) {
                     // pop from undo
-                    ChangeEvent event = undoRedo.getUndo();
+                    ChangeEvent event = undoRedo.getUndo(abox);
                     if (event == null) {
                         return false;
                     }
@@ -236,10 +196,7 @@ public class UndoAwareMolecularModelManager extends MolecularModelManager<UndoMe
      * @return true if the redo was successful
      */
     public boolean redo(ModelContainer model, String userId) {
-        UndoRedo undoRedo;
-        synchronized (allChanges) {
-            undoRedo = allChanges.get(model.getModelId());
-        }
+        UndoHistory.UndoRedo undoRedo = allChanges.get(model.getModelId());
         if (undoRedo != null) {
             final OWLOntology abox = model.getAboxOntology();
             synchronized (abox) {
@@ -267,16 +224,14 @@ public class UndoAwareMolecularModelManager extends MolecularModelManager<UndoMe
     }
 
     /**
-     * Retrieve the current available undo and redo events.
+     * Retrieve the current available undo and redo events. Events spilled to
+     * disk are not included.
      *
      * @param modelId
      * @return pair of undo (left) and redo (right) events
      */
     public Pair<List<ChangeEvent>, List<ChangeEvent>> getUndoRedoEvents(IRI modelId) {
-        UndoRedo undoRedo = null;
-        synchronized (allChanges) {
-            undoRedo = allChanges.get(modelId);
-        }
+        UndoHistory.UndoRedo undoRedo = allChanges.get(modelId);
         if (undoRedo == null) {
             // return empty of no data is available
             return Pair.of(Collections.<ChangeEvent>emptyList(), Collections.<ChangeEvent>emptyList());
@@ -290,19 +245,17 @@ public class UndoAwareMolecularModelManager extends MolecularModelManager<UndoMe
     }
 
     public void clearUndoHistory(IRI modelId) {
-        UndoRedo undoRedo = null;
-        synchronized (allChanges) {
-            undoRedo = allChanges.get(modelId);
-        }
+        UndoHistory.UndoRedo undoRedo = allChanges.get(modelId);
         if (undoRedo != null) {
             synchronized (undoRedo) {
-                undoRedo.undoBuffer.clear();
+                undoRedo.clearUndo();
             }
         }
     }
 
     protected void applyChanges(ModelContainer model, List<OWLOntologyChange> changes) {
-        model.applyChanges(changes);
+        List<OWLOntologyChange> appliedChanges = model.applyChanges(changes);
+        logChanges(model, appliedChanges);
     }
 
 
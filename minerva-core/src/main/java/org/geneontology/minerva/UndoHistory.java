@@ -0,0 +1,378 @@
+package org.geneontology.minerva;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.log4j.Logger;
+import org.geneontology.minerva.UndoAwareMolecularModelManager.ChangeEvent;
+import org.geneontology.minerva.UndoAwareMolecularModelManager.UndoMetadata;
+import org.geneontology.minerva.util.OntologyChangeCodec;
+import org.semanticweb.owlapi.model.*;
+
+import java.io.*;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Undo and redo events of all models, bounded in depth and estimated size
+ * per model and in total.
+ * <p>
+ * Events beyond the limits are dropped, oldest first. If a spill folder is
+ * set, they are appended to a compressed log per model instead and read
+ * back, when an undo reaches them.
+ */
+class UndoHistory {
+
+    private static final Logger LOG = Logger.getLogger(UndoHistory.class);
+
+    private static final String SPILL_SUFFIX = ".undo";
+
+    private final Map<IRI, UndoRedo> models = new HashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    // orders the models by their last modification
+    private final AtomicLong modifications = new AtomicLong();
+
+    private volatile int maxDepth = Integer.MAX_VALUE;
+    private volatile long maxBytes = Long.MAX_VALUE;
+    private volatile long maxTotalBytes = Long.MAX_VALUE;
+    private volatile File spillFolder = null;
+
+    /**
+     * @param maxDepth      maximum number of undo and of redo events per model
+     * @param maxBytes      maximum estimated size of the events per model
+     * @param maxTotalBytes maximum estimated size of the events of all models
+     */
+    void setLimits(int maxDepth, long maxBytes, long maxTotalBytes) {
+        this.maxDepth = maxDepth > 0 ? maxDepth : Integer.MAX_VALUE;
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        this.maxTotalBytes = maxTotalBytes > 0 ? maxTotalBytes : Long.MAX_VALUE;
+    }
+
+    /**
+     * @param folder folder for the spilled events or null to drop them
+     * @throws IOException
+     */
+    void setSpillFolder(File folder) throws IOException {
+        if (folder != null) {
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                throw new IOException("Could not create the undo spill folder: " + folder);
+            }
+            // the history of a previous run can not be used anymore
+            File[] stale = folder.listFiles((dir, name) -> name.endsWith(SPILL_SUFFIX));
+            if (stale != null) {
+                for (File file : stale) {
+                    file.delete();
+                }
+            }
+        }
+        this.spillFolder = folder;
+    }
+
+    /**
+     * @return estimated size of the events in memory
+     */
+    long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    UndoRedo get(IRI modelId) {
+        synchronized (models) {
+            return models.get(modelId);
+        }
+    }
+
+    UndoRedo getOrCreate(IRI modelId) {
+        synchronized (models) {
+            UndoRedo undoRedo = models.get(modelId);
+            if (undoRedo == null) {
+                undoRedo = new UndoRedo(modelId);
+                models.put(modelId, undoRedo);
+            }
+            return undoRedo;
+        }
+    }
+
+    /**
+     * Enforce the limit for all models, by evicting the oldest events of
+     * the least recently modified models first. The newest undo event of
+     * each model is kept.
+     * <p>
+     * WARNING do not call while holding the lock of an {@link UndoRedo},
+     * this locks the other models one at a time.
+     */
+    void trim() {
+        if (totalBytes.get() <= maxTotalBytes) {
+            return;
+        }
+        List<UndoRedo> all;
+        synchronized (models) {
+            all = new ArrayList<>(models.values());
+        }
+        all.sort(Comparator.comparingLong(undoRedo -> undoRedo.lastModified));
+        for (UndoRedo undoRedo : all) {
+            synchronized (undoRedo) {
+                while (totalBytes.get() > maxTotalBytes && undoRedo.undoBuffer.size() > 1) {
+                    undoRedo.evictOldestUndo();
+                }
+            }
+            if (totalBytes.get() <= maxTotalBytes) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove changes, which do not contribute to the undo or redo of the
+     * list. Only the first and the last change of the same axiom matter:
+     * undo restores the state before the first, redo the state after the
+     * last change. All other changes keep their order.
+     *
+     * @param changes
+     * @return compacted changes
+     */
+    static List<OWLOntologyChange> compact(List<OWLOntologyChange> changes) {
+        Map<Pair<OWLOntology, OWLAxiom>, Integer> first = new HashMap<>();
+        Map<Pair<OWLOntology, OWLAxiom>, Integer> last = new HashMap<>();
+        for (int i = 0; i < changes.size(); i++) {
+            OWLOntologyChange change = changes.get(i);
+            if (change.isAxiomChange()) {
+                Pair<OWLOntology, OWLAxiom> key = Pair.of(change.getOntology(), change.getAxiom());
+                first.putIfAbsent(key, i);
+                last.put(key, i);
+            }
+        }
+        if (first.size() == changes.size()) {
+            return changes;
+        }
+        List<OWLOntologyChange> compacted = new ArrayList<>();
+        for (int i = 0; i < changes.size(); i++) {
+            OWLOntologyChange change = changes.get(i);
+            if (change.isAxiomChange()) {
+                Pair<OWLOntology, OWLAxiom> key = Pair.of(change.getOntology(), change.getAxiom());
+                int firstIndex = first.get(key);
+                if (i != firstIndex && (i != last.get(key) || change.isAddAxiom() == changes.get(firstIndex).isAddAxiom())) {
+                    continue;
+                }
+            }
+            compacted.add(change);
+        }
+        return compacted;
+    }
+
+    /**
+     * Rough estimate of the heap used by the changes.
+     *
+     * @param changes
+     * @return bytes
+     */
+    static long estimateBytes(List<OWLOntologyChange> changes) {
+        long bytes = 64;
+        for (OWLOntologyChange change : changes) {
+            bytes += 128;
+            if (change.isAxiomChange()) {
+                bytes += 64L * change.getAxiom().getAnnotations().size();
+            }
+        }
+        return bytes;
+    }
+
+    private static String getSpillFileName(IRI modelId) {
+        try {
+            return URLEncoder.encode(modelId.toString(), StandardCharsets.UTF_8.name()) + SPILL_SUFFIX;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * History of one model, all methods require the lock of the instance.
+     */
+    class UndoRedo {
+        final IRI modelId;
+        final Deque<ChangeEvent> undoBuffer = new LinkedList<>();
+        final Deque<ChangeEvent> redoBuffer = new LinkedList<>();
+        private UndoMetadata token = null;
+        // estimated size of the events in both buffers
+        private long bytes = 0;
+        volatile long lastModified = 0;
+        // start of each spilled event in the spill file, the newest last
+        private final Deque<Long> spilled = new ArrayDeque<>();
+        private File spillFile = null;
+
+        UndoRedo(IRI modelId) {
+            this.modelId = modelId;
+        }
+
+        void addUndo(List<OWLOntologyChange> changes, UndoMetadata metadata) {
+            addUndo(new ChangeEvent(metadata.userId, changes, System.currentTimeMillis()), metadata);
+        }
+
+        void addUndo(List<OWLOntologyChange> changes, String userId) {
+            token = null;
+            push(undoBuffer, new ChangeEvent(userId, changes, System.currentTimeMillis()));
+        }
+
+        void addUndo(ChangeEvent changes, UndoMetadata token) {
+            ChangeEvent current = undoBuffer.peek();
+            if (this.token == null || this.token.equals(token) == false || current == null) {
+                // new event or different event
+                push(undoBuffer, changes);
+                this.token = token;
+            } else {
+                // append to last event
+                remove(current);
+                current.changes.addAll(changes.getChanges());
+                add(current);
+                trim();
+            }
+        }
+
+        private void push(Deque<ChangeEvent> buffer, ChangeEvent event) {
+            add(event);
+            buffer.push(event);
+            trim();
+        }
+
+        ChangeEvent getUndo(OWLOntology abox) {
+            ChangeEvent event = undoBuffer.poll();
+            if (event == null) {
+                event = pageIn(abox);
+            }
+            if (event != null) {
+                remove(event);
+            }
+            return event;
+        }
+
+        void addRedo(List<OWLOntologyChange> changes, String userId) {
+            addRedo(new ChangeEvent(userId, changes, System.currentTimeMillis()));
+        }
+
+        void addRedo(ChangeEvent changes) {
+            push(redoBuffer, changes);
+            this.token = null;
+        }
+
+        ChangeEvent getRedo() {
+            ChangeEvent event = redoBuffer.poll();
+            if (event != null) {
+                remove(event);
+            }
+            return event;
+        }
+
+        void clearRedo() {
+            for (ChangeEvent event : redoBuffer) {
+                remove(event);
+            }
+            redoBuffer.clear();
+        }
+
+        void clearUndo() {
+            for (ChangeEvent event : undoBuffer) {
+                remove(event);
+            }
+            undoBuffer.clear();
+            token = null;
+            dropSpilled();
+        }
+
+        /**
+         * @return number of undo events on disk
+         */
+        int getSpilledCount() {
+            return spilled.size();
+        }
+
+        private void add(ChangeEvent event) {
+            List<OWLOntologyChange> compacted = compact(event.changes);
+            if (compacted != event.changes) {
+                event.changes.clear();
+                event.changes.addAll(compacted);
+            }
+            event.bytes = estimateBytes(event.changes);
+            bytes += event.bytes;
+            totalBytes.addAndGet(event.bytes);
+            lastModified = modifications.incrementAndGet();
+        }
+
+        private void remove(ChangeEvent event) {
+            bytes -= event.bytes;
+            totalBytes.addAndGet(-event.bytes);
+        }
+
+        private void trim() {
+            while (undoBuffer.size() > 1 && (undoBuffer.size() > maxDepth || bytes > maxBytes)) {
+                evictOldestUndo();
+            }
+            while (redoBuffer.size() > maxDepth) {
+                remove(redoBuffer.pollLast());
+            }
+        }
+
+        void evictOldestUndo() {
+            ChangeEvent oldest = undoBuffer.pollLast();
+            remove(oldest);
+            spill(oldest);
+        }
+
+        private void spill(ChangeEvent event) {
+            File folder = spillFolder;
+            if (folder == null || OntologyChangeCodec.isSupported(event.changes) == false) {
+                // the spilled events can only be undone in order, without gaps
+                dropSpilled();
+                return;
+            }
+            if (spillFile == null) {
+                spillFile = new File(folder, getSpillFileName(modelId));
+            }
+            long offset = spillFile.length();
+            try (ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new FileOutputStream(spillFile, true)))) {
+                out.writeObject(event.userId);
+                out.writeLong(event.time);
+                OntologyChangeCodec.write(out, event.changes);
+            } catch (IOException e) {
+                LOG.warn("Could not spill the undo history of model: " + modelId, e);
+                dropSpilled();
+                return;
+            }
+            spilled.addLast(offset);
+        }
+
+        private ChangeEvent pageIn(OWLOntology abox) {
+            Long offset = spilled.pollLast();
+            if (offset == null) {
+                return null;
+            }
+            try {
+                ChangeEvent event;
+                try (FileInputStream file = new FileInputStream(spillFile)) {
+                    file.getChannel().position(offset);
+                    ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(file)));
+                    String userId = (String) in.readObject();
+                    long time = in.readLong();
+                    event = new ChangeEvent(userId, OntologyChangeCodec.read(in, abox), time);
+                }
+                try (RandomAccessFile file = new RandomAccessFile(spillFile, "rw")) {
+                    file.setLength(offset);
+                }
+                add(event);
+                return event;
+            } catch (IOException | ClassNotFoundException e) {
+                LOG.warn("Could not read the spilled undo history of model: " + modelId, e);
+                dropSpilled();
+                return null;
+            }
+        }
+
+        private void dropSpilled() {
+            spilled.clear();
+            if (spillFile != null) {
+                spillFile.delete();
+                spillFile = null;
+            }
+        }
+    }
+}
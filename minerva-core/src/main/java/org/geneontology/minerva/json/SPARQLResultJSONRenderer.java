@@ -1,24 +1,25 @@
 package org.geneontology.minerva.json;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import org.geneontology.minerva.curie.CurieHandler;
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
 import org.openrdf.query.GraphQueryResult;
 import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.query.TupleQueryResult;
-import org.openrdf.query.TupleQueryResultHandlerException;
-import org.openrdf.query.resultio.QueryResultIO;
-import org.openrdf.query.resultio.TupleQueryResultFormat;
-import org.openrdf.rio.RDFFormat;
-import org.openrdf.rio.RDFHandlerException;
 import org.semanticweb.owlapi.model.IRI;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.Map;
-
+/**
+ * Render SPARQL results as JSON, with IRIs compacted to CURIEs. Tuple
+ * results use the SPARQL 1.1 JSON results format, graph results the RDF/JSON
+ * format. The JSON is created directly from the result iteration.
+ */
 public class SPARQLResultJSONRenderer {
 
     private final CurieHandler curieHandler;
@@ -27,53 +28,106 @@ public class SPARQLResultJSONRenderer {
         this.curieHandler = curieHandler;
     }
 
-    public JsonObject renderResults(TupleQueryResult sparqlResults) throws QueryEvaluationException, IOException, TupleQueryResultHandlerException {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        QueryResultIO.write(sparqlResults, TupleQueryResultFormat.JSON, stream);
-        String json = stream.toString("UTF-8");
-        stream.close();
-        JsonObject jsonObject = new Gson().fromJson(json, JsonObject.class);
-        JsonArray bindings = jsonObject.get("results").getAsJsonObject().getAsJsonArray("bindings");
-        for (JsonElement bindingSet : bindings) {
-            for (Map.Entry<String, JsonElement> binding : bindingSet.getAsJsonObject().entrySet()) {
-                JsonObject value = binding.getValue().getAsJsonObject();
-                if (value.getAsJsonPrimitive("type").getAsString().equals("uri")) {
-                    String uri = value.getAsJsonPrimitive("value").getAsString();
-                    String curie = curieHandler.getCuri(IRI.create(uri));
-                    value.addProperty("value", curie);
+    public JsonObject renderResults(TupleQueryResult sparqlResults) throws QueryEvaluationException {
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.add("head", renderHead(sparqlResults));
+        JsonArray bindings = new JsonArray();
+        while (sparqlResults.hasNext()) {
+            bindings.add(renderBindingSet(sparqlResults.next()));
+        }
+        JsonObject results = new JsonObject();
+        results.add("bindings", bindings);
+        jsonObject.add("results", results);
+        return jsonObject;
+    }
+
+    private static JsonObject renderHead(TupleQueryResult sparqlResults) throws QueryEvaluationException {
+        JsonArray vars = new JsonArray();
+        for (String name : sparqlResults.getBindingNames()) {
+            vars.add(name);
+        }
+        JsonObject head = new JsonObject();
+        head.add("vars", vars);
+        return head;
+    }
+
+    private JsonObject renderBindingSet(BindingSet bindingSet) {
+        JsonObject jsonBindings = new JsonObject();
+        for (Binding binding : bindingSet) {
+            Value value = binding.getValue();
+            JsonObject jsonValue = new JsonObject();
+            if (value instanceof Literal) {
+                Literal literal = (Literal) value;
+                if (literal.getLanguage() != null) {
+                    jsonValue.addProperty("xml:lang", literal.getLanguage());
+                } else if (literal.getDatatype() != null) {
+                    jsonValue.addProperty("datatype", literal.getDatatype().stringValue());
                 }
+                jsonValue.addProperty("type", "literal");
+                jsonValue.addProperty("value", literal.getLabel());
+            } else if (value instanceof BNode) {
+                jsonValue.addProperty("type", "bnode");
+                jsonValue.addProperty("value", ((BNode) value).getID());
+            } else {
+                jsonValue.addProperty("type", "uri");
+                jsonValue.addProperty("value", getCuri(value));
             }
+            jsonBindings.add(binding.getName(), jsonValue);
         }
-        return jsonObject;
+        return jsonBindings;
     }
 
-    public JsonObject renderGraph(GraphQueryResult result) throws QueryEvaluationException, IOException, RDFHandlerException {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        QueryResultIO.write(result, RDFFormat.RDFJSON, stream);
-        String json = stream.toString("UTF-8");
-        stream.close();
-        JsonObject jsonObject = new Gson().fromJson(json, JsonObject.class);
-        JsonObject newJsonObject = new JsonObject();
-        for (Map.Entry<String, JsonElement> subject : jsonObject.entrySet()) {
-            String subjectCurie = curieHandler.getCuri(IRI.create(subject.getKey()));
-            JsonObject predicatesAndValues = subject.getValue().getAsJsonObject();
-            JsonObject newPredicatesAndValues = new JsonObject();
-            for (Map.Entry<String, JsonElement> predicate : predicatesAndValues.entrySet()) {
-                String predicateCurie = curieHandler.getCuri(IRI.create(predicate.getKey()));
-                for (JsonElement value : predicate.getValue().getAsJsonArray()) {
-                    JsonObject valueObj = value.getAsJsonObject();
-                    if (valueObj.getAsJsonPrimitive("type").getAsString().equals("uri")) {
-                        String uri = valueObj.getAsJsonPrimitive("value").getAsString();
-                        String curie = curieHandler.getCuri(IRI.create(uri));
-                        valueObj.addProperty("value", curie);
-                    }
+    public JsonObject renderGraph(GraphQueryResult result) throws QueryEvaluationException {
+        JsonObject jsonObject = new JsonObject();
+        while (result.hasNext()) {
+            Statement statement = result.next();
+            String subjectCurie = getResourceKey(statement.getSubject());
+            JsonObject predicatesAndValues = jsonObject.getAsJsonObject(subjectCurie);
+            if (predicatesAndValues == null) {
+                predicatesAndValues = new JsonObject();
+                jsonObject.add(subjectCurie, predicatesAndValues);
+            }
+            String predicateCurie = getCuri(statement.getPredicate());
+            JsonArray values = predicatesAndValues.getAsJsonArray(predicateCurie);
+            if (values == null) {
+                values = new JsonArray();
+                predicatesAndValues.add(predicateCurie, values);
+            }
+            Value object = statement.getObject();
+            JsonObject valueObj = new JsonObject();
+            if (object instanceof Literal) {
+                Literal literal = (Literal) object;
+                valueObj.addProperty("value", literal.getLabel());
+                valueObj.addProperty("type", "literal");
+                if (literal.getLanguage() != null) {
+                    valueObj.addProperty("lang", literal.getLanguage());
+                } else if (literal.getDatatype() != null) {
+                    valueObj.addProperty("datatype", literal.getDatatype().stringValue());
                 }
-                newPredicatesAndValues.add(predicateCurie, predicate.getValue());
-                newJsonObject.add(subjectCurie, newPredicatesAndValues);
+            } else if (object instanceof BNode) {
+                valueObj.addProperty("value", getResourceKey((BNode) object));
+                valueObj.addProperty("type", "bnode");
+            } else {
+                valueObj.addProperty("value", getCuri(object));
+                valueObj.addProperty("type", "uri");
             }
+            values.add(valueObj);
+        }
+        return jsonObject;
+    }
+
+    private String getResourceKey(Value resource) {
+        if (resource instanceof BNode) {
+            return "_:" + ((BNode) resource).getID();
         }
-        return newJsonObject;
+        return getCuri(resource);
+    }
 
+    private String getCuri(Value uri) {
+        if (uri instanceof URI) {
+            return curieHandler.getCuri(IRI.create(uri.stringValue()));
+        }
+        return uri.stringValue();
     }
 
 }
@@ -3,15 +3,25 @@
  */
 package org.geneontology.minerva.util;
 
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
-import org.semanticweb.owlapi.formats.TurtleDocumentFormat;
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.helpers.RDFHandlerBase;
 import org.semanticweb.owlapi.model.OWLOntology;
-import org.semanticweb.owlapi.model.OWLOntologyStorageException;
+import org.semanticweb.owlapi.rio.RioRenderer;
 
-import java.io.IOException;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * @author bgood
@@ -26,26 +36,69 @@ public class JenaOwlTool {
         // TODO Auto-generated constructor stub
     }
 
+    /**
+     * Convert the ontology into a new Jena model. The triples produced by the OWL API
+     * RDF renderer are added to the model directly, without a text serialization.
+     *
+     * @param ontology
+     * @return model
+     */
     public static Model getJenaModel(OWLOntology ontology) {
         Model model = ModelFactory.createDefaultModel();
-
-        try (PipedInputStream is = new PipedInputStream(); PipedOutputStream os = new PipedOutputStream(is)) {
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        ontology.getOWLOntologyManager().saveOntology(ontology, new TurtleDocumentFormat(), os);
-                        os.close();
-                    } catch (OWLOntologyStorageException | IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }).start();
-            model.read(is, null, "TURTLE");
+        try {
+            RioRenderer renderer = new RioRenderer(ontology, new JenaGraphHandler(model.getGraph()), null);
+            renderer.render();
             return model;
         } catch (Exception e) {
             throw new RuntimeException("Could not convert OWL API ontology to JENA API model.", e);
         }
     }
 
+    /**
+     * Adds the Sesame statements to a Jena graph.
+     */
+    private static final class JenaGraphHandler extends RDFHandlerBase {
+
+        private final Graph graph;
+        // the renderer may repeat the same blank nodes and IRIs many times
+        private final Map<Value, Node> nodes = new HashMap<>();
+
+        JenaGraphHandler(Graph graph) {
+            this.graph = graph;
+        }
+
+        @Override
+        public void handleStatement(Statement st) throws RDFHandlerException {
+            // the turtle syntax for lists omits the list types, keep the triples the same as before
+            if (st.getSubject() instanceof BNode && RDF.TYPE.equals(st.getPredicate()) && RDF.LIST.equals(st.getObject())) {
+                return;
+            }
+            graph.add(Triple.create(asNode(st.getSubject()), asNode(st.getPredicate()), asNode(st.getObject())));
+        }
+
+        private Node asNode(Value value) {
+            Node node = nodes.get(value);
+            if (node == null) {
+                node = createNode(value);
+                nodes.put(value, node);
+            }
+            return node;
+        }
+
+        private static Node createNode(Value value) {
+            if (value instanceof BNode) {
+                return NodeFactory.createBlankNode(((BNode) value).getID());
+            } else if (value instanceof Literal) {
+                Literal literal = (Literal) value;
+                if (literal.getLanguage() != null) {
+                    return NodeFactory.createLiteral(literal.getLabel(), literal.getLanguage());
+                } else if (literal.getDatatype() != null) {
+                    return NodeFactory.createLiteral(literal.getLabel(), TypeMapper.getInstance().getSafeTypeByName(literal.getDatatype().stringValue()));
+                }
+                return NodeFactory.createLiteral(literal.getLabel());
+            }
+            return NodeFactory.createURI(value.stringValue());
+        }
+    }
+
 }
@@ -0,0 +1,211 @@
+package org.geneontology.minerva.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms, rendered in the Prometheus text
+ * exposition format. Recording a value only updates a few {@link LongAdder},
+ * so it is cheap enough for every request.
+ * <p>
+ * The histograms use fixed buckets, the percentiles are estimated from the
+ * buckets by the monitoring system.
+ */
+public class Metrics {
+
+    // upper bounds of the latency buckets in seconds
+    static final double[] BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+
+    private static final Metrics DEFAULT = new Metrics();
+
+    // sorted by name for a stable output
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * @return metrics shared by all components of the server
+     */
+    public static Metrics getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param name   metric name
+     * @param help   description, only used when the metric is created
+     * @param labels alternating label names and values
+     * @return histogram, never null
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) getFamily(name, help, "histogram").get(labels);
+    }
+
+    /**
+     * @param name   metric name
+     * @param help   description, only used when the metric is created
+     * @param labels alternating label names and values
+     * @return counter, never null
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) getFamily(name, help, "counter").get(labels);
+    }
+
+    /**
+     * Time spent in one of the stages of processing a model: load, apply,
+     * reason, validate, render or save.
+     *
+     * @param stage
+     * @return histogram, never null
+     */
+    public Histogram stage(String stage) {
+        return histogram("minerva_stage_seconds", "Time spent per processing stage.", "stage", stage);
+    }
+
+    /**
+     * Count a lookup in one of the caches.
+     *
+     * @param cache name of the cache
+     * @param hit   true, if the cached value could be used
+     */
+    public void cacheLookup(String cache, boolean hit) {
+        counter("minerva_cache_requests_total", "Cache lookups by result.", "cache", cache, "result", hit ? "hit" : "miss").inc();
+    }
+
+    private Family getFamily(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, k -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("The metric " + name + " is a " + family.type);
+        }
+        return family;
+    }
+
+    /**
+     * Write all metrics in the text exposition format.
+     *
+     * @param writer
+     * @throws IOException
+     */
+    public void write(Writer writer) throws IOException {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            writer.write("# HELP " + name + " " + family.help + "\n");
+            writer.write("# TYPE " + name + " " + family.type + "\n");
+            for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                String labels = metric.getKey();
+                if (metric.getValue() instanceof Counter) {
+                    writer.write(name + braces(labels) + " " + ((Counter) metric.getValue()).get() + "\n");
+                } else {
+                    ((Histogram) metric.getValue()).write(name, labels, writer);
+                }
+            }
+        }
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String renderLabels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be pairs of name and value");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            String value = String.valueOf(labels[i + 1]);
+            sb.append(labels[i]).append("=\"").append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        return sb.toString();
+    }
+
+    private static final class Family {
+        final String help;
+        final String type;
+        final ConcurrentMap<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+
+        Object get(String[] labels) {
+            String key = renderLabels(labels);
+            Object metric = metrics.get(key);
+            if (metric == null) {
+                metric = metrics.computeIfAbsent(key, k -> "counter".equals(type) ? new Counter() : new Histogram());
+            }
+            return metric;
+        }
+    }
+
+    public static final class Counter {
+        private final LongAdder count = new LongAdder();
+
+        public void inc() {
+            count.increment();
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    public static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length];
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Record the time since the start.
+         *
+         * @param startNanos start time from {@link System#nanoTime()}
+         */
+        public void observeSince(long startNanos) {
+            observe((System.nanoTime() - startNanos) / 1e9);
+        }
+
+        /**
+         * @param seconds
+         */
+        public void observe(double seconds) {
+            for (int i = 0; i < BUCKETS.length; i++) {
+                if (seconds <= BUCKETS[i]) {
+                    buckets[i].increment();
+                    break;
+                }
+            }
+            count.increment();
+            sum.add(seconds);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        void write(String name, String labels, Writer writer) throws IOException {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            // read the total first, the buckets may only have grown since
+            long total = count.sum();
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                cumulative += buckets[i].sum();
+                writer.write(name + "_bucket{" + prefix + "le=\"" + BUCKETS[i] + "\"} " + Math.min(cumulative, total) + "\n");
+            }
+            writer.write(name + "_bucket{" + prefix + "le=\"+Inf\"} " + total + "\n");
+            writer.write(name + "_sum" + braces(labels) + " " + sum.sum() + "\n");
+            writer.write(name + "_count" + braces(labels) + " " + total + "\n");
+        }
+    }
+}
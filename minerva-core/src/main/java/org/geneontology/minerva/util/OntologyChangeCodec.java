@@ -0,0 +1,106 @@
+package org.geneontology.minerva.util;
+
+import org.semanticweb.owlapi.model.*;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Write and read lists of axiom and ontology annotation changes. The
+ * ontology of a change is not written, the changes are read for a given
+ * ontology.
+ * <p>
+ * The axioms and annotations are written with Java serialization, repeated
+ * entities and IRIs are only written once per stream.
+ */
+public class OntologyChangeCodec {
+
+    private static final byte ADD_AXIOM = 0;
+    private static final byte REMOVE_AXIOM = 1;
+    private static final byte ADD_ANNOTATION = 2;
+    private static final byte REMOVE_ANNOTATION = 3;
+
+    private OntologyChangeCodec() {
+        // no instances
+    }
+
+    /**
+     * @param changes
+     * @return true, if all changes can be written
+     */
+    public static boolean isSupported(List<OWLOntologyChange> changes) {
+        for (OWLOntologyChange change : changes) {
+            if (!(change instanceof AddAxiom || change instanceof RemoveAxiom
+                    || change instanceof AddOntologyAnnotation || change instanceof RemoveOntologyAnnotation)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param out
+     * @param changes
+     * @throws IOException
+     * @throws IllegalArgumentException if a change is not supported, see {@link #isSupported(List)}
+     */
+    public static void write(ObjectOutput out, List<OWLOntologyChange> changes) throws IOException {
+        out.writeInt(changes.size());
+        for (OWLOntologyChange change : changes) {
+            if (change instanceof AddAxiom) {
+                out.writeByte(ADD_AXIOM);
+                out.writeObject(change.getAxiom());
+            } else if (change instanceof RemoveAxiom) {
+                out.writeByte(REMOVE_AXIOM);
+                out.writeObject(change.getAxiom());
+            } else if (change instanceof AddOntologyAnnotation) {
+                out.writeByte(ADD_ANNOTATION);
+                out.writeObject(((AddOntologyAnnotation) change).getAnnotation());
+            } else if (change instanceof RemoveOntologyAnnotation) {
+                out.writeByte(REMOVE_ANNOTATION);
+                out.writeObject(((RemoveOntologyAnnotation) change).getAnnotation());
+            } else {
+                throw new IllegalArgumentException("Unsupported change: " + change);
+            }
+        }
+    }
+
+    /**
+     * @param in
+     * @param ont ontology of the changes
+     * @return changes
+     * @throws IOException
+     */
+    public static List<OWLOntologyChange> read(ObjectInput in, OWLOntology ont) throws IOException {
+        int size = in.readInt();
+        List<OWLOntologyChange> changes = new ArrayList<>(size);
+        try {
+            for (int i = 0; i < size; i++) {
+                byte type = in.readByte();
+                Object object = in.readObject();
+                switch (type) {
+                    case ADD_AXIOM:
+                        changes.add(new AddAxiom(ont, (OWLAxiom) object));
+                        break;
+                    case REMOVE_AXIOM:
+                        changes.add(new RemoveAxiom(ont, (OWLAxiom) object));
+                        break;
+                    case ADD_ANNOTATION:
+                        changes.add(new AddOntologyAnnotation(ont, (OWLAnnotation) object));
+                        break;
+                    case REMOVE_ANNOTATION:
+                        changes.add(new RemoveOntologyAnnotation(ont, (OWLAnnotation) object));
+                        break;
+                    default:
+                        throw new IOException("Unknown change type: " + type);
+                }
+            }
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Could not read the changes", e);
+        }
+        return changes;
+    }
+}
@@ -46,7 +46,7 @@ public class ModelValidationReport {
         this.violations = violations;
     }
 
-    public void addViolation(Violation violation) {
+    public synchronized void addViolation(Violation violation) {
         if (this.violations == null) {
             this.violations = new HashSet<Violation>();
         }
@@ -77,7 +77,7 @@ public class ModelValidationReport {
         this.error_message = error_message;
     }
 
-    public void addViolations(Set<ShexViolation> violations) {
+    public synchronized void addViolations(Set<ShexViolation> violations) {
         if (this.violations == null) {
             this.violations = new HashSet<Violation>();
         }
@@ -0,0 +1,161 @@
+package org.geneontology.minerva.validation;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.*;
+import org.apache.jena.rdf.model.*;
+import org.apache.jena.sparql.core.TriplePath;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.syntax.Element;
+import org.apache.jena.sparql.syntax.ElementGroup;
+import org.apache.jena.sparql.syntax.ElementPathBlock;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Focus node selector for one entry of the shape map.
+ * <p>
+ * The query is parsed once. The two patterns used by the GO-CAM shape maps,
+ * <pre>
+ * ?x rdf:type &lt;class&gt;
+ * ?x rdf:type ?c . ?c rdfs:subClassOf &lt;class&gt;
+ * </pre>
+ * are answered directly from the indexes of the Jena model, all other
+ * queries are executed as pre-compiled SPARQL.
+ */
+public class ShapeMapQuery {
+
+    private static final String FOCUS_VAR = "x";
+
+    private final String sparql;
+    private final Query query;
+    private final Resource type;
+    private final Resource superClass;
+
+    private ShapeMapQuery(String sparql, Query query, Resource type, Resource superClass) {
+        this.sparql = sparql;
+        this.query = query;
+        this.type = type;
+        this.superClass = superClass;
+    }
+
+    /**
+     * @param sparql select query with the focus nodes bound to ?x
+     * @return query
+     * @throws QueryParseException
+     */
+    public static ShapeMapQuery create(String sparql) {
+        Query query = QueryFactory.create(sparql);
+        List<Triple> triples = getSimpleTriples(query);
+        if (triples != null) {
+            Var x = Var.alloc(FOCUS_VAR);
+            if (triples.size() == 1) {
+                Triple t = triples.get(0);
+                if (x.equals(t.getSubject()) && RDF.type.asNode().equals(t.getPredicate()) && t.getObject().isURI()) {
+                    return new ShapeMapQuery(sparql, query, ResourceFactory.createResource(t.getObject().getURI()), null);
+                }
+            } else if (triples.size() == 2) {
+                Triple t1 = triples.get(0);
+                Triple t2 = triples.get(1);
+                Node c = t1.getObject();
+                if (x.equals(t1.getSubject()) && RDF.type.asNode().equals(t1.getPredicate()) && c.isVariable() && !x.equals(c)
+                        && c.equals(t2.getSubject()) && RDFS.subClassOf.asNode().equals(t2.getPredicate()) && t2.getObject().isURI()) {
+                    return new ShapeMapQuery(sparql, query, null, ResourceFactory.createResource(t2.getObject().getURI()));
+                }
+            }
+        }
+        return new ShapeMapQuery(sparql, query, null, null);
+    }
+
+    /**
+     * @param query
+     * @return the triples of a plain basic graph pattern query selecting ?x, otherwise null
+     */
+    private static List<Triple> getSimpleTriples(Query query) {
+        if (!query.isSelectType() || query.hasLimit() || query.hasOffset() || query.hasOrderBy() || query.hasGroupBy()
+                || query.hasHaving() || query.hasValues() || query.hasAggregators()) {
+            return null;
+        }
+        List<String> vars = query.getResultVars();
+        if (vars.size() != 1 || !FOCUS_VAR.equals(vars.get(0))) {
+            return null;
+        }
+        Element pattern = query.getQueryPattern();
+        if (!(pattern instanceof ElementGroup)) {
+            return null;
+        }
+        List<Element> elements = ((ElementGroup) pattern).getElements();
+        if (elements.size() != 1 || !(elements.get(0) instanceof ElementPathBlock)) {
+            return null;
+        }
+        List<Triple> triples = new ArrayList<Triple>();
+        for (TriplePath path : ((ElementPathBlock) elements.get(0)).getPattern().getList()) {
+            if (!path.isTriple()) {
+                return null;
+            }
+            triples.add(path.asTriple());
+        }
+        return triples;
+    }
+
+    /**
+     * @param model
+     * @return all resources in the model selected by this query
+     */
+    public Set<Resource> getFocusNodes(Model model) {
+        Set<Resource> nodes = new HashSet<Resource>();
+        if (type != null) {
+            addInstances(model, type, nodes);
+        } else if (superClass != null) {
+            ResIterator subclasses = model.listSubjectsWithProperty(RDFS.subClassOf, superClass);
+            try {
+                while (subclasses.hasNext()) {
+                    addInstances(model, subclasses.next(), nodes);
+                }
+            } finally {
+                subclasses.close();
+            }
+        } else {
+            try (QueryExecution qe = QueryExecutionFactory.create(query, model)) {
+                ResultSet results = qe.execSelect();
+                while (results.hasNext()) {
+                    QuerySolution qs = results.next();
+                    nodes.add(qs.getResource(FOCUS_VAR));
+                }
+            }
+        }
+        return nodes;
+    }
+
+    private static void addInstances(Model model, Resource cls, Set<Resource> nodes) {
+        ResIterator instances = model.listSubjectsWithProperty(RDF.type, cls);
+        try {
+            while (instances.hasNext()) {
+                nodes.add(instances.next());
+            }
+        } finally {
+            instances.close();
+        }
+    }
+
+    /**
+     * @return true, if the focus nodes are looked up without SPARQL
+     */
+    public boolean isIndexLookup() {
+        return type != null || superClass != null;
+    }
+
+    public String getSparql() {
+        return sparql;
+    }
+
+    @Override
+    public String toString() {
+        return sparql;
+    }
+}
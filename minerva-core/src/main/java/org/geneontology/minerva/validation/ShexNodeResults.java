@@ -0,0 +1,124 @@
+package org.geneontology.minerva.validation;
+
+import org.apache.jena.rdf.model.*;
+
+import java.util.*;
+
+/**
+ * Shex validation results of one model, per focus node.
+ * <p>
+ * Kept with a validation report, so that the next validation of the same
+ * model only has to re-check the focus nodes affected by a change. As the
+ * go-cam shapes only constrain outgoing triples, the typing of a node only
+ * depends on the nodes reachable from it. A change to a node can therefore
+ * only affect the node itself and the nodes from which it can be reached.
+ */
+public class ShexNodeResults {
+
+    static final class NodeResult {
+        final Set<String> shapes;
+        final boolean conformant;
+        final Set<Violation> violations;
+
+        NodeResult(Set<String> shapes, boolean conformant, Set<Violation> violations) {
+            this.shapes = Collections.unmodifiableSet(new HashSet<String>(shapes));
+            this.conformant = conformant;
+            this.violations = Collections.unmodifiableSet(violations);
+        }
+    }
+
+    // keyed by IRI, results for blank nodes are never reused
+    private final Map<String, NodeResult> results = new HashMap<String, NodeResult>();
+
+    void put(Resource node, NodeResult result) {
+        if (node.isURIResource()) {
+            results.put(node.getURI(), result);
+        }
+    }
+
+    NodeResult get(Resource node) {
+        if (node.isURIResource()) {
+            return results.get(node.getURI());
+        }
+        return null;
+    }
+
+    public int size() {
+        return results.size();
+    }
+
+    /**
+     * Find the focus nodes, which need to be validated again after a change.
+     *
+     * @param model         the changed model
+     * @param node_s_shapes the current focus nodes and their shapes
+     * @param changed_nodes IRIs of the nodes used in the changed statements
+     * @return focus nodes, which are affected by the change or have no reusable result
+     */
+    Set<Resource> getNodesToRevalidate(Model model, Map<Resource, Set<String>> node_s_shapes, Set<String> changed_nodes) {
+        Set<Resource> affected = getReachingNodes(model, changed_nodes);
+        Set<Resource> nodes = new HashSet<Resource>();
+        for (Resource node : node_s_shapes.keySet()) {
+            NodeResult previous = get(node);
+            if (previous == null || affected.contains(node) || !previous.shapes.equals(node_s_shapes.get(node))) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * @return the nodes with a path of outgoing statements to any of the given nodes, including the nodes themselves
+     */
+    static Set<Resource> getReachingNodes(Model model, Set<String> node_iris) {
+        Set<Resource> reaching = new HashSet<Resource>();
+        Deque<Resource> queue = new ArrayDeque<Resource>();
+        for (String iri : node_iris) {
+            Resource node = model.getResource(iri);
+            if (model.containsResource(node) && reaching.add(node)) {
+                queue.add(node);
+            }
+        }
+        while (!queue.isEmpty()) {
+            Resource node = queue.poll();
+            StmtIterator statements = model.listStatements(null, null, node);
+            try {
+                while (statements.hasNext()) {
+                    Resource subject = statements.next().getSubject();
+                    if (reaching.add(subject)) {
+                        queue.add(subject);
+                    }
+                }
+            } finally {
+                statements.close();
+            }
+        }
+        return reaching;
+    }
+
+    /**
+     * @return a new model with all statements of the nodes reachable from the given nodes
+     */
+    static Model getReachableSubModel(Model model, Set<Resource> nodes) {
+        Model sub_model = ModelFactory.createDefaultModel();
+        Set<Resource> visited = new HashSet<Resource>(nodes);
+        Deque<Resource> queue = new ArrayDeque<Resource>(nodes);
+        while (!queue.isEmpty()) {
+            Resource node = queue.poll();
+            StmtIterator statements = model.listStatements(node, null, (RDFNode) null);
+            try {
+                while (statements.hasNext()) {
+                    Statement statement = statements.next();
+                    sub_model.add(statement);
+                    RDFNode object = statement.getObject();
+                    if (object.isResource() && visited.add(object.asResource())) {
+                        queue.add(object.asResource());
+                    }
+                }
+            } finally {
+                statements.close();
+            }
+        }
+        return sub_model;
+    }
+}
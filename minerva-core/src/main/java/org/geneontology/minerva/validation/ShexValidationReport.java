@@ -6,6 +6,7 @@ package org.geneontology.minerva.validation;
 import com.google.gson.annotations.SerializedName;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -33,6 +34,29 @@ public class ShexValidationReport extends ModelValidationReport {
         super(null, tracker, rulefile);
     }
 
+    /**
+     * Per node results, to re-use in the next validation of the same model.
+     * Not part of the json report.
+     */
+    private transient ShexNodeResults node_results;
+
+    public ShexNodeResults getNodeResults() {
+        return node_results;
+    }
+
+    public void setNodeResults(ShexNodeResults node_results) {
+        this.node_results = node_results;
+    }
+
+    public synchronized void addMatchedShape(String node, String shape) {
+        Set<String> shape_ids = node_matched_shapes.get(node);
+        if (shape_ids == null) {
+            shape_ids = new HashSet<String>();
+            node_matched_shapes.put(node, shape_ids);
+        }
+        shape_ids.add(shape);
+    }
+
     public String getAsText() {
         String report = "report type id = " + report_type_id + "\nrulefile = " + rulefile + "\ntracker = " + tracker + "\n";
         if (conformant) {
@@ -32,9 +32,13 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * @author bgood
@@ -44,16 +48,43 @@ public class ShexValidator {
     private static final Logger LOGGER = Logger.getLogger(ShexValidator.class);
     public ShexSchema schema;
     public Map<String, String> GoQueryMap;
+    /**
+     * Parsed versions of the {@link #GoQueryMap} queries, used to select the focus nodes
+     */
+    Map<String, ShapeMapQuery> shape_map_queries;
     //	public OWLReasoner tbox_reasoner;
     private BlazegraphOntologyManager go_lego_repo;
+    private SuperClassClosure super_class_closure;
     public static final String endpoint = "http://rdf.geneontology.org/blazegraph/sparql";
     public Map<Label, Map<String, Set<String>>> shape_expected_property_ranges;
     public Map<Label, Map<String, Interval>> shape_expected_property_cardinality;
     Map<Label, Interval> tripexprlabel_cardinality;
+    /**
+     * For each shape in the shape map, the other shape map shapes whose focus nodes always include its own.
+     * Only the most specific shapes are tested for a node, see {@link #getShapesToTestForEachResource(Model)}.
+     */
+    Map<String, Set<String>> shape_super_shapes = new HashMap<String, Set<String>>();
     public CurieHandler curieHandler;
     public RDF rdfFactory;
     public final int timeout_mill = 30000;
 
+    /**
+     * Pool for all shex validation tasks, shared by all validators: the
+     * refine validation of the server and the recursive validation of the
+     * focus nodes of a model.
+     */
+    private static final int POOL_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final ValidationPool validationPool = new ValidationPool(POOL_THREADS, POOL_THREADS, 10000, "shex-validation-");
+
+    private static ThreadFactory createThreadFactory(String prefix) {
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
     /**
      * @throws Exception
      *
@@ -69,6 +100,7 @@ public class ShexValidator {
     public void init(File shex_schema_file, File shex_map_file, BlazegraphOntologyManager go_lego, CurieHandler curieHandler_) throws Exception {
         schema = GenParser.parseSchema(shex_schema_file.toPath());
         GoQueryMap = makeGoQueryMap(shex_map_file.getAbsolutePath());
+        shape_map_queries = makeShapeMapQueries(GoQueryMap);
         //tbox_reasoner = tbox_reasoner_;
         setGo_lego_repo(go_lego);
         shape_expected_property_ranges = new HashMap<Label, Map<String, Set<String>>>();
@@ -85,9 +117,87 @@ public class ShexValidator {
             Map<String, Set<String>> expected_property_ranges = getPropertyRangeMap(shape_label, rule, null);
             shape_expected_property_ranges.put(shape_label, expected_property_ranges);
         }
+        initShapeSubsumption();
         LOGGER.info("shex validator ready");
     }
 
+    /**
+     * Build the "shape1 contains shape2" relation for the shapes in the shape map, once.
+     * A shape contains another one, if the other shape extends it in the schema (e.g. <TransporterActivity> @<MolecularFunction> AND ...)
+     * or if the root class of its shape map query is a superclass of the root class of the other query.
+     * The class hierarchy is only used, if the ontology repository is available.
+     */
+    void initShapeSubsumption() {
+        Map<String, Set<String>> super_shapes = new HashMap<String, Set<String>>();
+        Map<String, String> shape_root_class = new HashMap<String, String>();
+        for (String shapelabel : GoQueryMap.keySet()) {
+            if (shapelabel.equals("http://purl.obolibrary.org/obo/go/shapes/AnnotatedEdge")) {
+                continue;
+            }
+            Set<String> supers = new HashSet<String>();
+            Label shape_label = new Label(rdfFactory.createIRI(shapelabel));
+            collectExtendedShapes(schema.getRules().get(shape_label), supers);
+            supers.retainAll(GoQueryMap.keySet());
+            supers.remove(shapelabel);
+            super_shapes.put(shapelabel, supers);
+            String root_class = getShapeMapRootClass(GoQueryMap.get(shapelabel));
+            if (root_class != null) {
+                shape_root_class.put(shapelabel, root_class);
+            }
+        }
+        if (getGo_lego_repo() != null && !shape_root_class.isEmpty()) {
+            try {
+                Map<String, Set<String>> root_supers = getGo_lego_repo().getSuperClassMap(new HashSet<String>(shape_root_class.values()));
+                for (String shape2 : shape_root_class.keySet()) {
+                    String root2 = shape_root_class.get(shape2);
+                    Set<String> supers_of_root2 = root_supers.get(root2);
+                    if (supers_of_root2 == null) {
+                        continue;
+                    }
+                    for (String shape1 : shape_root_class.keySet()) {
+                        String root1 = shape_root_class.get(shape1);
+                        if (!root1.equals(root2) && supers_of_root2.contains(root1)) {
+                            super_shapes.get(shape2).add(shape1);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.error("Could not read the class hierarchy for the shape map, using the schema only", e);
+            }
+        }
+        shape_super_shapes = super_shapes;
+    }
+
+    /**
+     * Collect the shapes referenced as conjuncts of the shape expression, i.e. the shapes it extends.
+     */
+    private static void collectExtendedShapes(ShapeExpr expr, Set<String> supers) {
+        if (expr instanceof ShapeExprRef) {
+            ShapeExprRef ref = (ShapeExprRef) expr;
+            if (supers.add(ref.getLabel().stringValue())) {
+                collectExtendedShapes(ref.getShapeDefinition(), supers);
+            }
+        } else if (expr instanceof ShapeAnd) {
+            for (ShapeExpr subexp : ((ShapeAnd) expr).getSubExpressions()) {
+                collectExtendedShapes(subexp, supers);
+            }
+        }
+    }
+
+    private static final Pattern SHAPE_MAP_ROOT_CLASS = Pattern.compile("<http://www.w3.org/2000/01/rdf-schema#subClassOf>\\s*<([^>]+)>");
+
+    /**
+     * @param sparql shape map query, as created by {@link #makeGoQueryMap(String)}
+     * @return the class, whose subclasses are selected by the query or null
+     */
+    static String getShapeMapRootClass(String sparql) {
+        Matcher matcher = SHAPE_MAP_ROOT_CLASS.matcher(sparql);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        return null;
+    }
+
     public static Map<String, String> makeGoQueryMap(String shapemap_file) throws IOException {
         Map<String, String> shapelabel_sparql = new HashMap<String, String>();
         BufferedReader reader = new BufferedReader(new FileReader(shapemap_file));
@@ -112,78 +222,129 @@ public class ShexValidator {
         return shapelabel_sparql;
     }
 
+    public static Map<String, ShapeMapQuery> makeShapeMapQueries(Map<String, String> query_map) {
+        Map<String, ShapeMapQuery> shapelabel_query = new HashMap<String, ShapeMapQuery>();
+        for (Map.Entry<String, String> entry : query_map.entrySet()) {
+            shapelabel_query.put(entry.getKey(), ShapeMapQuery.create(entry.getValue()));
+        }
+        return shapelabel_query;
+    }
+
     public ShexValidationReport runShapeMapValidation(Model test_model) {
-        boolean explain = true;
+        return runShapeMapValidation(test_model, null, null);
+    }
+
+    /**
+     * Validate the model, re-using the results of a previous validation of the
+     * same model for all focus nodes, which are not affected by the changed nodes.
+     *
+     * @param test_model    the model, with super classes
+     * @param previous      node results of the previous validation, may be null
+     * @param changed_nodes IRIs of the nodes in the changes since the previous validation, may be null
+     * @return report, the node results are available via {@link ShexValidationReport#getNodeResults()}
+     */
+    public ShexValidationReport runShapeMapValidation(Model test_model, ShexNodeResults previous, Set<String> changed_nodes) {
         ShexValidationReport r = new ShexValidationReport();
-        JenaRDF jr = new JenaRDF();
-        //this shex implementation likes to use the commons JenaRDF interface, nothing exciting here
-        JenaGraph shexy_graph = jr.asGraph(test_model);
-        boolean all_good = true;
-        try {
-            Typing all_typed = runRefineWithTimeout(shexy_graph);
-            if (all_typed != null) {
-                //filter to most specific tests
-                Map<Resource, Set<String>> node_s_shapes = getShapesToTestForEachResource(test_model);
-                for (Resource node : node_s_shapes.keySet()) {
-                    Set<String> shapes = node_s_shapes.get(node);
-                    for (String shapelabel : shapes) {
-                        Label shape_label = new Label(rdfFactory.createIRI(shapelabel));
-                        RDFTerm focus_node = null;
-                        if (node.isURIResource()) {
-                            focus_node = rdfFactory.createIRI(node.getURI());
-                        } else {
-                            focus_node = rdfFactory.createBlankNode(node.getId().getLabelString());
-                        }
-                        if (!all_typed.isConformant(focus_node, shape_label)) {
-                            //something didn't match expectations
-                            all_good = false;
-                            //try to explain the mismatch
-                            if (explain) {
-                                Violation violation;
-                                try {
-                                    violation = getViolationForMismatch(shape_label, node, all_typed, test_model);
-                                    r.addViolation(violation);
-                                } catch (IOException e) {
-                                    // TODO Auto-generated catch block
-                                    e.printStackTrace();
-                                }
-                            }
-                        }
-                        //run our local CLOSE check
-                        //TODO remove if we implement closed directly
-                        if (explain) {
-                            Set<ShexViolation> extra_violations;
-                            try {
-                                extra_violations = checkForExtraProperties(node, test_model, shape_label, all_typed);
-                                if (extra_violations != null && !extra_violations.isEmpty()) {
-                                    r.addViolations(extra_violations);
-                                    all_good = false;
-                                }
-                            } catch (IOException e) {
-                                // TODO Auto-generated catch block
-                                e.printStackTrace();
-                            }
-                        }
-                    }
+        //filter to most specific tests
+        Map<Resource, Set<String>> node_s_shapes = getShapesToTestForEachResource(test_model);
+        Set<Resource> nodes_to_validate = node_s_shapes.keySet();
+        Model validation_model = test_model;
+        if (previous != null && changed_nodes != null) {
+            nodes_to_validate = previous.getNodesToRevalidate(test_model, node_s_shapes, changed_nodes);
+            //shapes only constrain outgoing triples, so the reachable statements are enough to type the nodes
+            validation_model = ShexNodeResults.getReachableSubModel(test_model, nodes_to_validate);
+            LOGGER.debug("shex revalidation of " + nodes_to_validate.size() + " of " + node_s_shapes.size() + " focus nodes");
+        }
+        Typing all_typed = null;
+        if (!nodes_to_validate.isEmpty()) {
+            JenaRDF jr = new JenaRDF();
+            //this shex implementation likes to use the commons JenaRDF interface, nothing exciting here
+            JenaGraph shexy_graph = jr.asGraph(validation_model);
+            try {
+                all_typed = runRefineWithTimeout(shexy_graph);
+            } finally {
+                try {
+                    //make sure to free up resources here.
+                    shexy_graph.close();
+                } catch (Exception e) {
+                    // TODO Auto-generated catch block
+                    e.printStackTrace();
                 }
-            } else {
+            }
+            if (all_typed == null) {
                 //validation failed
-                all_good = false;
                 r.setError_message("validation (with Refine algorithm) failed or timed out for this model");
+                r.conformant = false;
+                return r;
             }
-        } finally {
-            try {
-                //make sure to free up resources here.
-                shexy_graph.close();
-            } catch (Exception e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+        }
+        ShexNodeResults results = new ShexNodeResults();
+        boolean all_good = true;
+        for (Resource node : node_s_shapes.keySet()) {
+            Set<String> shapes = node_s_shapes.get(node);
+            ShexNodeResults.NodeResult result;
+            if (nodes_to_validate.contains(node)) {
+                result = validateFocusNode(node, shapes, all_typed, test_model);
+            } else {
+                result = previous.get(node);
+            }
+            results.put(node, result);
+            for (Violation violation : result.violations) {
+                r.addViolation(violation);
             }
+            all_good &= result.conformant;
         }
+        r.setNodeResults(results);
         r.conformant = all_good;
         return r;
     }
 
+    private ShexNodeResults.NodeResult validateFocusNode(Resource node, Set<String> shapes, Typing all_typed, Model test_model) {
+        boolean explain = true;
+        boolean conformant = true;
+        Set<Violation> violations = new HashSet<Violation>();
+        for (String shapelabel : shapes) {
+            Label shape_label = new Label(rdfFactory.createIRI(shapelabel));
+            RDFTerm focus_node = null;
+            if (node.isURIResource()) {
+                focus_node = rdfFactory.createIRI(node.getURI());
+            } else {
+                focus_node = rdfFactory.createBlankNode(node.getId().getLabelString());
+            }
+            if (!all_typed.isConformant(focus_node, shape_label)) {
+                //something didn't match expectations
+                conformant = false;
+                //try to explain the mismatch
+                if (explain) {
+                    Violation violation;
+                    try {
+                        violation = getViolationForMismatch(shape_label, node, all_typed, test_model);
+                        violations.add(violation);
+                    } catch (IOException e) {
+                        // TODO Auto-generated catch block
+                        e.printStackTrace();
+                    }
+                }
+            }
+            //run our local CLOSE check
+            //TODO remove if we implement closed directly
+            if (explain) {
+                Set<ShexViolation> extra_violations;
+                try {
+                    extra_violations = checkForExtraProperties(node, test_model, shape_label, all_typed);
+                    if (extra_violations != null && !extra_violations.isEmpty()) {
+                        violations.addAll(extra_violations);
+                        conformant = false;
+                    }
+                } catch (IOException e) {
+                    // TODO Auto-generated catch block
+                    e.printStackTrace();
+                }
+            }
+        }
+        return new ShexNodeResults.NodeResult(shapes, conformant, violations);
+    }
+
     private Violation getViolationForMismatch(Label shape_label, Resource focus_node, Typing typing, Model test_model) throws IOException {
 
         RDFTerm rdfterm = null;
@@ -252,96 +413,125 @@ public class ShexValidator {
         JenaRDF jr = new JenaRDF();
         //this shex implementation likes to use the commons JenaRDF interface, nothing exciting here
         JenaGraph shexy_graph = jr.asGraph(test_model);
-        //recursive only checks the focus node against the chosen shape.
-        RecursiveValidationWithMemorization shex_model_validator = new RecursiveValidationWithMemorization(schema, shexy_graph);
         //for each shape in the query map (e.g. MF, BP, CC, etc.)
 
         boolean all_good = true;
         Map<Resource, Set<String>> node_s_shapes = getShapesToTestForEachResource(test_model);
 
+        //focus nodes are independent, validate them in parallel on the shared pool.
+        //the memorizing validator is not thread safe, so each node gets its own.
+        Map<Resource, TimedTask<Boolean>> node_results = new LinkedHashMap<Resource, TimedTask<Boolean>>();
+        long total_timeout = 0;
         for (Resource focus_node_resource : node_s_shapes.keySet()) {
+            if (focus_node_resource == null) {
+                LOGGER.warn("null focus node for shapes " + node_s_shapes.get(focus_node_resource));
+                continue;
+            }
+            Set<String> shape_nodes = node_s_shapes.get(focus_node_resource);
+            total_timeout += (long) timeout_mill * shape_nodes.size();
+            node_results.put(focus_node_resource, validationPool.submit(() -> {
+                RecursiveValidationWithMemorization shex_model_validator = new RecursiveValidationWithMemorization(schema, shexy_graph);
+                return validateNodeShapes(shex_model_validator, focus_node_resource, shape_nodes, test_model, r);
+            }));
+        }
+        long deadline = System.currentTimeMillis() + total_timeout;
+        for (Map.Entry<Resource, TimedTask<Boolean>> node_result : node_results.entrySet()) {
+            Resource focus_node_resource = node_result.getKey();
             Set<String> shape_nodes = node_s_shapes.get(focus_node_resource);
+            Boolean node_good = node_result.getValue().get((long) timeout_mill * shape_nodes.size(), deadline, "shex validation for " + focus_node_resource);
+            if (node_good == null) {
+                LOGGER.info("shex validation failed for node " + focus_node_resource.getURI());
+                for (String shapelabel : shape_nodes) {
+                    r.addViolation(getCanceledViolation(focus_node_resource, shapelabel));
+                }
+                all_good = false;
+            } else if (!node_good) {
+                all_good = false;
+            }
+        }
+        if (all_good) {
+            r.conformant = true;
+        } else {
+            r.conformant = false;
+        }
+        return r;
+    }
+
+    /**
+     * Validate one focus node against its shapes and add the results to the report.
+     * Runs on the validation pool, the report is shared between the nodes.
+     *
+     * @return true if the node conforms to all of the shapes
+     */
+    private boolean validateNodeShapes(RecursiveValidationWithMemorization shex_model_validator, Resource focus_node_resource, Set<String> shape_nodes, Model test_model, ShexValidationReport r) throws IOException {
+        boolean all_good = true;
+        for (String shapelabel : shape_nodes) {
+            Label shape_label = new Label(rdfFactory.createIRI(shapelabel));
+            //check for use of properties not defined for this shape (okay if OPEN, not if CLOSED)
+            Typing typing = validateNode(shex_model_validator, focus_node_resource, shape_label);
 
-            for (String shapelabel : shape_nodes) {
-                Label shape_label = new Label(rdfFactory.createIRI(shapelabel));
-                if (focus_node_resource == null) {
-                    System.out.println("null focus node for shape " + shape_label);
-                    continue;
+            if (typing != null) {
+                Set<ShexViolation> extra_prop_violations = checkForExtraProperties(focus_node_resource, test_model, shape_label, typing);
+                if (extra_prop_violations != null && !extra_prop_violations.isEmpty()) {
+                    r.addViolations(extra_prop_violations);
+                    all_good = false;
                 }
-                //check for use of properties not defined for this shape (okay if OPEN, not if CLOSED)
-                Typing typing = validateNodeWithTimeout(shex_model_validator, focus_node_resource, shape_label);
-
-                if (typing != null) {
-                    Set<ShexViolation> extra_prop_violations = checkForExtraProperties(focus_node_resource, test_model, shape_label, typing);
-                    if (extra_prop_violations != null && !extra_prop_violations.isEmpty()) {
-                        for (Violation v : extra_prop_violations) {
-                            r.addViolation(v);
-                        }
-                        all_good = false;
-                    }
-                    //run the validation on the node if possible..
-                    RDFTerm focus_node = null;
-                    String focus_node_id = "";
-                    if (focus_node_resource.isURIResource()) {
-                        focus_node = rdfFactory.createIRI(focus_node_resource.getURI());
-                        focus_node_id = focus_node_resource.getURI();
-                    } else {
-                        focus_node = rdfFactory.createBlankNode(focus_node_resource.getId().getLabelString());
-                        focus_node_id = focus_node_resource.getId().getLabelString();
-                    }
-                    //deal with curies for output
-                    String node = focus_node_id;
-                    node = getCurie(focus_node_id);
-                    Status status = typing.getStatus(focus_node, shape_label);
-                    if (status.equals(Status.CONFORMANT)) {
-                        Set<String> shape_ids = r.node_matched_shapes.get(node);
-                        if (shape_ids == null) {
-                            shape_ids = new HashSet<String>();
-                        }
-                        shape_ids.add(shapelabel);
-                        r.node_matched_shapes.put(node, shape_ids);
-                    } else if (status.equals(Status.NONCONFORMANT)) {
-                        all_good = false;
-                        //implementing a start on a generic violation report structure here
-                        ShexViolation violation = new ShexViolation(node);
-                        ShexExplanation explanation = new ShexExplanation();
-                        String shape_curie = getCurie(shapelabel);
-                        explanation.setShape(shape_curie);
-                        Set<ShexConstraint> unmet_constraints = getUnmetConstraints(focus_node_resource, shape_label, test_model, typing);
-                        if (unmet_constraints != null) {
-                            for (ShexConstraint constraint : unmet_constraints) {
-                                explanation.addConstraint(constraint);
-                                violation.addExplanation(explanation);
-                            }
-                        } else {
-                            explanation.setErrorMessage("explanation computation timed out");
-                            violation.addExplanation(explanation);
-                        }
-                        r.addViolation(violation);
-                    } else if (status.equals(Status.NOTCOMPUTED)) {
-                        //if any of these are not computed, there is a problem
-                        String error = focus_node_id + " was not tested against " + shapelabel;
-                        LOGGER.error(error);
-                    }
+                //run the validation on the node if possible..
+                RDFTerm focus_node = null;
+                String focus_node_id = "";
+                if (focus_node_resource.isURIResource()) {
+                    focus_node = rdfFactory.createIRI(focus_node_resource.getURI());
+                    focus_node_id = focus_node_resource.getURI();
                 } else {
-                    LOGGER.info("shex validation failed for node " + focus_node_resource.getURI());
+                    focus_node = rdfFactory.createBlankNode(focus_node_resource.getId().getLabelString());
+                    focus_node_id = focus_node_resource.getId().getLabelString();
+                }
+                //deal with curies for output
+                String node = focus_node_id;
+                node = getCurie(focus_node_id);
+                Status status = typing.getStatus(focus_node, shape_label);
+                if (status.equals(Status.CONFORMANT)) {
+                    r.addMatchedShape(node, shapelabel);
+                } else if (status.equals(Status.NONCONFORMANT)) {
                     all_good = false;
-                    ShexViolation violation = new ShexViolation(focus_node_resource.getURI());
+                    //implementing a start on a generic violation report structure here
+                    ShexViolation violation = new ShexViolation(node);
                     ShexExplanation explanation = new ShexExplanation();
-                    explanation.setErrorMessage("Validating this node was canceled because it took more then " + timeout_mill + " milliseconds");
                     String shape_curie = getCurie(shapelabel);
                     explanation.setShape(shape_curie);
-                    violation.addExplanation(explanation);
+                    Set<ShexConstraint> unmet_constraints = getUnmetConstraints(focus_node_resource, shape_label, test_model, typing);
+                    if (unmet_constraints != null) {
+                        for (ShexConstraint constraint : unmet_constraints) {
+                            explanation.addConstraint(constraint);
+                            violation.addExplanation(explanation);
+                        }
+                    } else {
+                        explanation.setErrorMessage("explanation computation timed out");
+                        violation.addExplanation(explanation);
+                    }
                     r.addViolation(violation);
+                } else if (status.equals(Status.NOTCOMPUTED)) {
+                    //if any of these are not computed, there is a problem
+                    String error = focus_node_id + " was not tested against " + shapelabel;
+                    LOGGER.error(error);
                 }
+            } else {
+                LOGGER.info("shex validation failed for node " + focus_node_resource.getURI());
+                all_good = false;
+                r.addViolation(getCanceledViolation(focus_node_resource, shapelabel));
             }
         }
-        if (all_good) {
-            r.conformant = true;
-        } else {
-            r.conformant = false;
-        }
-        return r;
+        return all_good;
+    }
+
+    private Violation getCanceledViolation(Resource focus_node_resource, String shapelabel) {
+        ShexViolation violation = new ShexViolation(focus_node_resource.getURI());
+        ShexExplanation explanation = new ShexExplanation();
+        explanation.setErrorMessage("Validating this node was canceled because it took more then " + timeout_mill + " milliseconds");
+        String shape_curie = getCurie(shapelabel);
+        explanation.setShape(shape_curie);
+        violation.addExplanation(explanation);
+        return violation;
     }
 
     private Map<Resource, Set<String>> getShapesToTestForEachResource(Model test_model) {
@@ -353,8 +543,7 @@ public class ShexValidator {
                 continue;
             }
             //get the nodes in this model that SHOULD match the shape
-            Set<Resource> focus_nodes = getFocusNodesBySparql(test_model, GoQueryMap.get(shapelabel));
-            //shape_nodes.put(shapelabel, focus_nodes);
+            Set<Resource> focus_nodes = shape_map_queries.get(shapelabel).getFocusNodes(test_model);
 
             for (Resource focus_node : focus_nodes) {
                 Set<String> shapes = node_shapes.get(focus_node);
@@ -366,23 +555,15 @@ public class ShexValidator {
             }
         }
         //prune to only test the most specific shapes
-        //TODO - do it once up front
+        //e.g. mf contains all transporter activity, so only test transporter activity
         Map<Resource, Set<String>> node_s_shapes = new HashMap<Resource, Set<String>>();
         for (Resource node : node_shapes.keySet()) {
             Set<String> shapes = node_shapes.get(node);
             Set<String> shapes_to_remove = new HashSet<String>();
-            for (String shape1 : shapes) {
-                Set<Resource> shape1_nodes = getFocusNodesBySparql(test_model, GoQueryMap.get(shape1));
-                for (String shape2 : shapes) {
-                    if (shape1.equals(shape2)) {
-                        continue;
-                    }
-                    Set<Resource> shape2_nodes = getFocusNodesBySparql(test_model, GoQueryMap.get(shape2));
-                    //if shape1 contains all of shape2 - e.g. mf would contain all transporter activity
-                    if (shape1_nodes.containsAll(shape2_nodes)) {
-                        //then remove shape1 from this resource (as shape2 is more specific).
-                        shapes_to_remove.add(shape1);
-                    }
+            for (String shape2 : shapes) {
+                Set<String> supers = shape_super_shapes.get(shape2);
+                if (supers != null) {
+                    shapes_to_remove.addAll(supers);
                 }
             }
             shapes.removeAll(shapes_to_remove);
@@ -392,82 +573,202 @@ public class ShexValidator {
     }
 
     private Typing runRefineWithTimeout(JenaGraph shexy_graph) {
-        final ExecutorService service = Executors.newSingleThreadExecutor();
-        try {
-            final Future<Typing> f = service.submit(() -> {
-                RefineValidation refine = new RefineValidation(schema, shexy_graph);
-                refine.validate();
-                Typing all = refine.getTyping();
-                return all;
-            });
-            Typing typing = f.get(timeout_mill, TimeUnit.MILLISECONDS);
-            return typing;
-
-        } catch (final TimeoutException e) {
-            LOGGER.error("shex refine all validation took to long  ");
-            service.shutdownNow();
-            return null;
-        } catch (InterruptedException e) {
-            LOGGER.error("And we have Refine an interrupted exception: ");
-            e.printStackTrace();
-            service.shutdownNow();
-            return null;
-        } catch (ExecutionException e) {
-            LOGGER.error("And we have a Refine execution exception: ");
-            e.printStackTrace();
-            service.shutdownNow();
-            return null;
-        } finally {
-            service.shutdown();
-        }
+        return runWithTimeout(() -> {
+            RefineValidation refine = new RefineValidation(schema, shexy_graph);
+            refine.validate();
+            Typing all = refine.getTyping();
+            return all;
+        }, "shex refine all validation");
     }
 
     public Typing validateNodeWithTimeout(RecursiveValidationWithMemorization shex_model_validator, Resource focus_node_resource, Label shape_label) {
+        //this can take a while - give up if it gets stuck
+        //limit total time to avoid service death on some weird edge case
+        return runWithTimeout(() -> validateNode(shex_model_validator, focus_node_resource, shape_label), "shex validation for " + focus_node_resource + " " + shape_label);
+    }
+
+    /**
+     * Run a single task on the validation pool. It may wait in the queue as
+     * long as the timeout, before it has to start.
+     *
+     * @return result or null, if the task failed, was rejected or timed out
+     */
+    private <T> T runWithTimeout(Callable<T> callable, String description) {
+        return validationPool.submit(callable).get(timeout_mill, System.currentTimeMillis() + 2L * timeout_mill, description);
+    }
+
+    private Typing validateNode(RecursiveValidationWithMemorization shex_model_validator, Resource focus_node_resource, Label shape_label) {
         RDFTerm focus_node = null;
-        String focus_node_id = "";
         if (focus_node_resource.isURIResource()) {
             focus_node = rdfFactory.createIRI(focus_node_resource.getURI());
-            focus_node_id = focus_node_resource.getURI();
         } else {
             focus_node = rdfFactory.createBlankNode(focus_node_resource.getId().getLabelString());
-            focus_node_id = focus_node_resource.getId().getLabelString();
         }
-        //deal with curies for output
-        String node = focus_node_id;
-        node = getCurie(focus_node_id);
-        //this can take a while - give up if it gets stuck
-        //limit total time to avoid service death on some weird edge case
-        final ExecutorService service = Executors.newSingleThreadExecutor();
-        final RDFTerm test_node = focus_node;
-        try {
-            final Future<Typing> f = service.submit(() -> {
-                boolean is_valid = shex_model_validator.validate(test_node, shape_label);
-                if (is_valid) {
-                    return shex_model_validator.getTyping();
-                } else {
-                    return null;
+        boolean is_valid = shex_model_validator.validate(focus_node, shape_label);
+        if (is_valid) {
+            return shex_model_validator.getTyping();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Bounded pool for validation tasks with a timeout. Cancelling does not
+     * stop a shex validation, so a task, which timed out, keeps its thread
+     * until it finishes. For each of these stuck tasks the pool gets one
+     * more thread, up to a fixed maximum, so the other validations can go
+     * on. Beyond the maximum, stuck tasks reduce the available threads.
+     * Tasks are rejected, when the queue is full.
+     */
+    static final class ValidationPool {
+        private final int threads;
+        private final int maxStuckTasks;
+        private final ThreadPoolExecutor executor;
+        // guarded by this
+        private int stuckTasks = 0;
+
+        /**
+         * @param threads       number of threads for running tasks
+         * @param maxStuckTasks maximum number of additional threads, which replace the threads of stuck tasks
+         * @param maxQueue      maximum number of waiting tasks
+         * @param prefix        name prefix of the threads
+         */
+        ValidationPool(int threads, int maxStuckTasks, int maxQueue, String prefix) {
+            this.threads = threads;
+            this.maxStuckTasks = maxStuckTasks;
+            this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(maxQueue), createThreadFactory(prefix));
+        }
+
+        /**
+         * @param callable
+         * @return task, which fails immediately, if the queue is full
+         */
+        <T> TimedTask<T> submit(Callable<T> callable) {
+            TimedTask<T> task = new TimedTask<>(this, callable);
+            try {
+                task.future = executor.submit(task);
+            } catch (RejectedExecutionException e) {
+                LOGGER.warn("shex validation queue is full, rejecting validation task");
+                CompletableFuture<T> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(e);
+                task.future = rejected;
+            }
+            return task;
+        }
+
+        /**
+         * @return true, if a thread was added for the stuck task
+         */
+        private synchronized boolean addStuckTask() {
+            if (stuckTasks >= maxStuckTasks) {
+                return false;
+            }
+            stuckTasks++;
+            executor.setMaximumPoolSize(threads + stuckTasks);
+            executor.setCorePoolSize(threads + stuckTasks);
+            return true;
+        }
+
+        private synchronized void removeStuckTask() {
+            stuckTasks--;
+            executor.setCorePoolSize(threads + stuckTasks);
+            executor.setMaximumPoolSize(threads + stuckTasks);
+        }
+
+        synchronized int getStuckTasks() {
+            return stuckTasks;
+        }
+
+        int getMaximumPoolSize() {
+            return executor.getMaximumPoolSize();
+        }
+
+        void shutdownNow() {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Task, whose timeout starts, when it starts running. The time waiting in
+     * the queue of the pool does not count.
+     */
+    static class TimedTask<T> implements Callable<T> {
+        private static final long QUEUE_POLL_MILLIS = 100;
+        private static final int RUNNING = 0;
+        private static final int DONE = 1;
+        // timed out and replaced by another thread of the pool
+        private static final int STUCK = 2;
+        // timed out, but the pool has no more threads for stuck tasks
+        private static final int STUCK_NOT_REPLACED = 3;
+        private final ValidationPool pool;
+        private final Callable<T> callable;
+        private final AtomicInteger state = new AtomicInteger(RUNNING);
+        private volatile long started = 0;
+        private Future<T> future;
+
+        private TimedTask(ValidationPool pool, Callable<T> callable) {
+            this.pool = pool;
+            this.callable = callable;
+        }
+
+        @Override
+        public T call() throws Exception {
+            started = System.currentTimeMillis();
+            try {
+                return callable.call();
+            } finally {
+                if (state.getAndSet(DONE) == STUCK) {
+                    pool.removeStuckTask();
                 }
+            }
+        }
 
-            });
-            Typing typing = f.get(timeout_mill, TimeUnit.MILLISECONDS);
-            return typing;
+        /**
+         * @param timeout     in milliseconds from the start of the task
+         * @param deadline    latest time to wait for the task, even if it did not start
+         * @param description used for logging
+         * @return result or null, if the task failed, was rejected or timed out
+         */
+        T get(long timeout, long deadline, String description) {
+            while (true) {
+                long now = System.currentTimeMillis();
+                long start = started;
+                long end = start == 0 ? deadline : Math.min(deadline, start + timeout);
+                if (end <= now && !future.isDone()) {
+                    LOGGER.error(description + " took to long");
+                    future.cancel(true);
+                    if (started != 0) {
+                        abandon();
+                    }
+                    return null;
+                }
+                // while the task is queued, check regularly, whether it started
+                long wait = Math.max(0, start == 0 ? Math.min(end - now, QUEUE_POLL_MILLIS) : end - now);
+                try {
+                    return future.get(wait, TimeUnit.MILLISECONDS);
+                } catch (final TimeoutException e) {
+                    // check, whether the task started in the meantime
+                } catch (InterruptedException e) {
+                    LOGGER.error("And we have an interrupted exception: " + description);
+                    future.cancel(true);
+                    Thread.currentThread().interrupt();
+                    return null;
+                } catch (ExecutionException | CancellationException e) {
+                    LOGGER.error("And we have an execution exception: " + description, e.getCause());
+                    return null;
+                }
+            }
+        }
 
-        } catch (final TimeoutException e) {
-            LOGGER.error("shex validation took to long for " + focus_node_resource);
-            service.shutdownNow();
-            return null;
-        } catch (InterruptedException e) {
-            LOGGER.error("And we have an interrupted exception: " + test_node + " " + shape_label);
-            e.printStackTrace();
-            service.shutdownNow();
-            return null;
-        } catch (ExecutionException e) {
-            LOGGER.error("And we have an execution exception: " + test_node + " " + shape_label);
-            e.printStackTrace();
-            service.shutdownNow();
-            return null;
-        } finally {
-            service.shutdown();
+        /**
+         * The running task keeps its thread, let the pool replace it.
+         */
+        private void abandon() {
+            boolean replaced = pool.addStuckTask();
+            if (!state.compareAndSet(RUNNING, replaced ? STUCK : STUCK_NOT_REPLACED) && replaced) {
+                // the task finished in the meantime
+                pool.removeStuckTask();
+            }
         }
     }
 
@@ -550,6 +851,21 @@ public class ShexValidator {
 
     }
 
+    /**
+     * Same as {@link #enrichSuperClasses(Model)}, but without copying: returns a read-only
+     * view of the model combined with the shared superclass closure of the terms it uses.
+     *
+     * @param model not modified, should not be changed while the view is in use
+     * @return view
+     * @throws IOException
+     */
+    public Model getModelWithSuperClasses(Model model) throws IOException {
+        if (super_class_closure == null) {
+            return model;
+        }
+        return ModelFactory.createModelForGraph(super_class_closure.createGraph(model.getGraph()));
+    }
+
     public Model enrichSuperClasses(Model model) throws IOException {
         LOGGER.info("model size before reasoner expansion: " + model.size());
         String getOntTerms =
@@ -989,5 +1305,10 @@ public class ShexValidator {
 
     public void setGo_lego_repo(BlazegraphOntologyManager go_lego_repo) {
         this.go_lego_repo = go_lego_repo;
+        this.super_class_closure = go_lego_repo != null ? new SuperClassClosure(go_lego_repo) : null;
+        if (schema != null && GoQueryMap != null && rdfFactory != null) {
+            //the shape hierarchy depends on the ontology
+            initShapeSubsumption();
+        }
     }
 }
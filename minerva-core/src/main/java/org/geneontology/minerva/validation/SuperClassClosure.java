@@ -0,0 +1,195 @@
+package org.geneontology.minerva.validation;
+
+import org.apache.jena.graph.Graph;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.graph.impl.GraphBase;
+import org.apache.jena.util.iterator.ExtendedIterator;
+import org.apache.jena.util.iterator.WrappedIterator;
+import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.vocabulary.OWL2;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.geneontology.minerva.BlazegraphOntologyManager;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared, read-only superclass closure of the ontology terms, as needed by the
+ * shex validation.
+ * <p>
+ * The closure is read from the ontology journal once per term and shared by
+ * all validated models. Instead of copying the superclass triples into each
+ * model, {@link #createGraph(Graph)} returns a read-only view, which combines
+ * the triples of the model with the closure of the terms it uses.
+ * <p>
+ * The journal is not modified while the server is running, so the closure of a
+ * term never has to be refreshed. Only the terms used in validated models are
+ * loaded, the closure of the whole journal would be too big to keep in memory.
+ */
+public class SuperClassClosure {
+
+    private static final Node SUBCLASS_OF = RDFS.subClassOf.asNode();
+    private static final Node TYPE = RDF.type.asNode();
+    private static final Node OWL_CLASS = OWL.Class.asNode();
+    private static final Node NAMED_INDIVIDUAL = OWL2.NamedIndividual.asNode();
+
+    private final BlazegraphOntologyManager go_lego_repo;
+    private final Map<Node, Set<Node>> term_supers = new ConcurrentHashMap<Node, Set<Node>>();
+
+    public SuperClassClosure(BlazegraphOntologyManager go_lego_repo) {
+        this.go_lego_repo = go_lego_repo;
+    }
+
+    /**
+     * @param base the model graph, should not be modified while the view is used
+     * @return read-only union of the model graph and the superclass closure of its terms
+     * @throws IOException
+     */
+    public Graph createGraph(Graph base) throws IOException {
+        Set<Node> terms = getTerms(base);
+        load(terms);
+        Map<Node, Set<Node>> closure = new HashMap<Node, Set<Node>>();
+        for (Node term : terms) {
+            Set<Node> supers = term_supers.get(term);
+            if (supers != null && !supers.isEmpty()) {
+                closure.put(term, supers);
+            }
+        }
+        return new ClosureGraph(base, closure);
+    }
+
+    /**
+     * @return the types of the named individuals and the declared classes in the graph
+     */
+    static Set<Node> getTerms(Graph graph) {
+        Set<Node> terms = new HashSet<Node>();
+        ExtendedIterator<Triple> individuals = graph.find(Node.ANY, TYPE, NAMED_INDIVIDUAL);
+        try {
+            while (individuals.hasNext()) {
+                ExtendedIterator<Triple> types = graph.find(individuals.next().getSubject(), TYPE, Node.ANY);
+                try {
+                    while (types.hasNext()) {
+                        Node type = types.next().getObject();
+                        if (type.isURI() && !type.equals(NAMED_INDIVIDUAL)) {
+                            terms.add(type);
+                        }
+                    }
+                } finally {
+                    types.close();
+                }
+            }
+        } finally {
+            individuals.close();
+        }
+        ExtendedIterator<Triple> classes = graph.find(Node.ANY, TYPE, OWL_CLASS);
+        try {
+            while (classes.hasNext()) {
+                Node cls = classes.next().getSubject();
+                if (cls.isURI()) {
+                    terms.add(cls);
+                }
+            }
+        } finally {
+            classes.close();
+        }
+        return terms;
+    }
+
+    private void load(Set<Node> terms) throws IOException {
+        Set<String> missing = new HashSet<String>();
+        for (Node term : terms) {
+            if (!term_supers.containsKey(term)) {
+                missing.add(term.getURI());
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        Map<String, Set<String>> term_parents = go_lego_repo.getSuperClassMap(missing);
+        for (String term : missing) {
+            Set<Node> supers = new HashSet<Node>();
+            Set<String> parents = term_parents.get(term);
+            if (parents != null) {
+                for (String parent : parents) {
+                    supers.add(NodeFactory.createURI(parent));
+                }
+            }
+            term_supers.put(NodeFactory.createURI(term), Collections.unmodifiableSet(supers));
+        }
+    }
+
+    public int size() {
+        return term_supers.size();
+    }
+
+    /**
+     * Model triples plus, for each term with superclasses, the triples
+     * <pre>
+     * term rdfs:subClassOf term
+     * term rdfs:subClassOf super
+     * term rdf:type owl:Class
+     * </pre>
+     */
+    private static final class ClosureGraph extends GraphBase {
+
+        private final Graph base;
+        private final Map<Node, Set<Node>> closure;
+
+        ClosureGraph(Graph base, Map<Node, Set<Node>> closure) {
+            this.base = base;
+            this.closure = closure;
+        }
+
+        @Override
+        protected ExtendedIterator<Triple> graphBaseFind(Triple pattern) {
+            ExtendedIterator<Triple> triples = base.find(pattern);
+            List<Triple> closure_triples = findClosureTriples(pattern);
+            if (closure_triples.isEmpty()) {
+                return triples;
+            }
+            return triples.andThen(WrappedIterator.create(closure_triples.iterator()).filterDrop(base::contains));
+        }
+
+        private List<Triple> findClosureTriples(Triple pattern) {
+            Node s = pattern.getSubject();
+            Node p = pattern.getPredicate();
+            Node o = pattern.getObject();
+            boolean subclass = matches(p, SUBCLASS_OF);
+            boolean type = matches(p, TYPE) && matches(o, OWL_CLASS);
+            if (!subclass && !type) {
+                return Collections.emptyList();
+            }
+            Collection<Node> terms;
+            if (s.isConcrete()) {
+                terms = closure.containsKey(s) ? Collections.singleton(s) : Collections.<Node>emptySet();
+            } else {
+                terms = closure.keySet();
+            }
+            List<Triple> triples = new ArrayList<Triple>();
+            for (Node term : terms) {
+                if (subclass) {
+                    if (matches(o, term)) {
+                        triples.add(Triple.create(term, SUBCLASS_OF, term));
+                    }
+                    for (Node parent : closure.get(term)) {
+                        if (!parent.equals(term) && matches(o, parent)) {
+                            triples.add(Triple.create(term, SUBCLASS_OF, parent));
+                        }
+                    }
+                }
+                if (type) {
+                    triples.add(Triple.create(term, TYPE, OWL_CLASS));
+                }
+            }
+            return triples;
+        }
+
+        private static boolean matches(Node pattern, Node node) {
+            return !pattern.isConcrete() || pattern.equals(node);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.geneontology.minerva.validation.pipeline;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Row oriented report file, kept open for the whole run.
+ * <p>
+ * Rows are tab separated values, as used by the validation reports. They
+ * are either written as is, below the header line, or as JSON lines with
+ * one object per row, using the header columns as keys. Rows from
+ * concurrent threads are never interleaved.
+ */
+public class ReportWriter implements Closeable {
+
+    public enum Format {
+        TSV(".txt"),
+        JSON_LINES(".jsonl");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private final Format format;
+    private final String[] columns;
+    private final Writer writer;
+    private final Gson gson = new Gson();
+
+    private ReportWriter(Format format, String[] columns, Writer writer) {
+        this.format = format;
+        this.columns = columns;
+        this.writer = writer;
+    }
+
+    /**
+     * Create or overwrite the report file and write the header.
+     *
+     * @param file   name without extension, i.e. .txt, .jsonl or .gz is added
+     * @param header tab separated column names
+     * @param format
+     * @param gzip   if true, compress the report
+     * @return writer
+     * @throws IOException
+     */
+    public static ReportWriter open(String file, String header, Format format, boolean gzip) throws IOException {
+        String name = file + format.getExtension();
+        OutputStream out;
+        if (gzip) {
+            out = new GZIPOutputStream(new FileOutputStream(name + ".gz", false), 1 << 16);
+        } else {
+            out = new FileOutputStream(name, false);
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+        ReportWriter report = new ReportWriter(format, header.split("\t"), writer);
+        if (format == Format.TSV) {
+            writer.write(header);
+            writer.write("\n");
+        }
+        return report;
+    }
+
+    /**
+     * Write one row.
+     *
+     * @param values the fields, values containing tabs are treated as several fields
+     * @throws IOException
+     */
+    public synchronized void writeRow(Object... values) throws IOException {
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                row.append('\t');
+            }
+            row.append(values[i]);
+        }
+        writeLine(row.toString());
+    }
+
+    /**
+     * Write pre-formatted tab separated rows, one per line.
+     *
+     * @param rows
+     * @throws IOException
+     */
+    public synchronized void writeRows(String rows) throws IOException {
+        if (format == Format.TSV) {
+            writer.write(rows);
+            return;
+        }
+        for (String row : rows.split("\n")) {
+            if (!row.isEmpty()) {
+                writeLine(row);
+            }
+        }
+    }
+
+    private void writeLine(String row) throws IOException {
+        if (format == Format.TSV) {
+            writer.write(row);
+            writer.write("\n");
+            return;
+        }
+        String[] fields = row.split("\t", -1);
+        JsonObject json = new JsonObject();
+        for (int i = 0; i < fields.length; i++) {
+            String column = i < columns.length && !columns[i].isEmpty() ? columns[i] : "column_" + (i + 1);
+            json.addProperty(column, fields[i]);
+        }
+        writer.write(gson.toJson(json));
+        writer.write("\n");
+    }
+
+    public synchronized void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,132 @@
+package org.geneontology.minerva;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ChangeLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final OWLOntologyManager m = OWLManager.createOWLOntologyManager();
+    private final OWLDataFactory f = m.getOWLDataFactory();
+
+    private OWLAxiom axiom(int i) {
+        OWLNamedIndividual individual = f.getOWLNamedIndividual(IRI.create("http://model.geneontology.org/test/" + i));
+        return f.getOWLClassAssertionAxiom(f.getOWLClass(IRI.create("http://purl.obolibrary.org/obo/GO_0000001")), individual);
+    }
+
+    @Test
+    public void testRecover() throws Exception {
+        IRI id1 = IRI.create("http://model.geneontology.org/test1");
+        IRI id2 = IRI.create("http://model.geneontology.org/test2");
+        OWLOntology ont1 = m.createOntology(id1);
+        OWLOntology ont2 = m.createOntology(id2);
+        OWLAnnotation title = f.getOWLAnnotation(f.getRDFSLabel(), f.getOWLLiteral("title"));
+        List<OWLOntologyChange> changes1 = Arrays.asList(new AddAxiom(ont1, axiom(1)), new AddOntologyAnnotation(ont1, title));
+        List<OWLOntologyChange> changes2 = Collections.singletonList(new RemoveAxiom(ont1, axiom(2)));
+
+        File logFolder = folder.newFolder();
+        ChangeLog log = new ChangeLog(logFolder, 60 * 1000);
+        log.append(id1, ont1, changes1);
+        log.append(id2, ont2, Collections.singletonList(new AddAxiom(ont2, axiom(3))));
+        // changes of other ontologies are not logged
+        log.append(id1, ont1, Collections.singletonList(new AddAxiom(ont2, axiom(4))));
+        log.checkpoint(id2);
+        log.append(id1, ont1, changes2);
+        // simulate a crash, without close
+        log.flush();
+
+        ChangeLog next = new ChangeLog(logFolder, 60 * 1000);
+        Map<IRI, List<byte[]>> unsaved = next.recover();
+        assertEquals(Collections.singleton(id1), unsaved.keySet());
+        List<byte[]> data = unsaved.get(id1);
+        assertEquals(2, data.size());
+        assertEquals(changes1, ChangeLog.read(data.get(0), ont1));
+        assertEquals(changes2, ChangeLog.read(data.get(1), ont1));
+        next.deleteRecovered();
+        next.close();
+        assertTrue(new ChangeLog(logFolder, 60 * 1000).recover().isEmpty());
+    }
+
+    @Test
+    public void testTornFrame() throws Exception {
+        IRI id = IRI.create("http://model.geneontology.org/test");
+        OWLOntology ont = m.createOntology(id);
+        File logFolder = folder.newFolder();
+        ChangeLog log = new ChangeLog(logFolder, 60 * 1000);
+        log.append(id, ont, Collections.singletonList(new AddAxiom(ont, axiom(1))));
+        log.append(id, ont, Collections.singletonList(new AddAxiom(ont, axiom(2))));
+        log.close();
+        // cut the last frame
+        File segment = logFolder.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 10);
+        }
+        List<byte[]> data = new ChangeLog(logFolder, 60 * 1000).recover().get(id);
+        assertEquals(1, data.size());
+        assertEquals(Collections.singletonList(new AddAxiom(ont, axiom(1))), ChangeLog.read(data.get(0), ont));
+    }
+
+    @Test
+    public void testDeleteSegments() throws Exception {
+        IRI id = IRI.create("http://model.geneontology.org/test");
+        OWLOntology ont = m.createOntology(id);
+        File logFolder = folder.newFolder();
+        // each flush starts a new segment
+        ChangeLog log = new ChangeLog(logFolder, 60 * 1000, 1);
+        log.append(id, ont, Collections.singletonList(new AddAxiom(ont, axiom(1))));
+        log.flush();
+        log.append(id, ont, Collections.singletonList(new AddAxiom(ont, axiom(2))));
+        log.flush();
+        assertEquals(3, logFolder.listFiles().length);
+        log.checkpoint(id);
+        log.flush();
+        // only the new, empty segment is left
+        assertEquals(1, logFolder.listFiles().length);
+        log.close();
+    }
+
+    @Test
+    public void testKeepLaterCheckpoint() throws Exception {
+        IRI id1 = IRI.create("http://model.geneontology.org/test1");
+        IRI id2 = IRI.create("http://model.geneontology.org/test2");
+        OWLOntology ont1 = m.createOntology(id1);
+        OWLOntology ont2 = m.createOntology(id2);
+        File logFolder = folder.newFolder();
+        ChangeLog log = new ChangeLog(logFolder, 60 * 1000, 1);
+        // first segment: changes of both models
+        log.append(id1, ont1, Collections.singletonList(new AddAxiom(ont1, axiom(1))));
+        log.append(id2, ont2, Collections.singletonList(new AddAxiom(ont2, axiom(2))));
+        log.flush();
+        // second segment: the first model is changed again and saved
+        log.append(id1, ont1, Collections.singletonList(new RemoveAxiom(ont1, axiom(1))));
+        log.checkpoint(id1);
+        log.flush();
+        // the second segment holds the checkpoint for the first, which is still pending for the second model
+        assertEquals(3, logFolder.listFiles().length);
+        // simulate a crash, on a copy of the log
+        File crashFolder = folder.newFolder();
+        FileUtils.copyDirectory(logFolder, crashFolder);
+        ChangeLog next = new ChangeLog(crashFolder, 60 * 1000);
+        assertEquals(Collections.singleton(id2), next.recover().keySet());
+        next.close();
+        log.checkpoint(id2);
+        log.flush();
+        assertEquals(1, logFolder.listFiles().length);
+        log.close();
+    }
+}
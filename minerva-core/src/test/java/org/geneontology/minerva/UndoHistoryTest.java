@@ -0,0 +1,92 @@
+package org.geneontology.minerva;
+
+import org.geneontology.minerva.UndoAwareMolecularModelManager.ChangeEvent;
+import org.geneontology.minerva.UndoAwareMolecularModelManager.UndoMetadata;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UndoHistoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final OWLOntologyManager m = OWLManager.createOWLOntologyManager();
+    private final OWLDataFactory f = m.getOWLDataFactory();
+
+    private OWLAxiom axiom(int i) {
+        OWLNamedIndividual individual = f.getOWLNamedIndividual(IRI.create("http://model.geneontology.org/test/" + i));
+        return f.getOWLClassAssertionAxiom(f.getOWLClass(IRI.create("http://purl.obolibrary.org/obo/GO_0000001")), individual);
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        OWLOntology ont = m.createOntology(IRI.create("http://model.geneontology.org/test"));
+        OWLOntologyChange add1 = new AddAxiom(ont, axiom(1));
+        OWLOntologyChange remove1 = new RemoveAxiom(ont, axiom(1));
+        OWLOntologyChange add2 = new AddAxiom(ont, axiom(2));
+        List<OWLOntologyChange> changes = Arrays.asList(add1, add2);
+        assertSame(changes, UndoHistory.compact(changes));
+        // first and last change of an axiom are kept, if they differ
+        assertEquals(Arrays.asList(add1, add2, remove1), UndoHistory.compact(Arrays.asList(add1, add2, remove1)));
+        assertEquals(Arrays.asList(add1, add2, remove1), UndoHistory.compact(Arrays.asList(add1, remove1, add2, add1, remove1)));
+        assertEquals(Arrays.asList(add1, add2), UndoHistory.compact(Arrays.asList(add1, remove1, add2, add1)));
+    }
+
+    @Test
+    public void testSpill() throws Exception {
+        OWLOntology ont = m.createOntology(IRI.create("http://model.geneontology.org/test"));
+        UndoHistory history = new UndoHistory();
+        history.setLimits(2, 0, 0);
+        history.setSpillFolder(folder.getRoot());
+        UndoHistory.UndoRedo undoRedo = history.getOrCreate(ont.getOntologyID().getOntologyIRI().get());
+        for (int i = 0; i < 5; i++) {
+            undoRedo.addUndo(Collections.singletonList(new AddAxiom(ont, axiom(i))), new UndoMetadata("user" + i));
+        }
+        assertEquals(2, undoRedo.undoBuffer.size());
+        assertEquals(3, undoRedo.getSpilledCount());
+        // undo the events in order, reading the spilled ones back
+        for (int i = 4; i >= 0; i--) {
+            ChangeEvent event = undoRedo.getUndo(ont);
+            assertEquals("user" + i, event.getUserId());
+            assertEquals(Collections.singletonList(new AddAxiom(ont, axiom(i))), event.getChanges());
+            undoRedo.addRedo(event.getChanges(), event.getUserId());
+        }
+        assertNull(undoRedo.getUndo(ont));
+        // redo is limited as well
+        assertEquals(2, undoRedo.redoBuffer.size());
+        undoRedo.clearRedo();
+        assertEquals(0, history.getTotalBytes());
+    }
+
+    @Test
+    public void testTotalLimit() throws Exception {
+        OWLOntology ont1 = m.createOntology(IRI.create("http://model.geneontology.org/test1"));
+        OWLOntology ont2 = m.createOntology(IRI.create("http://model.geneontology.org/test2"));
+        UndoHistory history = new UndoHistory();
+        UndoHistory.UndoRedo undoRedo1 = history.getOrCreate(ont1.getOntologyID().getOntologyIRI().get());
+        UndoHistory.UndoRedo undoRedo2 = history.getOrCreate(ont2.getOntologyID().getOntologyIRI().get());
+        for (int i = 0; i < 10; i++) {
+            undoRedo1.addUndo(Collections.singletonList(new AddAxiom(ont1, axiom(i))), "user");
+        }
+        undoRedo2.addUndo(Collections.singletonList(new AddAxiom(ont2, axiom(0))), "user");
+        long eventBytes = UndoHistory.estimateBytes(Collections.singletonList(new AddAxiom(ont1, axiom(0))));
+        assertEquals(11 * eventBytes, history.getTotalBytes());
+
+        history.setLimits(0, 0, 5 * eventBytes);
+        history.trim();
+        // the least recently modified model is trimmed first, without spill folder the events are dropped
+        assertEquals(4, undoRedo1.undoBuffer.size());
+        assertEquals(0, undoRedo1.getSpilledCount());
+        assertEquals(1, undoRedo2.undoBuffer.size());
+        assertEquals(5 * eventBytes, history.getTotalBytes());
+    }
+}
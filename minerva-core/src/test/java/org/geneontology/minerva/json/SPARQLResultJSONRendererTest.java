@@ -0,0 +1,68 @@
+package org.geneontology.minerva.json;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.geneontology.minerva.curie.CurieHandler;
+import org.geneontology.minerva.curie.DefaultCurieHandler;
+import org.junit.Test;
+import org.openrdf.model.Statement;
+import org.openrdf.model.impl.BNodeImpl;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.model.impl.StatementImpl;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.impl.GraphQueryResultImpl;
+import org.openrdf.query.impl.MapBindingSet;
+import org.openrdf.query.impl.TupleQueryResultImpl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SPARQLResultJSONRendererTest {
+
+    private static final CurieHandler curieHandler = DefaultCurieHandler.getDefaultHandler();
+
+    private static TupleQueryResult createTupleResult() {
+        MapBindingSet first = new MapBindingSet();
+        first.addBinding("s", new URIImpl("http://model.geneontology.org/0000000300000001"));
+        first.addBinding("label", new LiteralImpl("kinase", "en"));
+        first.addBinding("count", new LiteralImpl("3", XMLSchema.INT));
+        first.addBinding("b", new BNodeImpl("b1"));
+        MapBindingSet second = new MapBindingSet();
+        second.addBinding("s", new URIImpl("http://purl.obolibrary.org/obo/GO_0000981"));
+        List<BindingSet> bindings = Arrays.asList(first, second);
+        return new TupleQueryResultImpl(Arrays.asList("s", "label", "count", "b"), bindings);
+    }
+
+    @Test
+    public void testRenderResults() throws Exception {
+        SPARQLResultJSONRenderer renderer = new SPARQLResultJSONRenderer(curieHandler);
+        JsonObject json = renderer.renderResults(createTupleResult());
+        JsonObject expected = new JsonParser().parse("{\"head\":{\"vars\":[\"s\",\"label\",\"count\",\"b\"]},\"results\":{\"bindings\":["
+                + "{\"s\":{\"type\":\"uri\",\"value\":\"gomodel:0000000300000001\"},"
+                + "\"label\":{\"xml:lang\":\"en\",\"type\":\"literal\",\"value\":\"kinase\"},"
+                + "\"count\":{\"datatype\":\"http://www.w3.org/2001/XMLSchema#int\",\"type\":\"literal\",\"value\":\"3\"},"
+                + "\"b\":{\"type\":\"bnode\",\"value\":\"b1\"}},"
+                + "{\"s\":{\"type\":\"uri\",\"value\":\"GO:0000981\"}}]}}").getAsJsonObject();
+        assertEquals(expected, json);
+    }
+
+    @Test
+    public void testRenderGraph() throws Exception {
+        List<Statement> statements = Arrays.asList(
+                new StatementImpl(new URIImpl("http://purl.obolibrary.org/obo/GO_0000981"), new URIImpl("http://purl.obolibrary.org/obo/BFO_0000050"), new URIImpl("http://model.geneontology.org/0000000300000001")),
+                new StatementImpl(new BNodeImpl("b1"), new URIImpl("http://purl.obolibrary.org/obo/BFO_0000050"), new BNodeImpl("b2")));
+        JsonObject json = new SPARQLResultJSONRenderer(curieHandler).renderGraph(new GraphQueryResultImpl(Collections.emptyMap(), statements));
+        JsonObject value = json.getAsJsonObject("GO:0000981").getAsJsonArray("BFO:0000050").get(0).getAsJsonObject();
+        assertEquals("gomodel:0000000300000001", value.get("value").getAsString());
+        assertEquals("uri", value.get("type").getAsString());
+        JsonObject bnode = json.getAsJsonObject("_:b1").getAsJsonArray("BFO:0000050").get(0).getAsJsonObject();
+        assertEquals("_:b2", bnode.get("value").getAsString());
+        assertEquals("bnode", bnode.get("type").getAsString());
+    }
+}
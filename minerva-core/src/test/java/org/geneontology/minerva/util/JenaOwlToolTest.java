@@ -0,0 +1,34 @@
+package org.geneontology.minerva.util;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.formats.TurtleDocumentFormat;
+import org.semanticweb.owlapi.model.OWLOntology;
+import org.semanticweb.owlapi.model.OWLOntologyManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JenaOwlToolTest {
+
+    @Test
+    public void testSameAsTurtle() throws Exception {
+        OWLOntologyManager m = OWLManager.createOWLOntologyManager();
+        OWLOntology ontology = m.loadOntologyFromOntologyDocument(new File("src/test/resources/dummy-noctua-model.ttl"));
+        Model direct = JenaOwlTool.getJenaModel(ontology);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        m.saveOntology(ontology, new TurtleDocumentFormat(), out);
+        Model turtle = ModelFactory.createDefaultModel();
+        turtle.read(new ByteArrayInputStream(out.toByteArray()), null, "TURTLE");
+
+        assertEquals(turtle.size(), direct.size());
+        assertTrue(turtle.isIsomorphicWith(direct));
+    }
+}
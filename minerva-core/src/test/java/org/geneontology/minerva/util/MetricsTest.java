@@ -0,0 +1,31 @@
+package org.geneontology.minerva.util;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+
+    @Test
+    public void testWrite() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.histogram("test_seconds", "Test latency.", "operation", "add").observe(0.003);
+        metrics.histogram("test_seconds", "Test latency.", "operation", "add").observe(2);
+        metrics.cacheLookup("render", true);
+        metrics.cacheLookup("render", false);
+        metrics.cacheLookup("render", true);
+
+        StringWriter writer = new StringWriter();
+        metrics.write(writer);
+        String text = writer.toString();
+        assertTrue(text, text.contains("# TYPE test_seconds histogram\n"));
+        assertTrue(text, text.contains("test_seconds_bucket{operation=\"add\",le=\"0.0025\"} 0\n"));
+        assertTrue(text, text.contains("test_seconds_bucket{operation=\"add\",le=\"0.005\"} 1\n"));
+        assertTrue(text, text.contains("test_seconds_bucket{operation=\"add\",le=\"+Inf\"} 2\n"));
+        assertTrue(text, text.contains("test_seconds_count{operation=\"add\"} 2\n"));
+        assertTrue(text, text.contains("minerva_cache_requests_total{cache=\"render\",result=\"hit\"} 2\n"));
+        assertTrue(text, text.contains("minerva_cache_requests_total{cache=\"render\",result=\"miss\"} 1\n"));
+    }
+}
@@ -0,0 +1,49 @@
+package org.geneontology.minerva.validation;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.OWL;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShapeMapQueryTest {
+
+    static final String mainShapemapFile = "src/test/resources/validation/go-cam-shapes.shapeMap";
+
+    @Test
+    public void testIndexLookupMatchesSparql() throws IOException {
+        Model model = ModelFactory.createDefaultModel();
+        Resource mf = model.createResource("http://purl.obolibrary.org/obo/GO_0003674");
+        Resource transporter = model.createResource("http://purl.obolibrary.org/obo/GO_0005215");
+        Resource bp = model.createResource("http://purl.obolibrary.org/obo/GO_0008150");
+        model.add(mf, RDFS.subClassOf, mf);
+        model.add(transporter, RDFS.subClassOf, transporter);
+        model.add(transporter, RDFS.subClassOf, mf);
+        model.add(bp, RDFS.subClassOf, bp);
+        model.add(model.createResource("http://model.geneontology.org/m1"), RDF.type, OWL.Ontology);
+        model.add(model.createResource("http://model.geneontology.org/i1"), RDF.type, mf);
+        model.add(model.createResource("http://model.geneontology.org/i2"), RDF.type, transporter);
+        model.add(model.createResource("http://model.geneontology.org/i3"), RDF.type, bp);
+        model.add(model.createResource(), RDF.type, transporter);
+
+        Map<String, String> query_map = ShexValidator.makeGoQueryMap(mainShapemapFile);
+        Map<String, ShapeMapQuery> queries = ShexValidator.makeShapeMapQueries(query_map);
+        for (String shape : query_map.keySet()) {
+            ShapeMapQuery query = queries.get(shape);
+            assertEquals(shape, ShexValidator.getFocusNodesBySparql(model, query_map.get(shape)), query.getFocusNodes(model));
+        }
+        assertTrue(queries.get("http://purl.obolibrary.org/obo/go/shapes/MolecularFunction").isIndexLookup());
+        assertTrue(queries.get("http://purl.obolibrary.org/obo/go/shapes/GoCamModel").isIndexLookup());
+        assertFalse(queries.get("http://purl.obolibrary.org/obo/go/shapes/AnnotatedEdge").isIndexLookup());
+        assertEquals(3, queries.get("http://purl.obolibrary.org/obo/go/shapes/MolecularFunction").getFocusNodes(model).size());
+    }
+}
@@ -0,0 +1,58 @@
+package org.geneontology.minerva.validation;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShexNodeResultsTest {
+
+    private static final String NS = "http://model.geneontology.org/";
+
+    @Test
+    public void testNodesToRevalidate() {
+        Model model = ModelFactory.createDefaultModel();
+        Property enabled_by = model.createProperty("http://purl.obolibrary.org/obo/RO_0002333");
+        Property part_of = model.createProperty("http://purl.obolibrary.org/obo/BFO_0000050");
+        Resource mf = model.createResource(NS + "mf");
+        Resource gp = model.createResource(NS + "gp");
+        Resource bp = model.createResource(NS + "bp");
+        Resource other = model.createResource(NS + "other");
+        Resource cls = model.createResource("http://purl.obolibrary.org/obo/GO_0003674");
+        model.add(mf, enabled_by, gp);
+        model.add(mf, part_of, bp);
+        model.add(mf, RDF.type, cls);
+        model.add(other, RDF.type, cls);
+
+        Set<String> shapes = Collections.singleton("http://purl.obolibrary.org/obo/go/shapes/MolecularFunction");
+        Map<Resource, Set<String>> node_s_shapes = new HashMap<>();
+        ShexNodeResults previous = new ShexNodeResults();
+        for (Resource node : Arrays.asList(mf, gp, bp, other)) {
+            node_s_shapes.put(node, shapes);
+            previous.put(node, new ShexNodeResults.NodeResult(shapes, true, new HashSet<Violation>()));
+        }
+
+        // a change to the gene product affects the activity enabled by it, but not the process or the unrelated node
+        Set<Resource> nodes = previous.getNodesToRevalidate(model, node_s_shapes, Collections.singleton(gp.getURI()));
+        assertEquals(new HashSet<>(Arrays.asList(gp, mf)), nodes);
+
+        // a change of the shapes to test requires a new validation
+        node_s_shapes.put(other, Collections.singleton("http://purl.obolibrary.org/obo/go/shapes/GeneProduct"));
+        nodes = previous.getNodesToRevalidate(model, node_s_shapes, Collections.<String>emptySet());
+        assertEquals(Collections.singleton(other), nodes);
+
+        // the sub model contains everything reachable from the nodes, but nothing else
+        Model sub_model = ShexNodeResults.getReachableSubModel(model, Collections.singleton(mf));
+        assertEquals(3, sub_model.size());
+        assertTrue(sub_model.contains(mf, RDF.type, cls));
+        assertFalse(sub_model.contains(other, RDF.type, cls));
+    }
+}
@@ -15,6 +15,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -59,6 +60,20 @@ public class ShexValidatorTest {
         System.out.println(query_map);
     }
 
+    @Test
+    public void testShapeSubsumption() {
+        String mf = "http://purl.obolibrary.org/obo/go/shapes/MolecularFunction";
+        String transporter = "http://purl.obolibrary.org/obo/go/shapes/TransporterActivity";
+        String cc = "http://purl.obolibrary.org/obo/go/shapes/CellularComponent";
+        String complex = "http://purl.obolibrary.org/obo/go/shapes/ProteinContainingComplex";
+        //from the schema
+        assertTrue(shex.shape_super_shapes.get(transporter).contains(mf));
+        assertFalse(shex.shape_super_shapes.get(mf).contains(transporter));
+        //from the class hierarchy of the shape map
+        assertTrue(shex.shape_super_shapes.get(complex).contains(cc));
+        assertEquals("http://purl.obolibrary.org/obo/GO_0003674", ShexValidator.getShapeMapRootClass(shex.GoQueryMap.get(mf)));
+    }
+
     @Test
     public void testShexShouldPass() throws Exception {
         boolean should_be_valid = true;
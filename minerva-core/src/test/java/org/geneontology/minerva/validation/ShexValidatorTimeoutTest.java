@@ -0,0 +1,102 @@
+package org.geneontology.minerva.validation;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShexValidatorTimeoutTest {
+
+    @Test
+    public void testTimeoutStartsWithTask() throws Exception {
+        ShexValidator.ValidationPool pool = new ShexValidator.ValidationPool(1, 0, 10, "test-");
+        CountDownLatch release = new CountDownLatch(1);
+        long deadline = System.currentTimeMillis() + 10000;
+        ShexValidator.TimedTask<Boolean> stuck = pool.submit(() -> {
+            release.await();
+            return true;
+        });
+        ShexValidator.TimedTask<Boolean> queued = pool.submit(() -> true);
+        // the stuck task times out, the time in the queue does not count for the next one
+        assertNull(stuck.get(300, deadline, "stuck"));
+        release.countDown();
+        Thread.sleep(300);
+        assertEquals(Boolean.TRUE, queued.get(300, deadline, "queued"));
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        ShexValidator.ValidationPool pool = new ShexValidator.ValidationPool(1, 0, 10, "test-");
+        CountDownLatch release = new CountDownLatch(1);
+        ShexValidator.TimedTask<Boolean> stuck = pool.submit(() -> {
+            release.await();
+            return true;
+        });
+        ShexValidator.TimedTask<Boolean> queued = pool.submit(() -> true);
+        // a task, which never starts, ends at the deadline
+        assertNull(queued.get(300, System.currentTimeMillis() + 500, "queued"));
+        release.countDown();
+        assertEquals(Boolean.TRUE, stuck.get(10000, System.currentTimeMillis() + 10000, "stuck"));
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testStuckTaskReplaced() throws Exception {
+        ShexValidator.ValidationPool pool = new ShexValidator.ValidationPool(1, 1, 10, "test-");
+        CountDownLatch release = new CountDownLatch(1);
+        ShexValidator.TimedTask<Boolean> stuck = pool.submit(() -> ignoreInterrupts(release));
+        ShexValidator.TimedTask<Boolean> queued = pool.submit(() -> true);
+        assertNull(stuck.get(300, System.currentTimeMillis() + 10000, "stuck"));
+        // the stuck task ignores the cancel, another thread runs the queued task
+        assertEquals(1, pool.getStuckTasks());
+        assertEquals(2, pool.getMaximumPoolSize());
+        assertEquals(Boolean.TRUE, queued.get(1000, System.currentTimeMillis() + 1000, "queued"));
+        // at most one replacement
+        ShexValidator.TimedTask<Boolean> stuck2 = pool.submit(() -> ignoreInterrupts(release));
+        assertNull(stuck2.get(300, System.currentTimeMillis() + 10000, "stuck2"));
+        assertEquals(1, pool.getStuckTasks());
+        assertEquals(2, pool.getMaximumPoolSize());
+        release.countDown();
+        long end = System.currentTimeMillis() + 5000;
+        while (pool.getStuckTasks() > 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.getStuckTasks());
+        assertEquals(1, pool.getMaximumPoolSize());
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        ShexValidator.ValidationPool pool = new ShexValidator.ValidationPool(1, 0, 1, "test-");
+        CountDownLatch release = new CountDownLatch(1);
+        ShexValidator.TimedTask<Boolean> running = pool.submit(() -> {
+            release.await();
+            return true;
+        });
+        ShexValidator.TimedTask<Boolean> queued = pool.submit(() -> true);
+        ShexValidator.TimedTask<Boolean> rejected = pool.submit(() -> true);
+        long start = System.currentTimeMillis();
+        assertNull(rejected.get(10000, start + 10000, "rejected"));
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        release.countDown();
+        assertEquals(Boolean.TRUE, running.get(1000, System.currentTimeMillis() + 1000, "running"));
+        assertEquals(Boolean.TRUE, queued.get(1000, System.currentTimeMillis() + 1000, "queued"));
+        pool.shutdownNow();
+    }
+
+    private static Boolean ignoreInterrupts(CountDownLatch release) {
+        while (true) {
+            try {
+                release.await();
+                return true;
+            } catch (InterruptedException e) {
+                // like a shex validation, which does not check for interrupts
+            }
+        }
+    }
+}
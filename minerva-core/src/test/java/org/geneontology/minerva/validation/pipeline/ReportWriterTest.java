@@ -0,0 +1,53 @@
+package org.geneontology.minerva.validation.pipeline;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReportWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTsvGzip() throws Exception {
+        String name = new File(folder.getRoot(), "main_report").getAbsolutePath();
+        try (ReportWriter report = ReportWriter.open(name, "filename\tvalid\taxioms", ReportWriter.Format.TSV, true)) {
+            report.writeRow("a.ttl", true, 12);
+            report.writeRows("b.ttl\tfalse\t3\nc.ttl\ttrue\t4\n");
+        }
+        try (InputStream in = new GZIPInputStream(new FileInputStream(name + ".txt.gz"))) {
+            assertEquals("filename\tvalid\taxioms\na.ttl\ttrue\t12\nb.ttl\tfalse\t3\nc.ttl\ttrue\t4\n", IOUtils.toString(in, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testJsonLines() throws Exception {
+        String name = new File(folder.getRoot(), "explanations").getAbsolutePath();
+        try (ReportWriter report = ReportWriter.open(name, "filename\tnode", ReportWriter.Format.JSON_LINES, false)) {
+            report.writeRow("a.ttl", "gomodel:1");
+            report.writeRows("b.ttl\tgomodel:2\textra\n");
+        }
+        try (InputStream in = new FileInputStream(name + ".jsonl")) {
+            List<String> lines = IOUtils.readLines(in, StandardCharsets.UTF_8);
+            assertEquals(2, lines.size());
+            JsonObject first = new JsonParser().parse(lines.get(0)).getAsJsonObject();
+            assertEquals("a.ttl", first.get("filename").getAsString());
+            assertEquals("gomodel:1", first.get("node").getAsString());
+            JsonObject second = new JsonParser().parse(lines.get(1)).getAsJsonObject();
+            assertEquals("extra", second.get("column_3").getAsString());
+        }
+    }
+}
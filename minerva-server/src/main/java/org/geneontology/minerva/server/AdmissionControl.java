@@ -0,0 +1,209 @@
+package org.geneontology.minerva.server;
+
+import org.geneontology.minerva.util.Metrics;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limit the number of concurrently running requests per class of endpoint.
+ * <p>
+ * Each class has a budget of permits, a request uses permits according to
+ * its estimated cost. If the budget is used up, the request waits in a
+ * bounded queue for a limited time. Requests which can not be admitted are
+ * answered with 503 (service unavailable) and a Retry-After header.
+ * <p>
+ * Edits have priority: while edits are waiting for permits, requests of the
+ * other classes wait until no edit is waiting anymore. The time they wait
+ * for the edits counts toward their maximum wait time.
+ */
+public class AdmissionControl {
+
+    public enum EndpointClass {
+        /**
+         * batches modifying a model
+         */
+        EDIT,
+        /**
+         * read-only batches for single models
+         */
+        READ,
+        /**
+         * model searches, the cost is the number of (expanded) terms
+         */
+        SEARCH,
+        /**
+         * bulk and reporting requests: meta get, export-all, sparql and
+         * multi model batches
+         */
+        BULK
+    }
+
+    private final Map<EndpointClass, Pool> pools = new EnumMap<>(EndpointClass.class);
+    private final int maxQueue;
+    private final long maxWaitMillis;
+    private final int retryAfterSeconds;
+
+    /**
+     * @param limits            budget for each class, classes without a budget are not limited
+     * @param maxQueue          maximum number of waiting requests per class
+     * @param maxWaitMillis     maximum time a request waits for its permits
+     * @param retryAfterSeconds value of the Retry-After header
+     */
+    public AdmissionControl(Map<EndpointClass, Integer> limits, int maxQueue, long maxWaitMillis, int retryAfterSeconds) {
+        for (EndpointClass endpointClass : EndpointClass.values()) {
+            Integer limit = limits.get(endpointClass);
+            pools.put(endpointClass, new Pool(limit != null && limit > 0 ? limit : Integer.MAX_VALUE));
+        }
+        this.maxQueue = maxQueue;
+        this.maxWaitMillis = maxWaitMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return admission control without any limits
+     */
+    public static AdmissionControl unlimited() {
+        return new AdmissionControl(new EnumMap<>(EndpointClass.class), 0, 0, 0);
+    }
+
+    /**
+     * Create the admission control for the server configuration.
+     *
+     * @param conf
+     * @return admission control
+     */
+    public static AdmissionControl create(StartUpTool.MinervaStartUpConfig conf) {
+        Map<EndpointClass, Integer> limits = new EnumMap<>(EndpointClass.class);
+        limits.put(EndpointClass.EDIT, conf.maxConcurrentEdits);
+        limits.put(EndpointClass.READ, conf.maxConcurrentReads);
+        limits.put(EndpointClass.SEARCH, conf.maxSearchCost);
+        limits.put(EndpointClass.BULK, conf.maxConcurrentBulk);
+        return new AdmissionControl(limits, conf.admissionQueueSize, conf.admissionQueueTimeout, conf.admissionRetryAfter);
+    }
+
+    /**
+     * Wait for the permits of a request.
+     *
+     * @param endpointClass
+     * @param cost          estimated cost, at least one permit is used and at most the whole budget
+     * @return permit, to be closed after the request is finished
+     * @throws WebApplicationException with status 503, if the request is over budget
+     */
+    public Permit acquire(EndpointClass endpointClass, int cost) throws WebApplicationException {
+        Pool pool = pools.get(endpointClass);
+        int permits = Math.max(1, Math.min(cost, pool.capacity));
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        if (endpointClass != EndpointClass.EDIT && !awaitEdits(deadline)) {
+            throw reject(endpointClass, "edits have priority");
+        }
+        if (pool.permits.tryAcquire(permits)) {
+            return new Permit(pool, permits);
+        }
+        if (pool.waiting.incrementAndGet() > maxQueue) {
+            pool.leaveQueue();
+            throw reject(endpointClass, "the queue is full");
+        }
+        try {
+            if (pool.permits.tryAcquire(permits, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return new Permit(pool, permits);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.leaveQueue();
+        }
+        throw reject(endpointClass, "timeout");
+    }
+
+    /**
+     * Wait until no edit is waiting for permits.
+     *
+     * @param deadline in nano seconds
+     * @return false, if edits were still waiting at the deadline
+     */
+    private boolean awaitEdits(long deadline) {
+        Pool edits = pools.get(EndpointClass.EDIT);
+        synchronized (edits) {
+            while (edits.waiting.get() > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(edits, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param endpointClass
+     * @return number of permits currently in use
+     */
+    public int getUsed(EndpointClass endpointClass) {
+        Pool pool = pools.get(endpointClass);
+        return pool.capacity - pool.permits.availablePermits();
+    }
+
+    private WebApplicationException reject(EndpointClass endpointClass, String reason) {
+        String name = endpointClass.name().toLowerCase();
+        Metrics.getDefault().counter("minerva_admission_rejected_total", "Requests rejected by the admission control.", "class", name).inc();
+        Response response = Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+                .type(MediaType.TEXT_PLAIN_TYPE)
+                .entity("The server is too busy for " + name + " requests (" + reason + "), please retry later.")
+                .build();
+        return new WebApplicationException(response);
+    }
+
+    private static final class Pool {
+        final int capacity;
+        final Semaphore permits;
+        final AtomicInteger waiting = new AtomicInteger();
+
+        Pool(int capacity) {
+            this.capacity = capacity;
+            this.permits = new Semaphore(capacity, true);
+        }
+
+        synchronized void leaveQueue() {
+            waiting.decrementAndGet();
+            // wake up requests waiting for the edits
+            notifyAll();
+        }
+    }
+
+    /**
+     * Permits of an admitted request, closing releases them.
+     */
+    public static final class Permit implements AutoCloseable {
+        private final Pool pool;
+        private final int permits;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Pool pool, int permits) {
+            this.pool = pool;
+            this.permits = permits;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                pool.permits.release(permits);
+            }
+        }
+    }
+}
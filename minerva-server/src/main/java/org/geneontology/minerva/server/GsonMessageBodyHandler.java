@@ -2,6 +2,7 @@ package org.geneontology.minerva.server;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 import org.apache.log4j.Logger;
 
 import javax.ws.rs.Consumes;
@@ -23,13 +24,10 @@ public final class GsonMessageBodyHandler implements MessageBodyWriter<Object>,
     private static Logger LOG = Logger.getLogger(GsonMessageBodyHandler.class);
     private static final String UTF_8 = "UTF-8";
 
-    private Gson gson;
+    // Gson instances are thread-safe, share one for all requests
+    private static final Gson gson = new GsonBuilder().create();
 
     private Gson getGson() {
-        if (gson == null) {
-            final GsonBuilder gsonBuilder = new GsonBuilder();
-            gson = gsonBuilder.create();
-        }
         return gson;
     }
 
@@ -93,7 +91,8 @@ public final class GsonMessageBodyHandler implements MessageBodyWriter<Object>,
                         MediaType mediaType,
                         MultivaluedMap<String, Object> httpHeaders,
                         OutputStream entityStream) throws IOException, WebApplicationException {
-        OutputStreamWriter writer = new OutputStreamWriter(entityStream, UTF_8);
+        // write the JSON text to the response stream while serializing, the response object itself is already complete in memory
+        JsonWriter writer = getGson().newJsonWriter(new BufferedWriter(new OutputStreamWriter(entityStream, UTF_8)));
         try {
             Type jsonType;
             if (type.equals(genericType)) {
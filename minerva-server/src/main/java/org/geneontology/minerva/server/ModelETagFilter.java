@@ -0,0 +1,48 @@
+package org.geneontology.minerva.server;
+
+import org.geneontology.minerva.server.handler.M3BatchHandler.M3BatchResponse;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+
+/**
+ * Add the ETag of read-only batch responses and answer GET requests with
+ * 304 (not modified), if the If-None-Match header contains the same ETag.
+ */
+public class ModelETagFilter implements ContainerResponseFilter {
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+        Object entity = responseContext.getEntity();
+        if (!(entity instanceof M3BatchResponse)) {
+            return;
+        }
+        String etag = ((M3BatchResponse) entity).etag;
+        if (etag == null || responseContext.getStatus() != Response.Status.OK.getStatusCode()) {
+            return;
+        }
+        responseContext.getHeaders().putSingle(HttpHeaders.ETAG, etag);
+        if (HttpMethod.GET.equals(requestContext.getMethod()) && matches(requestContext.getHeaderString(HttpHeaders.IF_NONE_MATCH), etag)) {
+            responseContext.setStatus(Response.Status.NOT_MODIFIED.getStatusCode());
+            responseContext.setEntity(null);
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -7,6 +7,9 @@ import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.geneontology.minerva.ChangeLog;
 import org.geneontology.minerva.MinervaOWLGraphWrapper;
 import org.geneontology.minerva.ModelReaderHelper;
 import org.geneontology.minerva.UndoAwareMolecularModelManager;
@@ -19,6 +22,7 @@ import org.geneontology.minerva.server.handler.*;
 import org.geneontology.minerva.server.inferences.CachingInferenceProviderCreatorImpl;
 import org.geneontology.minerva.server.inferences.InferenceProviderCreator;
 import org.geneontology.minerva.server.validation.MinervaShexValidator;
+import org.geneontology.minerva.util.Metrics;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.glassfish.jersey.servlet.ServletContainer;
 import org.semanticweb.owlapi.apibinding.OWLManager;
@@ -88,6 +92,25 @@ public class StartUpTool {
 
         public int sparqlEndpointTimeout = 100;
 
+        // admission control, limits of zero or less disable the limit
+        public int maxConcurrentEdits = 16;
+        public int maxConcurrentReads = 16;
+        public int maxSearchCost = 5000; // expanded search terms of all running searches
+        public int maxConcurrentBulk = 4;
+        public int admissionQueueSize = 32;
+        public long admissionQueueTimeout = 10000; // milliseconds
+        public int admissionRetryAfter = 5; // seconds
+
+        // undo history per model and of all models, limits of zero or less disable the limit
+        public int undoMaxDepth = 1000;
+        public long undoMaxBytes = 32L * 1024 * 1024;
+        public long undoMaxTotalBytes = 512L * 1024 * 1024;
+        public String undoSpillFolder = null; // drop events beyond the limits by default
+
+        // log of the unsaved changes, replayed on start up
+        public String changeLogFolder = null; // no log by default
+        public long changeLogSyncInterval = 200; // milliseconds
+
         public String shexFileUrl = "https://raw.githubusercontent.com/geneontology/go-shapes/master/shapes/go-cam-shapes.shex";
         public String goshapemapFileUrl = "https://raw.githubusercontent.com/geneontology/go-shapes/master/shapes/go-cam-shapes.shapeMap";
         public MinervaShexValidator shex;
@@ -170,6 +193,32 @@ public class StartUpTool {
                 conf.prefixesFile = opts.nextOpt();
             } else if (opts.nextEq("--sparql-endpoint-timeout")) {
                 conf.sparqlEndpointTimeout = Integer.parseInt(opts.nextOpt());
+            } else if (opts.nextEq("--max-concurrent-edits")) {
+                conf.maxConcurrentEdits = Integer.parseInt(opts.nextOpt());
+            } else if (opts.nextEq("--max-concurrent-reads")) {
+                conf.maxConcurrentReads = Integer.parseInt(opts.nextOpt());
+            } else if (opts.nextEq("--max-search-cost")) {
+                conf.maxSearchCost = Integer.parseInt(opts.nextOpt());
+            } else if (opts.nextEq("--max-concurrent-bulk")) {
+                conf.maxConcurrentBulk = Integer.parseInt(opts.nextOpt());
+            } else if (opts.nextEq("--admission-queue-size")) {
+                conf.admissionQueueSize = Integer.parseInt(opts.nextOpt());
+            } else if (opts.nextEq("--admission-queue-timeout")) {
+                conf.admissionQueueTimeout = Long.parseLong(opts.nextOpt());
+            } else if (opts.nextEq("--admission-retry-after")) {
+                conf.admissionRetryAfter = Integer.parseInt(opts.nextOpt());
+            } else if (opts.nextEq("--undo-max-depth")) {
+                conf.undoMaxDepth = Integer.parseInt(opts.nextOpt());
+            } else if (opts.nextEq("--undo-max-bytes")) {
+                conf.undoMaxBytes = Long.parseLong(opts.nextOpt());
+            } else if (opts.nextEq("--undo-max-total-bytes")) {
+                conf.undoMaxTotalBytes = Long.parseLong(opts.nextOpt());
+            } else if (opts.nextEq("--undo-spill-folder")) {
+                conf.undoSpillFolder = opts.nextOpt();
+            } else if (opts.nextEq("--change-log-folder")) {
+                conf.changeLogFolder = opts.nextOpt();
+            } else if (opts.nextEq("--change-log-sync-interval")) {
+                conf.changeLogSyncInterval = Long.parseLong(opts.nextOpt());
             } else if (opts.nextEq("--ontojournal")) {
                 conf.pathToOntologyJournal = opts.nextOpt();
             } else {
@@ -340,6 +389,15 @@ public class StartUpTool {
                 conf.curieHandler, conf.modelIdPrefix, conf.journalFile, conf.exportFolder, conf.pathToOntologyJournal, true);
         // set pre and post file handlers
         models.addPostLoadOntologyFilter(ModelReaderHelper.INSTANCE);
+        models.setUndoLimits(conf.undoMaxDepth, conf.undoMaxBytes, conf.undoMaxTotalBytes);
+        if (conf.undoSpillFolder != null) {
+            LOGGER.info("Undo spill folder: " + conf.undoSpillFolder);
+            models.setUndoSpillFolder(new File(conf.undoSpillFolder));
+        }
+        if (conf.changeLogFolder != null) {
+            LOGGER.info("Change log folder: " + conf.changeLogFolder);
+            models.setChangeLog(new ChangeLog(new File(conf.changeLogFolder), conf.changeLogSyncInterval));
+        }
         //	conf.shex.tbox_reasoner = models.getTbox_reasoner();
         conf.shex.setGo_lego_repo(models.getGolego_repo());
         conf.shex.curieHandler = conf.curieHandler;
@@ -369,14 +427,25 @@ public class StartUpTool {
     }
 
     public static InferenceProviderCreator createInferenceProviderCreator(String reasonerOpt, UndoAwareMolecularModelManager models, MinervaShexValidator shex) {
+        return createInferenceProviderCreator(reasonerOpt, models, shex, 1);
+    }
+
+    /**
+     * @param reasonerOpt
+     * @param models
+     * @param shex
+     * @param maxConcurrent number of models, which can be reasoned at the same time
+     * @return creator or null, for an unknown reasoner
+     */
+    public static InferenceProviderCreator createInferenceProviderCreator(String reasonerOpt, UndoAwareMolecularModelManager models, MinervaShexValidator shex, int maxConcurrent) {
         switch (reasonerOpt) {
             //	case ("slme-hermit"): return CachingInferenceProviderCreatorImpl.createHermiT(shex);
             case ("slme-elk"):
-                return CachingInferenceProviderCreatorImpl.createElk(true, shex);
+                return CachingInferenceProviderCreatorImpl.createElk(true, shex, maxConcurrent);
             case ("elk"):
-                return CachingInferenceProviderCreatorImpl.createElk(false, shex);
+                return CachingInferenceProviderCreatorImpl.createElk(false, shex, maxConcurrent);
             case ("arachne"):
-                return CachingInferenceProviderCreatorImpl.createArachne(models.getRuleEngine(), shex);
+                return CachingInferenceProviderCreatorImpl.createArachne(models.getRuleEngine(), shex, maxConcurrent);
             default:
                 return null;
         }
@@ -391,6 +460,7 @@ public class StartUpTool {
         ResourceConfig resourceConfig = new ResourceConfig();
         resourceConfig.register(GsonMessageBodyHandler.class);
         resourceConfig.register(RequireJsonpFilter.class);
+        resourceConfig.register(ModelETagFilter.class);
         resourceConfig.register(SPARQLResultsMessageBodyWriter.class);
         resourceConfig.register(SPARQLGraphMessageBodyWriter.class);
         if (conf.useRequestLogging) {
@@ -413,11 +483,16 @@ public class StartUpTool {
         JsonOrJsonpBatchHandler batchHandler = new JsonOrJsonpBatchHandler(models, conf.defaultModelState,
                 ipc, conf.importantRelations, conf.lookupService);
         batchHandler.CHECK_LITERAL_IDENTIFIERS = false; //conf.checkLiteralIds;
+        AdmissionControl admission = AdmissionControl.create(conf);
+        LOGGER.info("Admission control: edits " + conf.maxConcurrentEdits + ", reads " + conf.maxConcurrentReads
+                + ", search cost " + conf.maxSearchCost + ", bulk " + conf.maxConcurrentBulk + ", queue " + conf.admissionQueueSize);
+        batchHandler.setAdmissionControl(admission);
 
         SimpleEcoMapper ecoMapper = EcoMapperFactory.createSimple();
         //		JsonOrJsonpSeedHandler seedHandler = new JsonOrJsonpSeedHandler(models, conf.defaultModelState, conf.golrSeedUrl, ecoMapper );
         //	SPARQLHandler sparqlHandler = new SPARQLHandler(models, conf.sparqlEndpointTimeout);
         ModelSearchHandler searchHandler = new ModelSearchHandler(models);
+        searchHandler.setAdmissionControl(admission);
         ModelARTHandler artHandler = new ModelARTHandler(models, ipc);
 
         LocalDate d = LocalDate.now();
@@ -425,7 +500,8 @@ public class StartUpTool {
         String startup = d.toString() + " " + t.toString();
         StatusHandler statusHandler = new StatusHandler(conf, ont_annos, startup);
         TaxonHandler taxonHandler = new TaxonHandler(models);
-        resourceConfig = resourceConfig.registerInstances(batchHandler, searchHandler, artHandler, statusHandler, taxonHandler);
+        MetricsHandler metricsHandler = new MetricsHandler(Metrics.getDefault());
+        resourceConfig = resourceConfig.registerInstances(batchHandler, searchHandler, artHandler, statusHandler, taxonHandler, metricsHandler);
 
         // setup jetty server port, buffers and context path
         Server server = new Server();
@@ -451,6 +527,13 @@ public class StartUpTool {
         ServletHolder h = new ServletHolder(new ServletContainer(resourceConfig));
         context.addServlet(h, "/*");
 
+        server.addLifeCycleListener(new AbstractLifeCycle.AbstractLifeCycleListener() {
+            @Override
+            public void lifeCycleStopped(LifeCycle event) {
+                batchHandler.dispose();
+            }
+        });
+
         // start jetty server
         LOGGER.info("Start server on port: " + conf.port + " context: " + conf.contextString);
         server.start();
@@ -0,0 +1,136 @@
+package org.geneontology.minerva.server.handler;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.geneontology.minerva.ModelContainer;
+import org.geneontology.minerva.curie.CurieHandler;
+import org.geneontology.minerva.json.InferenceProvider;
+import org.geneontology.minerva.validation.*;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
+
+import java.util.*;
+
+/**
+ * Remember the last {@link InferenceProvider} sent to the clients for each
+ * model, to find the individuals whose inferred types or validation status
+ * changed with the next reasoned response.
+ */
+public class InferenceHistory {
+
+    private static final class Inferences {
+        final long version;
+        final InferenceProvider provider;
+
+        Inferences(long version, InferenceProvider provider) {
+            this.version = version;
+            this.provider = provider;
+        }
+    }
+
+    // weak keys: entries are dropped, once the model is unloaded
+    private final Cache<ModelContainer, Inferences> inferences;
+
+    public InferenceHistory(int size) {
+        inferences = CacheBuilder.newBuilder().weakKeys().maximumSize(size).build();
+    }
+
+    /**
+     * @param model
+     * @param version  the model version used for the reasoner
+     * @param provider
+     */
+    public void put(ModelContainer model, long version, InferenceProvider provider) {
+        inferences.put(model, new Inferences(version, provider));
+    }
+
+    /**
+     * Compare the current inferences with the ones of the last reasoned
+     * response for the model.
+     *
+     * @param model
+     * @param previousVersion the model version before the changes of the current batch
+     * @param current
+     * @param curieHandler
+     * @return individuals with changed inferred types or validation results,
+     * null if the last response was for a different model version or the consistency changed
+     */
+    public Set<OWLNamedIndividual> getChangedIndividuals(ModelContainer model, long previousVersion, InferenceProvider current, CurieHandler curieHandler) {
+        Inferences previous = inferences.getIfPresent(model);
+        if (previous == null || previous.version != previousVersion) {
+            return null;
+        }
+        if (previous.provider.isConsistent() != current.isConsistent()) {
+            return null;
+        }
+        Map<String, Set<String>> previousResults = getNodeResults(previous.provider.getValidation_results());
+        Map<String, Set<String>> currentResults = getNodeResults(current.getValidation_results());
+        Set<OWLNamedIndividual> changed = new HashSet<>();
+        for (OWLNamedIndividual individual : model.getAboxOntology().getIndividualsInSignature()) {
+            if (previous.provider.getTypes(individual).equals(current.getTypes(individual)) == false) {
+                changed.add(individual);
+            } else if (previousResults.isEmpty() == false || currentResults.isEmpty() == false) {
+                String curie = curieHandler.getCuri(individual.getIRI());
+                if (Objects.equals(previousResults.get(curie), currentResults.get(curie)) == false) {
+                    changed.add(individual);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Describe the validation results of each node: its matched shapes and
+     * its violations, with the violated shapes and constraints.
+     */
+    private static Map<String, Set<String>> getNodeResults(ValidationResultSet validations) {
+        Map<String, Set<String>> results = new HashMap<>();
+        if (validations == null) {
+            return results;
+        }
+        addViolations(validations.getOwlvalidation(), results);
+        ShexValidationReport shex = validations.getShexvalidation();
+        addViolations(shex, results);
+        if (shex != null && shex.node_matched_shapes != null) {
+            shex.node_matched_shapes.forEach((node, shapes) -> {
+                for (String shape : shapes) {
+                    getResults(results, node).add("matched " + shape);
+                }
+            });
+        }
+        return results;
+    }
+
+    private static void addViolations(ModelValidationReport report, Map<String, Set<String>> results) {
+        if (report == null || report.getViolations() == null) {
+            return;
+        }
+        for (Violation violation : report.getViolations()) {
+            Set<String> nodeResults = getResults(results, violation.getNode());
+            if (violation instanceof ShexViolation == false || ((ShexViolation) violation).getExplanations() == null) {
+                nodeResults.add(report.getId() + " violation");
+                continue;
+            }
+            for (ShexExplanation explanation : ((ShexViolation) violation).getExplanations()) {
+                StringBuilder description = new StringBuilder("violated ").append(explanation.getShape())
+                        .append(' ').append(explanation.getErrorMessage());
+                if (explanation.getConstraints() != null) {
+                    Set<String> constraints = new TreeSet<>();
+                    for (ShexConstraint constraint : explanation.getConstraints()) {
+                        constraints.add(constraint.getProperty() + " " + constraint.getObject() + " " + constraint.getCardinality() + " " + constraint.getNobjects()
+                                + " " + sorted(constraint.getIntended_range_shapes()) + " " + sorted(constraint.getMatched_range_shapes()));
+                    }
+                    description.append(' ').append(constraints);
+                }
+                nodeResults.add(description.toString());
+            }
+        }
+    }
+
+    private static Set<String> getResults(Map<String, Set<String>> results, String node) {
+        return results.computeIfAbsent(node, k -> new HashSet<>());
+    }
+
+    private static Set<String> sorted(Set<String> values) {
+        return values == null ? null : new TreeSet<>(values);
+    }
+}
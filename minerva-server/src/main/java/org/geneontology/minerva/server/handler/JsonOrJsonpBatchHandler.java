@@ -1,23 +1,33 @@
 package org.geneontology.minerva.server.handler;
 
 import com.google.common.reflect.TypeToken;
+import com.google.gson.Gson;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.log4j.Logger;
+import org.geneontology.minerva.MolecularModelManager.UnknownIdentifierException;
 import org.geneontology.minerva.UndoAwareMolecularModelManager;
 import org.geneontology.minerva.UndoAwareMolecularModelManager.UndoMetadata;
 import org.geneontology.minerva.json.*;
 import org.geneontology.minerva.lookup.ExternalLookupService;
+import org.geneontology.minerva.server.AdmissionControl;
+import org.geneontology.minerva.server.AdmissionControl.EndpointClass;
 import org.geneontology.minerva.server.handler.M3BatchHandler.M3BatchResponse.ResponseData;
 import org.geneontology.minerva.server.inferences.InferenceProviderCreator;
+import org.geneontology.minerva.util.Metrics;
 import org.glassfish.jersey.server.JSONP;
+import org.semanticweb.owlapi.model.OWLNamedIndividual;
 import org.semanticweb.owlapi.model.OWLObjectProperty;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.*;
 import java.lang.reflect.Type;
-import java.util.Collections;
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
 
 import static org.geneontology.minerva.server.handler.OperationsTools.*;
 
@@ -34,6 +44,27 @@ public class JsonOrJsonpBatchHandler extends OperationsImpl implements M3BatchHa
 
     private final InferenceProviderCreator inferenceProviderCreator;
 
+    private final ModelRenderCache renderCache = new ModelRenderCache(100);
+
+    private final InferenceHistory inferenceHistory = new InferenceHistory(100);
+
+    private final Metrics metrics = Metrics.getDefault();
+
+    private static final Gson gson = new Gson();
+
+    // the model groups of multi model batches run in parallel
+    private final ExecutorService multiBatchExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+        Thread thread = new Thread(r, "m3-multi-batch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // operations, which do not modify the model
+    private static final Set<Operation> READ_OPERATIONS = EnumSet.of(Operation.get, Operation.exportModel,
+            Operation.exportModelLegacy, Operation.diffModel, Operation.getUndoRedo);
+
+    private volatile AdmissionControl admission = AdmissionControl.unlimited();
+
     public JsonOrJsonpBatchHandler(UndoAwareMolecularModelManager models,
                                    String defaultModelState,
                                    InferenceProviderCreator inferenceProviderCreator,
@@ -50,6 +81,22 @@ public class JsonOrJsonpBatchHandler extends OperationsImpl implements M3BatchHa
 
     }.getType();
 
+    /**
+     * Stop the threads for the multi model batches.
+     */
+    public void dispose() {
+        multiBatchExecutor.shutdownNow();
+    }
+
+    /**
+     * Limit the concurrent batches, by default there is no limit.
+     *
+     * @param admission
+     */
+    public void setAdmissionControl(AdmissionControl admission) {
+        this.admission = admission;
+    }
+
     @Override
     boolean checkLiteralIdentifiers() {
         return CHECK_LITERAL_IDENTIFIERS;
@@ -84,6 +131,16 @@ public class JsonOrJsonpBatchHandler extends OperationsImpl implements M3BatchHa
         return m3Batch(uid, providerGroups, intention, packetId, requestString, useReasoner, true);
     }
 
+    @Override
+    public Response m3MultiBatchPost(String intention, String packetId, String requestString, String useReasoner, String stream) {
+        return m3MultiBatch(null, Collections.emptySet(), intention, packetId, requestString, useReasoner, stream != null, false);
+    }
+
+    @Override
+    public Response m3MultiBatchPostPrivileged(String uid, Set<String> providerGroups, String intention, String packetId, String requestString, String useReasoner, String stream) {
+        return m3MultiBatch(uid, providerGroups, intention, packetId, requestString, useReasoner, stream != null, true);
+    }
+
     private static String checkPacketId(String packetId) {
         if (packetId == null) {
             packetId = PacketIdGenerator.generateId();
@@ -109,26 +166,63 @@ public class JsonOrJsonpBatchHandler extends OperationsImpl implements M3BatchHa
         }
     }
 
-    private M3BatchResponse m3Batch(String uid, Set<String> providerGroups, String intention, String packetId, String requestString, String useReasonerString, boolean isPrivileged) {
-        boolean useReasoner = false;
+    private boolean isUseReasoner(String useReasonerString) {
         if (inferenceProviderCreator != null) {
             useReasonerString = StringUtils.trimToNull(useReasonerString);
-            useReasoner = "true".equalsIgnoreCase(useReasonerString);
+            return "true".equalsIgnoreCase(useReasonerString);
         }
+        return false;
+    }
+
+    private M3BatchResponse m3Batch(String uid, Set<String> providerGroups, String intention, String packetId, String requestString, String useReasonerString, boolean isPrivileged) {
+        boolean useReasoner = isUseReasoner(useReasonerString);
         M3BatchResponse response = new M3BatchResponse(uid, providerGroups, intention, checkPacketId(packetId));
         requestString = StringUtils.trimToNull(requestString);
         if (requestString == null) {
             return error(response, "The batch contains no requests: null value for request", null);
         }
+        final M3Request[] requests;
+        try {
+            requests = MolecularModelJsonRenderer.parseFromJson(requestString, requestType);
+        } catch (Exception e) {
+            return error(response, "Could not successfully handle batch request.", e);
+        }
+        // answered with 503, if the server is too busy for this kind of batch
+        AdmissionControl.Permit permit = admission.acquire(getEndpointClass(requests), 1);
         try {
-            M3Request[] requests = MolecularModelJsonRenderer.parseFromJson(requestString, requestType);
             return m3Batch(response, requests, uid, providerGroups, useReasoner, isPrivileged);
         } catch (Exception e) {
             return error(response, "Could not successfully handle batch request.", e);
         } catch (Throwable t) {
             logger.error("A critical error occured.", t);
             return error(response, "An internal error occured at the server level.", t);
+        } finally {
+            permit.close();
+        }
+    }
+
+    /**
+     * Edits are any modifying requests. Meta requests, i.e. get, export-all
+     * and sparql, are reporting traffic.
+     *
+     * @param requests
+     * @return class of the batch for the admission control
+     */
+    static EndpointClass getEndpointClass(M3Request[] requests) {
+        EndpointClass endpointClass = EndpointClass.READ;
+        if (requests != null) {
+            for (M3Request request : requests) {
+                if (request == null || request.entity == null || request.operation == null) {
+                    continue;
+                }
+                if (Entity.meta == request.entity) {
+                    endpointClass = EndpointClass.BULK;
+                } else if (!READ_OPERATIONS.contains(request.operation)) {
+                    return EndpointClass.EDIT;
+                }
+            }
         }
+        return endpointClass;
     }
 
     private M3BatchResponse m3Batch(M3BatchResponse response, M3Request[] requests, String userId, Set<String> providerGroups, boolean useReasoner, boolean isPrivileged) throws InsufficientPermissionsException, Exception {
@@ -136,56 +230,72 @@ public class JsonOrJsonpBatchHandler extends OperationsImpl implements M3BatchHa
         UndoMetadata token = new UndoMetadata(userId);
 
         final BatchHandlerValues values = new BatchHandlerValues();
+        try {
+            return m3Batch(response, requests, userId, token, values, providerGroups, useReasoner, isPrivileged);
+        } finally {
+            values.unlockModel();
+        }
+    }
+
+    private M3BatchResponse m3Batch(M3BatchResponse response, M3Request[] requests, String userId, UndoMetadata token, BatchHandlerValues values, Set<String> providerGroups, boolean useReasoner, boolean isPrivileged) throws InsufficientPermissionsException, Exception {
+        // only model gets can be answered with a cached rendering
+        boolean onlyModelGet = true;
         for (M3Request request : requests) {
             requireNotNull(request, "request");
             requireNotNull(request.entity, "entity");
             requireNotNull(request.operation, "operation");
             final Entity entity = request.entity;
             final Operation operation = request.operation;
-            checkPermissions(entity, operation, isPrivileged);
-
-            // individual
-            if (Entity.individual == entity) {
-                String error = handleRequestForIndividual(request, operation, userId, providerGroups, token, values);
-                if (error != null) {
-                    return error(response, error, null);
+            final long start = System.nanoTime();
+            try {
+                checkPermissions(entity, operation, isPrivileged);
+                onlyModelGet &= Entity.model == entity && Operation.get == operation;
+
+                // individual
+                if (Entity.individual == entity) {
+                    String error = handleRequestForIndividual(request, operation, userId, providerGroups, token, values);
+                    if (error != null) {
+                        return error(response, error, null);
+                    }
                 }
-            }
-            // edge
-            else if (Entity.edge == entity) {
-                String error = handleRequestForEdge(request, operation, userId, providerGroups, token, values);
-                if (error != null) {
-                    return error(response, error, null);
+                // edge
+                else if (Entity.edge == entity) {
+                    String error = handleRequestForEdge(request, operation, userId, providerGroups, token, values);
+                    if (error != null) {
+                        return error(response, error, null);
+                    }
                 }
-            }
-            //model
-            else if (Entity.model == entity) {
-                String error = handleRequestForModel(request, response, operation, userId, providerGroups, token, values);
-                if (error != null) {
-                    return error(response, error, null);
+                //model
+                else if (Entity.model == entity) {
+                    String error = handleRequestForModel(request, response, operation, userId, providerGroups, token, values);
+                    if (error != null) {
+                        return error(response, error, null);
+                    }
                 }
-            }
-            // meta (e.g. relations, model ids, evidence)
-            else if (Entity.meta == entity) {
-                if (Operation.get == operation) {
-                    if (values.nonMeta) {
-                        // can only be used with other "meta" operations in batch mode, otherwise it would lead to conflicts in the returned signal
-                        return error(response, "Get meta entity can only be combined with other meta operations.", null);
+                // meta (e.g. relations, model ids, evidence)
+                else if (Entity.meta == entity) {
+                    if (Operation.get == operation) {
+                        if (values.nonMeta) {
+                            // can only be used with other "meta" operations in batch mode, otherwise it would lead to conflicts in the returned signal
+                            return error(response, "Get meta entity can only be combined with other meta operations.", null);
+                        }
+                        getMeta(response, userId, providerGroups);
+                    } else if (Operation.exportAll == operation) {
+                        exportAllModels();
+                        response.messageType = "success";
+                        response.signal = "meta";
+                        response.message = "Dumped all models to folder";
+                        return response;
+                    } else if (Operation.sparql == operation) {
+                        handleSPARQLRequest(request, response);
+                    } else {
+                        return error(response, "Unknown operation: " + operation, null);
                     }
-                    getMeta(response, userId, providerGroups);
-                } else if (Operation.exportAll == operation) {
-                    exportAllModels();
-                    response.messageType = "success";
-                    response.signal = "meta";
-                    response.message = "Dumped all models to folder";
-                    return response;
-                } else if (Operation.sparql == operation) {
-                    handleSPARQLRequest(request, response);
                 } else {
-                    return error(response, "Unknown operation: " + operation, null);
+                    return error(response, "Unknown entity: " + entity, null);
                 }
-            } else {
-                return error(response, "Unknown entity: " + entity, null);
+            } finally {
+                metrics.histogram("minerva_m3_request_seconds", "Time per request of a batch, by entity and operation.", "entity", entity.name(), "operation", operation.name()).observeSince(start);
             }
         }
         if (M3BatchResponse.SIGNAL_META.equals(response.signal)) {
@@ -194,6 +304,7 @@ public class JsonOrJsonpBatchHandler extends OperationsImpl implements M3BatchHa
         if (values.model == null) {
             return error(response, "Empty batch calls are not supported, at least one request is required.", null);
         }
+        final long version = values.model.getVersion();
         // update reasoner
         // report state
         InferenceProvider inferenceProvider = null;
@@ -203,20 +314,40 @@ public class JsonOrJsonpBatchHandler extends OperationsImpl implements M3BatchHa
             inferenceProvider = inferenceProviderCreator.create(values.model);
             isConsistent = inferenceProvider.isConsistent();
             response.setReasoned(true);
-            values.renderBulk = true; // to ensure that all individuals are in the response
+            if (values.renderBulk == false) {
+                // only the individuals with changed inferences need to be added to the response
+                Set<OWLNamedIndividual> changed = inferenceHistory.getChangedIndividuals(values.model, values.modelVersion, inferenceProvider, curieHandler);
+                metrics.cacheLookup("inference-history", changed != null);
+                if (changed != null) {
+                    values.relevantIndividuals.addAll(changed);
+                } else {
+                    values.renderBulk = true; // to ensure that all individuals are in the response
+                }
+            }
+            inferenceHistory.put(values.model, version, inferenceProvider);
             org.geneontology.minerva.validation.ValidationResultSet validations = inferenceProvider.getValidation_results();
             isConformant = validations.allConformant();
         }
 
         // create response.data
+        final long renderStart = System.nanoTime();
         response.data = new ResponseData();
         //final MolecularModelJsonRenderer renderer = createModelRenderer(values.model, externalLookupService, inferenceProvider, curieHandler);
         //working towards zero use of external look up service.. which is both slow and confusing.
         final MolecularModelJsonRenderer renderer = createModelRenderer(values.model, m3.getGolego_repo(), inferenceProvider, curieHandler, m3.getTboxLabelIndex());
         if (values.renderBulk) {
             // render complete model
-            JsonModel jsonModel = renderer.renderModel();
+            final boolean reasoned = inferenceProvider != null;
+            JsonModel jsonModel = renderCache.get(values.model, version, reasoned);
+            metrics.cacheLookup("render", jsonModel != null);
+            if (jsonModel == null) {
+                jsonModel = renderer.renderModel();
+                renderCache.put(values.model, version, reasoned, jsonModel);
+            }
             initResponseData(jsonModel, response.data);
+            if (onlyModelGet) {
+                response.etag = ModelRenderCache.getETag(values.model, version, reasoned);
+            }
             response.signal = M3BatchResponse.SIGNAL_REBUILD;
         } else {
             response.signal = M3BatchResponse.SIGNAL_MERGE;
@@ -230,6 +361,7 @@ public class JsonOrJsonpBatchHandler extends OperationsImpl implements M3BatchHa
             response.data.annotations = MolecularModelJsonRenderer.renderModelAnnotations(values.model.getAboxOntology(), curieHandler);
             response.data.modelId = curieHandler.getCuri(values.model.getModelId());
         }
+        metrics.stage("render").observeSince(renderStart);
         // add other infos to data
         if (!isConsistent) {
             response.data.inconsistentFlag = Boolean.TRUE;
@@ -247,6 +379,143 @@ public class JsonOrJsonpBatchHandler extends OperationsImpl implements M3BatchHa
         return response;
     }
 
+    @Override
+    public M3MultiBatchResponse m3MultiBatch(String uid, Set<String> providerGroups, String intention, String packetId, M3Request[] requests, boolean useReasoner, boolean isPrivileged) {
+        M3MultiBatchResponse response = new M3MultiBatchResponse(uid, providerGroups, intention, checkPacketId(packetId));
+        if (requests == null) {
+            return error(response, "The batch contains no requests: null value for request array", null);
+        }
+        Map<String, List<M3Request>> groups = groupByModel(requests);
+        if (groups == null) {
+            return error(response, "Each request of a multi model batch requires a model id.", null);
+        }
+        Map<String, Future<M3BatchResponse>> futures = new LinkedHashMap<>();
+        for (Map.Entry<String, List<M3Request>> group : groups.entrySet()) {
+            futures.put(group.getKey(), multiBatchExecutor.submit(createGroupTask(group.getValue(), uid, providerGroups, intention, response.packetId, useReasoner, isPrivileged)));
+        }
+        response.data = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<M3BatchResponse>> entry : futures.entrySet()) {
+            response.data.put(entry.getKey(), getGroupResponse(entry.getValue(), uid, providerGroups, intention, response.packetId));
+        }
+        response.messageType = M3BatchResponse.MESSAGE_TYPE_SUCCESS;
+        response.message = "success";
+        return response;
+    }
+
+    private Response m3MultiBatch(String uid, Set<String> providerGroups, String intention, String packetId, String requestString, String useReasonerString, boolean stream, boolean isPrivileged) {
+        final boolean useReasoner = isUseReasoner(useReasonerString);
+        final M3MultiBatchResponse response = new M3MultiBatchResponse(uid, providerGroups, intention, checkPacketId(packetId));
+        requestString = StringUtils.trimToNull(requestString);
+        if (requestString == null) {
+            return Response.ok(error(response, "The batch contains no requests: null value for request", null), MediaType.APPLICATION_JSON_TYPE).build();
+        }
+        final M3Request[] requests;
+        try {
+            requests = MolecularModelJsonRenderer.parseFromJson(requestString, requestType);
+        } catch (Exception e) {
+            return Response.ok(error(response, "Could not successfully handle batch request.", e), MediaType.APPLICATION_JSON_TYPE).build();
+        }
+        // multi model batches are bulk traffic, even if they contain edits
+        final AdmissionControl.Permit permit = admission.acquire(EndpointClass.BULK, 1);
+        if (stream == false) {
+            try {
+                return Response.ok(m3MultiBatch(uid, providerGroups, intention, response.packetId, requests, useReasoner, isPrivileged), MediaType.APPLICATION_JSON_TYPE).build();
+            } finally {
+                permit.close();
+            }
+        }
+        final Map<String, List<M3Request>> groups = requests == null ? null : groupByModel(requests);
+        if (groups == null) {
+            permit.close();
+            return Response.ok(error(response, "Each request of a multi model batch requires a model id.", null), MediaType.APPLICATION_JSON_TYPE).build();
+        }
+        // one line of JSON for each model, in the order the models are finished
+        StreamingOutput output = new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream outputStream) throws IOException, WebApplicationException {
+                try {
+                    writeLines(outputStream);
+                } finally {
+                    permit.close();
+                }
+            }
+
+            private void writeLines(OutputStream outputStream) throws IOException {
+                CompletionService<M3BatchResponse> completion = new ExecutorCompletionService<>(multiBatchExecutor);
+                Map<Future<M3BatchResponse>, String> modelIds = new HashMap<>();
+                for (Map.Entry<String, List<M3Request>> group : groups.entrySet()) {
+                    Future<M3BatchResponse> future = completion.submit(createGroupTask(group.getValue(), uid, providerGroups, intention, response.packetId, useReasoner, isPrivileged));
+                    modelIds.put(future, group.getKey());
+                }
+                Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+                for (int i = 0; i < groups.size(); i++) {
+                    Future<M3BatchResponse> future;
+                    try {
+                        future = completion.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for the model responses", e);
+                    }
+                    M3MultiBatchResponse line = new M3MultiBatchResponse(uid, providerGroups, intention, response.packetId);
+                    line.data = Collections.singletonMap(modelIds.get(future), getGroupResponse(future, uid, providerGroups, intention, response.packetId));
+                    line.messageType = M3BatchResponse.MESSAGE_TYPE_SUCCESS;
+                    line.message = "success";
+                    gson.toJson(line, writer);
+                    writer.write('\n');
+                    writer.flush();
+                }
+            }
+        };
+        return Response.ok(output, "application/x-ndjson").build();
+    }
+
+    /**
+     * Group the requests by model, keeping the order of the requests for each
+     * model. The key is the model id of the first request for the model.
+     *
+     * @param requests
+     * @return groups or null, if a request has no model id
+     */
+    private Map<String, List<M3Request>> groupByModel(M3Request[] requests) {
+        Map<String, String> keys = new HashMap<>();
+        Map<String, List<M3Request>> groups = new LinkedHashMap<>();
+        for (M3Request request : requests) {
+            if (request == null || request.arguments == null || request.arguments.modelId == null) {
+                return null;
+            }
+            String modelId = request.arguments.modelId;
+            // the same model may be referenced as CURIE and IRI
+            String key = keys.computeIfAbsent(getModelIRI(modelId), k -> modelId);
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(request);
+        }
+        return groups;
+    }
+
+    private String getModelIRI(String modelId) {
+        try {
+            return curieHandler.getIRI(modelId).toString();
+        } catch (UnknownIdentifierException e) {
+            return modelId;
+        }
+    }
+
+    private Callable<M3BatchResponse> createGroupTask(List<M3Request> requests, String uid, Set<String> providerGroups, String intention, String packetId, boolean useReasoner, boolean isPrivileged) {
+        final M3Request[] group = requests.toArray(new M3Request[requests.size()]);
+        return () -> m3Batch(uid, providerGroups, intention, packetId, group, useReasoner, isPrivileged);
+    }
+
+    private M3BatchResponse getGroupResponse(Future<M3BatchResponse> future, String uid, Set<String> providerGroups, String intention, String packetId) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return error(new M3BatchResponse(uid, providerGroups, intention, packetId), "Interrupted while processing the batch request.", e);
+        } catch (ExecutionException e) {
+            return error(new M3BatchResponse(uid, providerGroups, intention, packetId), "Could not successfully complete batch request.", e.getCause());
+        }
+    }
+
     public static void initResponseData(JsonModel jsonModel, ResponseData data) {
         data.modelId = jsonModel.modelId;
         data.individuals = jsonModel.individuals;
@@ -257,7 +526,7 @@ public class JsonOrJsonpBatchHandler extends OperationsImpl implements M3BatchHa
     /*
      * commentary is now to be a string, not an unknown multi-leveled object.
      */
-    private M3BatchResponse error(M3BatchResponse state, String msg, Throwable e) {
+    private <T extends MinervaResponse<?>> T error(T state, String msg, Throwable e) {
         state.messageType = "error";
         state.message = msg;
         if (e != null) {
@@ -6,6 +6,7 @@ import org.geneontology.minerva.json.*;
 import org.geneontology.minerva.validation.ValidationResultSet;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Response;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -167,6 +168,28 @@ public interface M3BatchHandler {
             super(uid, providerGroups, intention, packetId);
         }
 
+        /**
+         * ETag of the model state in a read-only response, not part of the json.
+         */
+        public transient String etag;
+
+    }
+
+    /**
+     * Response for a batch spanning several models, the data contains the
+     * response for each model, using the model id of the requests as key.
+     */
+    public static class M3MultiBatchResponse extends MinervaResponse<Map<String, M3BatchResponse>> {
+
+        /**
+         * @param uid
+         * @param intention
+         * @param packetId
+         */
+        public M3MultiBatchResponse(String uid, Set<String> providerGroups, String intention, String packetId) {
+            super(uid, providerGroups, intention, packetId);
+        }
+
     }
 
 
@@ -183,6 +206,21 @@ public interface M3BatchHandler {
      */
     public M3BatchResponse m3Batch(String uid, Set<String> providerGroups, String intention, String packetId, M3Request[] requests, boolean useReasoner, boolean isPrivileged);
 
+    /**
+     * Process the requests for several models. The requests are grouped by
+     * their model id and each group is processed like a batch request. The
+     * groups run in parallel, the requests of a group in the given order.
+     *
+     * @param uid          user id, JSONP relevant
+     * @param intention    JSONP relevant
+     * @param packetId     response relevant, may be null
+     * @param requests     requests, each with a model id
+     * @param useReasoner
+     * @param isPrivileged true, if the access is privileged
+     * @return response object, never null
+     */
+    public M3MultiBatchResponse m3MultiBatch(String uid, Set<String> providerGroups, String intention, String packetId, M3Request[] requests, boolean useReasoner, boolean isPrivileged);
+
     /**
      * Jersey REST method for POST with three form parameters.
      *
@@ -262,4 +300,48 @@ public interface M3BatchHandler {
             @QueryParam("requests") String requests,
             @QueryParam("use-reasoner") String useReasoner);
 
+    /**
+     * Jersey REST method for POST of requests for several models.
+     *
+     * @param intention   JSONP relevant
+     * @param packetId
+     * @param requests    JSON string of the requests
+     * @param useReasoner
+     * @param stream      if present, write one line of JSON for each model as soon as it is finished
+     * @return response convertible to JSON
+     */
+    @Path("m3MultiBatch")
+    @POST
+    @Consumes("application/x-www-form-urlencoded")
+    public Response m3MultiBatchPost(
+            @FormParam("intention") String intention,
+            @FormParam("packet-id") String packetId,
+            @FormParam("requests") String requests,
+            @FormParam("use-reasoner") String useReasoner,
+            @FormParam("stream") String stream);
+
+    /**
+     * Jersey REST method for POST of requests for several models with privileged rights.
+     *
+     * @param uid            user id
+     * @param providerGroups user groups
+     * @param intention
+     * @param packetId
+     * @param requests       JSON string of the requests
+     * @param useReasoner
+     * @param stream         if present, write one line of JSON for each model as soon as it is finished
+     * @return response convertible to JSON
+     */
+    @Path("m3MultiBatchPrivileged")
+    @POST
+    @Consumes("application/x-www-form-urlencoded")
+    public Response m3MultiBatchPostPrivileged(
+            @FormParam("uid") String uid,
+            @FormParam("provided-by") Set<String> providerGroups,
+            @FormParam("intention") String intention,
+            @FormParam("packet-id") String packetId,
+            @FormParam("requests") String requests,
+            @FormParam("use-reasoner") String useReasoner,
+            @FormParam("stream") String stream);
+
 }
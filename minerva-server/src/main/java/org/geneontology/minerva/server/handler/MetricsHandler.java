@@ -0,0 +1,32 @@
+package org.geneontology.minerva.server.handler;
+
+import org.geneontology.minerva.util.Metrics;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Respond with the latency histograms, query times and cache lookups in the
+ * Prometheus text exposition format.
+ */
+@Path("/metrics")
+public class MetricsHandler {
+
+    private final Metrics metrics;
+
+    public MetricsHandler(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @GET
+    @Produces("text/plain; version=0.0.4; charset=utf-8")
+    public String get() throws IOException {
+        StringWriter writer = new StringWriter();
+        metrics.write(writer);
+        return writer.toString();
+    }
+
+}
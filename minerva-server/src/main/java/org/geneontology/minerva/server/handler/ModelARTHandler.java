@@ -9,18 +9,20 @@ import org.geneontology.minerva.ModelContainer;
 import org.geneontology.minerva.curie.CurieHandler;
 import org.geneontology.minerva.json.InferenceProvider;
 import org.geneontology.minerva.json.JsonModel;
+import org.geneontology.minerva.json.JsonOwlFact;
+import org.geneontology.minerva.json.JsonOwlIndividual;
 import org.geneontology.minerva.json.MolecularModelJsonRenderer;
 import org.geneontology.minerva.server.inferences.InferenceProviderCreator;
 import org.semanticweb.owlapi.apibinding.OWLManager;
-import org.semanticweb.owlapi.model.IRI;
-import org.semanticweb.owlapi.model.OWLOntology;
-import org.semanticweb.owlapi.model.OWLOntologyManager;
+import org.semanticweb.owlapi.model.*;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 import static org.geneontology.minerva.server.handler.OperationsTools.createModelRenderer;
@@ -54,6 +56,8 @@ public class ModelARTHandler {
         private JsonModel storedModel;
         private JsonModel activeModel;
         private JsonModel diffModel;
+        private JsonModel removedModel;
+        private Boolean modified;
 
         public String getId() {
             return id;
@@ -78,54 +82,127 @@ public class ModelARTHandler {
         public JsonModel getActiveModel() {
             return this.activeModel;
         }
+
+        /**
+         * @return added or changed individuals and facts of the active model
+         */
+        public JsonModel getDiffModel() {
+            return diffModel;
+        }
+
+        /**
+         * @return removed or changed individuals and facts of the stored model
+         */
+        public JsonModel getRemovedModel() {
+            return removedModel;
+        }
+
+        /**
+         * @return true, if the active model differs from the stored model
+         */
+        public Boolean getModified() {
+            return modified;
+        }
     }
 
 
+    /**
+     * @param id     model ids
+     * @param diff   if present, only render the differences between the stored and the active model
+     * @param reason if present, add the inferred types to the active model
+     * @return result
+     * @throws Exception
+     */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     public ModelARTResult storedGet(
-            @QueryParam("id") Set<String> id
+            @QueryParam("id") Set<String> id,
+            @QueryParam("diff") String diff,
+            @QueryParam("reason") String reason
     ) throws Exception {
         ModelARTResult result = new ModelARTResult();
-        result = stored(id);
+        result = stored(id, diff != null, reason != null);
         return result;
     }
 
     public ModelARTResult stored(Set<String> ids) throws Exception {
+        return stored(ids, false, false);
+    }
+
+    public ModelARTResult stored(Set<String> ids, boolean diffOnly, boolean reason) throws Exception {
         ModelARTResult result = new ModelARTResult();
 
         for (String mid : ids) {
-            addToModel(mid, result);
+            addToModel(mid, result, diffOnly, reason);
         }
 
         return result;
     }
 
-    private void addToModel(String modelId, ModelARTResult result) throws Exception {
+    private void addToModel(String modelId, ModelARTResult result, boolean diffOnly, boolean reason) throws Exception {
 
         IRI modelIri = curieHandler.getIRI(modelId);
+        result.id = modelId;
+        if (diffOnly && !m3.isModelModified(modelIri)) {
+            // nothing changed since the last save, no need to read the stored model
+            result.modified = false;
+            result.diffModel = createJsonModel(modelIri);
+            result.removedModel = createJsonModel(modelIri);
+            return;
+        }
         OWLOntologyManager manager = OWLManager.createOWLOntologyManager();
         OWLOntology currentOntology = m3.getModelAbox(modelIri);
         OWLOntology storedOntology = m3.loadModelABox(modelIri, manager);
 
-        //OWLOntology stored_ontology = man1.copyOntology(storedOntology, OntologyCopy.DEEP);
         ModelContainer storedMC = new ModelContainer(modelIri, null, storedOntology);
         final MolecularModelJsonRenderer storedRenderer = createModelRenderer(storedMC, go_lego, null, curieHandler, m3.getTboxLabelIndex());
-        JsonModel jsonStoredModel = storedRenderer.renderModel();
 
         ModelContainer activeMC = new ModelContainer(modelIri, null, currentOntology);
-        InferenceProvider inferenceProvider = ipc.create(activeMC);
+        InferenceProvider inferenceProvider = null;
+        if (reason && ipc != null) {
+            inferenceProvider = ipc.create(activeMC);
+        }
         final MolecularModelJsonRenderer renderer = createModelRenderer(activeMC, go_lego, inferenceProvider, curieHandler, m3.getTboxLabelIndex());
-        JsonModel jsonActiveModel = renderer.renderModel();
 
-        result.storedModel = jsonStoredModel;
-        result.activeModel = jsonActiveModel;
-        result.diffModel = getDiff(jsonStoredModel, jsonActiveModel);
+        if (!diffOnly) {
+            result.storedModel = storedRenderer.renderModel();
+            result.activeModel = renderer.renderModel();
+        }
+        ModelDiff diff = ModelDiff.compute(storedOntology, currentOntology);
+        result.modified = !diff.isEmpty();
+        result.diffModel = renderChanges(modelIri, diff.added, currentOntology, renderer, diff.annotationsChanged);
+        result.removedModel = renderChanges(modelIri, diff.removed, storedOntology, storedRenderer, diff.annotationsChanged);
+    }
 
+    private JsonModel createJsonModel(IRI modelIri) {
+        JsonModel json = new JsonModel();
+        json.modelId = curieHandler.getCuri(modelIri);
+        json.individuals = new JsonOwlIndividual[0];
+        json.facts = new JsonOwlFact[0];
+        return json;
     }
 
-    private JsonModel getDiff(JsonModel storedOntology, JsonModel activeOntology) {
-        return new JsonModel();
+    /**
+     * Render only the individuals and facts touched by the changed axioms.
+     */
+    private JsonModel renderChanges(IRI modelIri, Set<OWLAxiom> changed, OWLOntology ont, MolecularModelJsonRenderer renderer, boolean annotationsChanged) {
+        JsonModel json = createJsonModel(modelIri);
+        Set<OWLNamedIndividual> individuals = ModelDiff.getIndividuals(changed, ont);
+        if (!individuals.isEmpty()) {
+            json.individuals = renderer.renderIndividuals(individuals).getLeft();
+        }
+        List<JsonOwlFact> facts = new ArrayList<JsonOwlFact>();
+        for (OWLObjectPropertyAssertionAxiom opa : ModelDiff.getFacts(changed)) {
+            JsonOwlFact fact = renderer.renderObject(opa, m3.getTboxLabelIndex());
+            if (fact != null) {
+                facts.add(fact);
+            }
+        }
+        json.facts = facts.toArray(new JsonOwlFact[facts.size()]);
+        if (annotationsChanged) {
+            json.annotations = MolecularModelJsonRenderer.renderModelAnnotations(ont, curieHandler);
+        }
+        return json;
     }
 
 }
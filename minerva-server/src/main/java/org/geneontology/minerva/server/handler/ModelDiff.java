@@ -0,0 +1,82 @@
+package org.geneontology.minerva.server.handler;
+
+import org.semanticweb.owlapi.model.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Axiom level difference between the stored and the active ABox of a model.
+ * Axioms with changed annotations, e.g. evidence of a fact, are both removed
+ * and added.
+ */
+class ModelDiff {
+
+    final Set<OWLAxiom> added = new HashSet<>();
+    final Set<OWLAxiom> removed = new HashSet<>();
+    final boolean annotationsChanged;
+
+    private ModelDiff(boolean annotationsChanged) {
+        this.annotationsChanged = annotationsChanged;
+    }
+
+    /**
+     * @param stored
+     * @param active
+     * @return difference, never null
+     */
+    static ModelDiff compute(OWLOntology stored, OWLOntology active) {
+        ModelDiff diff = new ModelDiff(!stored.getAnnotations().equals(active.getAnnotations()));
+        for (OWLAxiom ax : active.getAxioms()) {
+            if (!stored.containsAxiom(ax)) {
+                diff.added.add(ax);
+            }
+        }
+        for (OWLAxiom ax : stored.getAxioms()) {
+            if (!active.containsAxiom(ax)) {
+                diff.removed.add(ax);
+            }
+        }
+        return diff;
+    }
+
+    boolean isEmpty() {
+        return !annotationsChanged && added.isEmpty() && removed.isEmpty();
+    }
+
+    /**
+     * @param axioms added or removed axioms
+     * @param ont    ontology containing the individuals, used to resolve the subjects of annotation assertions
+     * @return individuals touched by the axioms
+     */
+    static Set<OWLNamedIndividual> getIndividuals(Set<OWLAxiom> axioms, OWLOntology ont) {
+        Set<OWLNamedIndividual> individuals = new HashSet<>();
+        OWLDataFactory f = ont.getOWLOntologyManager().getOWLDataFactory();
+        for (OWLAxiom ax : axioms) {
+            individuals.addAll(ax.getIndividualsInSignature());
+            if (ax instanceof OWLAnnotationAssertionAxiom) {
+                OWLAnnotationSubject subject = ((OWLAnnotationAssertionAxiom) ax).getSubject();
+                if (subject instanceof IRI && ont.containsIndividualInSignature((IRI) subject)) {
+                    individuals.add(f.getOWLNamedIndividual((IRI) subject));
+                }
+            }
+        }
+        // individuals only removed from the other side are not part of this ontology
+        individuals.retainAll(ont.getIndividualsInSignature());
+        return individuals;
+    }
+
+    /**
+     * @param axioms added or removed axioms
+     * @return the facts among the axioms
+     */
+    static Set<OWLObjectPropertyAssertionAxiom> getFacts(Set<OWLAxiom> axioms) {
+        Set<OWLObjectPropertyAssertionAxiom> facts = new HashSet<>();
+        for (OWLAxiom ax : axioms) {
+            if (ax instanceof OWLObjectPropertyAssertionAxiom) {
+                facts.add((OWLObjectPropertyAssertionAxiom) ax);
+            }
+        }
+        return facts;
+    }
+}
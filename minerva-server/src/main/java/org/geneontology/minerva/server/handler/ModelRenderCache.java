@@ -0,0 +1,80 @@
+package org.geneontology.minerva.server.handler;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.geneontology.minerva.ModelContainer;
+import org.geneontology.minerva.json.JsonModel;
+
+/**
+ * Cache for the complete json rendering of a model, valid as long as the
+ * {@link ModelContainer#getVersion()} does not change. The renderings with
+ * and without reasoner are kept separately.
+ * <p>
+ * The cached {@link JsonModel} is shared by all responses using it and must
+ * not be modified.
+ */
+public class ModelRenderCache {
+
+    // the versions restart with each server, the ETag must not match a rendering of an earlier run
+    private static final String INSTANCE = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+    private static final class Rendering {
+        final long version;
+        final JsonModel json;
+
+        Rendering(long version, JsonModel json) {
+            this.version = version;
+            this.json = json;
+        }
+    }
+
+    // weak keys: entries are dropped, once the model is unloaded
+    private final Cache<ModelContainer, Rendering> plain;
+    private final Cache<ModelContainer, Rendering> reasoned;
+
+    public ModelRenderCache(int size) {
+        plain = CacheBuilder.newBuilder().weakKeys().maximumSize(size).build();
+        reasoned = CacheBuilder.newBuilder().weakKeys().maximumSize(size).build();
+    }
+
+    /**
+     * @param model
+     * @param version  the model version before rendering
+     * @param useReasoner
+     * @return the rendering of the model version or null
+     */
+    public JsonModel get(ModelContainer model, long version, boolean useReasoner) {
+        Rendering rendering = cache(useReasoner).getIfPresent(model);
+        if (rendering != null && rendering.version == version) {
+            return rendering.json;
+        }
+        return null;
+    }
+
+    /**
+     * @param model
+     * @param version     the model version read before rendering
+     * @param useReasoner
+     * @param json
+     */
+    public void put(ModelContainer model, long version, boolean useReasoner, JsonModel json) {
+        cache(useReasoner).put(model, new Rendering(version, json));
+    }
+
+    private Cache<ModelContainer, Rendering> cache(boolean useReasoner) {
+        return useReasoner ? reasoned : plain;
+    }
+
+    /**
+     * Weak ETag for the response to a read-only request of the model. The
+     * response also contains the modified flag, which changes without a new version when saving.
+     *
+     * @param model
+     * @param version
+     * @param useReasoner
+     * @return etag
+     */
+    public static String getETag(ModelContainer model, long version, boolean useReasoner) {
+        return "W/\"" + INSTANCE + "-" + version + "-" + (model.isModified() ? "m" : "s") + (useReasoner ? "r" : "") + "\"";
+    }
+}
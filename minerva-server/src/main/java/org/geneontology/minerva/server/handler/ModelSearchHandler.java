@@ -1,11 +1,17 @@
 package org.geneontology.minerva.server.handler;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.gson.annotations.SerializedName;
 import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
 import org.geneontology.minerva.BlazegraphMolecularModelManager;
 import org.geneontology.minerva.BlazegraphOntologyManager;
 import org.geneontology.minerva.MolecularModelManager.UnknownIdentifierException;
 import org.geneontology.minerva.curie.CurieHandler;
+import org.geneontology.minerva.server.AdmissionControl;
+import org.geneontology.minerva.server.AdmissionControl.EndpointClass;
+import org.geneontology.minerva.util.Metrics;
 import org.openrdf.query.*;
 import org.openrdf.repository.RepositoryException;
 import org.semanticweb.owlapi.model.IRI;
@@ -15,6 +21,8 @@ import javax.ws.rs.core.MediaType;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
 
 /**
  * Respond to queries for models in the running blazegraph instance backing minerva
@@ -23,8 +31,16 @@ import java.util.*;
 @Path("/search/models")
 public class ModelSearchHandler {
 
+    private static final Logger LOGGER = Logger.getLogger(ModelSearchHandler.class);
+
     private final BlazegraphMolecularModelManager<?> m3;
     private final BlazegraphOntologyManager go_lego;
+    private final ModelSearchIndex index;
+    private final Cache<String, CachedCount> counts = CacheBuilder.newBuilder().maximumSize(1000).build();
+    private final AtomicLong saves = new AtomicLong();
+    // estimated cost of an expanded term, whose subclasses are not cached yet
+    static final int EXPANDED_TERM_COST = 10;
+    private volatile AdmissionControl admission = AdmissionControl.unlimited();
 
     /**
      *
@@ -32,6 +48,78 @@ public class ModelSearchHandler {
     public ModelSearchHandler(BlazegraphMolecularModelManager<?> m3) {
         this.m3 = m3;
         this.go_lego = m3.getGolego_repo();
+        this.index = ModelSearchIndex.create(m3);
+        // any save may change the counts
+        m3.addStoredModelListener(modelId -> saves.incrementAndGet());
+    }
+
+    /**
+     * Limit the concurrent searches by their cost, by default there is no limit.
+     *
+     * @param admission
+     */
+    public void setAdmissionControl(AdmissionControl admission) {
+        this.admission = admission;
+    }
+
+    /**
+     * @return true, if searches without a title use the index
+     */
+    boolean isIndexReady() {
+        return index.isReady();
+    }
+
+    /**
+     * Estimate the cost of a search by the number of terms to match. With
+     * expand, a term counts with all its subclasses, if they are already
+     * cached. Otherwise it counts as {@link #EXPANDED_TERM_COST}, the
+     * estimate runs before the admission and must not query the ontology.
+     *
+     * @param gene_product_ids
+     * @param terms
+     * @param expand
+     * @return cost, at least one
+     */
+    int estimateCost(Set<String> gene_product_ids, Set<String> terms, String expand) {
+        int cost = 1;
+        if (gene_product_ids != null) {
+            cost += gene_product_ids.size();
+        }
+        if (terms == null) {
+            return cost;
+        }
+        CurieHandler curie_handler = m3.getCuriHandler();
+        for (String term : terms) {
+            if (expand == null) {
+                cost++;
+                continue;
+            }
+            Set<String> subClasses = null;
+            try {
+                IRI iri = term.startsWith("http") ? IRI.create(term) : curie_handler.getIRI(term);
+                subClasses = iri == null ? null : index.getCachedSubClasses(iri.toString());
+            } catch (UnknownIdentifierException e) {
+                // the search itself will report the problem
+            }
+            cost += subClasses == null ? EXPANDED_TERM_COST : subClasses.size();
+        }
+        return cost;
+    }
+
+    /**
+     * Total number of models for a query, valid as long as no model was
+     * saved and the index did not change since it was counted.
+     */
+    private static class CachedCount {
+        final long saves;
+        final long indexVersion;
+        final int n;
+
+        CachedCount(long saves, long indexVersion, int n) {
+            this.saves = saves;
+            this.indexVersion = indexVersion;
+            this.n = n;
+        }
     }
 
     public class ModelSearchResult {
@@ -40,6 +128,7 @@ public class ModelSearchHandler {
         private String message;
         private String error;
         private String sparql;
+        private String next;
 
         public Integer getN() {
             return n;
@@ -81,6 +170,17 @@ public class ModelSearchHandler {
             this.sparql = sparql;
         }
 
+        /**
+         * @return cursor for the next page, null if there are no more models
+         */
+        public String getNext() {
+            return next;
+        }
+
+        public void setNext(String next) {
+            this.next = next;
+        }
+
 
     }
 
@@ -197,10 +297,13 @@ public class ModelSearchHandler {
             @QueryParam("limit") int limit,
             @QueryParam("count") String count,
             @QueryParam("debug") String debug,
-            @QueryParam("id") Set<String> id
+            @QueryParam("id") Set<String> id,
+            @QueryParam("cursor") String cursor
     ) {
         ModelSearchResult result = new ModelSearchResult();
-        result = search(taxa, gene_product_class_uris, terms, expand, pmids, title, state, contributor, group, exactdate, date, datend, offset, limit, count, debug, id);
+        try (AdmissionControl.Permit permit = admission.acquire(EndpointClass.SEARCH, estimateCost(gene_product_class_uris, terms, expand))) {
+            result = search(taxa, gene_product_class_uris, terms, expand, pmids, title, state, contributor, group, exactdate, date, datend, offset, limit, count, debug, id, cursor);
+        }
         return result;
     }
 
@@ -223,7 +326,31 @@ public class ModelSearchHandler {
                                     String title_search, Set<String> state_search, Set<String> contributor_search, Set<String> group_search,
                                     String exactdate, String date_search, String datend,
                                     int offset, int limit, String count, String debug, Set<String> id) {
+        return search(taxa, gene_product_ids, terms, expand, pmids, title_search, state_search, contributor_search, group_search, exactdate, date_search, datend, offset, limit, count, debug, id, null);
+    }
+
+    /**
+     * Search the stored models.
+     * <p>
+     * Pages are either selected with offset and limit, or with the cursor
+     * from {@link ModelSearchResult#getNext()} of the previous page. The
+     * cursor stays valid, when models are added or removed.
+     */
+    public ModelSearchResult search(Set<String> taxa,
+                                    Set<String> gene_product_ids, Set<String> terms, String expand, Set<String> pmids,
+                                    String title_search, Set<String> state_search, Set<String> contributor_search, Set<String> group_search,
+                                    String exactdate, String date_search, String datend,
+                                    int offset, int limit, String count, String debug, Set<String> id, String cursor) {
         ModelSearchResult r = new ModelSearchResult();
+        String[] after = null;
+        if (cursor != null && count == null) {
+            after = decodeCursor(cursor);
+            if (after == null) {
+                r.message = "Invalid cursor";
+                r.error = "Could not read the cursor: " + cursor;
+                return r;
+            }
+        }
         Set<String> go_type_ids = new HashSet<String>();
         Set<String> gene_type_ids = new HashSet<String>();
         if (gene_product_ids != null) {
@@ -267,6 +394,78 @@ public class ModelSearchHandler {
                 }
             }
         }
+        final long saves_before = saves.get();
+        final long index_version_before = index.getVersion();
+        String count_signature = null;
+        if (count != null) {
+            count_signature = getCountSignature(taxa, gene_type_uris, go_type_uris, expand, pmids, title_search, state_search, contributor_search, group_search, exactdate, date_search, datend, id);
+            // with debug, the SPARQL query always runs
+            CachedCount cached = debug == null ? counts.getIfPresent(count_signature) : null;
+            boolean hit = cached != null && cached.saves == saves_before && cached.indexVersion == index_version_before;
+            Metrics.getDefault().cacheLookup("search-count", hit);
+            if (hit) {
+                r.n = cached.n;
+                r.sparql = "add 'debug' parameter to see sparql request";
+                return r;
+            }
+        }
+        // the index supports all constraints, except the full text search on the title
+        if (index.isReady() && title_search == null && debug == null) {
+            ModelSearchIndex.Query query = new ModelSearchIndex.Query();
+            if (taxa != null) {
+                query.taxa = new HashSet<String>();
+                for (String taxon : taxa) {
+                    query.taxa.add(normalizeTaxon(taxon));
+                }
+            }
+            query.geneProducts = gene_type_uris;
+            query.terms = go_type_uris;
+            query.expand = expand != null;
+            if (pmids != null) {
+                query.pmids = pmids;
+            }
+            if (state_search != null) {
+                query.states = state_search;
+            }
+            if (contributor_search != null) {
+                query.contributors = contributor_search;
+            }
+            if (group_search != null) {
+                query.groups = group_search;
+            }
+            query.exactDate = exactdate;
+            query.date = date_search;
+            query.dateEnd = datend;
+            if (id != null) {
+                query.ids = new HashSet<String>();
+                for (String mid : id) {
+                    query.ids.add(normalizeModelId(mid));
+                }
+            }
+            query.offset = offset;
+            query.limit = limit;
+            if (after != null) {
+                query.afterDate = after[0];
+                query.afterId = after[1];
+            }
+            try {
+                ModelSearchIndex.Result found = index.search(query, count != null);
+                r.n = found.count;
+                if (found.models != null) {
+                    r.models = new LinkedHashSet<ModelMeta>(found.models);
+                }
+                if (found.lastId != null) {
+                    r.next = encodeCursor(found.lastDate, found.lastId);
+                }
+                if (count_signature != null) {
+                    counts.put(count_signature, new CachedCount(saves_before, index_version_before, r.n));
+                }
+                r.sparql = "add 'debug' parameter to see sparql request";
+                return r;
+            } catch (IOException e) {
+                LOGGER.warn("Could not search the index, using SPARQL instead", e);
+            }
+        }
         Map<String, ModelMeta> id_model = new LinkedHashMap<String, ModelMeta>();
         String sparql = "";
         try {
@@ -315,21 +514,7 @@ public class ModelSearchHandler {
         if (id != null && id.size() > 0) {
             String id_list = "";
             for (String mid : id) {
-                if (!mid.contains("http")) {
-                    String[] curie = mid.split(":");
-                    if (curie != null && curie.length == 2) {
-                        mid = "http://model.geneontology.org/" + curie[1];
-                    }
-                    //TODO figure this out and add it to standard curie collection
-                    //				try {
-                    //					IRI iri = curie_handler.getIRI(id);
-                    //					id = iri.toString();
-                    //				} catch (UnknownIdentifierException e) {
-                    //					// TODO Auto-generated catch block
-                    //					e.printStackTrace();
-                    //				}
-                }
-                id_list += "<" + mid + "> ";
+                id_list += "<" + normalizeModelId(mid) + "> ";
             }
             id_constraint = " values ?id { " + id_list + " } ";
         }
@@ -345,13 +530,7 @@ public class ModelSearchHandler {
         String taxa_constraint = "";
         if (taxa != null && !taxa.isEmpty()) {
             for (String taxon : taxa) {
-                if (taxon.startsWith("NCBITaxon:")) {
-                    taxon = taxon.replace(":", "_");
-                    taxon = "http://purl.obolibrary.org/obo/" + taxon;
-                } else if (!taxon.startsWith("http://purl.obolibrary.org/obo/NCBITaxon_")) {
-                    taxon = "http://purl.obolibrary.org/obo/NCBITaxon_" + taxon;
-                }
-                taxa_constraint += "?id <" + BlazegraphOntologyManager.in_taxon_uri + "> <" + taxon + "> . \n";
+                taxa_constraint += "?id <" + BlazegraphOntologyManager.in_taxon_uri + "> <" + normalizeTaxon(taxon) + "> . \n";
             }
         }
 
@@ -452,6 +631,10 @@ public class ModelSearchHandler {
         }
         //default group by
         String group_by_constraint = "GROUP BY ?id";
+        if (after != null) {
+            // keyset pagination on the sort order
+            group_by_constraint += "\nHAVING (MIN(?date) < \"" + escape(after[0]) + "\" || (MIN(?date) = \"" + escape(after[0]) + "\" && STR(?id) < \"" + escape(after[1]) + "\"))";
+        }
         //default return block
         //TODO investigate need to add DISTINCT to GROUP_CONCAT here
         String return_block = "?id (MIN(?date) AS ?mindate) (MIN(?title) AS ?mintitle) (MIN(?state) AS ?minstate) <ind_return_list> (GROUP_CONCAT(DISTINCT ?contributor;separator=\";\") AS ?contributors) (GROUP_CONCAT(DISTINCT ?group;separator=\";\") AS ?groups)";
@@ -463,7 +646,7 @@ public class ModelSearchHandler {
         }
         sparql = sparql.replaceAll("<return_block>", return_block);
         sparql = sparql.replaceAll("<id_constraint>", id_constraint);
-        sparql = sparql.replaceAll("<group_by_constraint>", group_by_constraint);
+        sparql = sparql.replaceAll("<group_by_constraint>", Matcher.quoteReplacement(group_by_constraint));
         sparql = sparql.replaceAll("<ind_return_list>", ind_return_list);
         sparql = sparql.replaceAll("<types>", types);
         sparql = sparql.replaceAll("<pmid_constraints>", pmid_constraints);
@@ -496,6 +679,8 @@ public class ModelSearchHandler {
             return r;
         }
         String n_count = null;
+        String last_date = null;
+        String last_id = null;
         try {
             while (result.hasNext()) {
                 BindingSet bs = result.next();
@@ -555,6 +740,8 @@ public class ModelSearchHandler {
                         }
                     }
                     id_model.put(model_curie, mm);
+                    last_date = date;
+                    last_id = model_iri_string;
                 }
             }
         } catch (QueryEvaluationException e) {
@@ -565,9 +752,14 @@ public class ModelSearchHandler {
         }
         if (n_count != null) {
             r.n = Integer.parseInt(n_count);
+            counts.put(count_signature, new CachedCount(saves_before, index_version_before, r.n));
         } else {
             r.n = id_model.size();
             r.models = new LinkedHashSet<ModelMeta>(id_model.values());
+            int page_size = (offset == 0 && limit == 0) ? 1000 : limit;
+            if (page_size > 0 && id_model.size() >= page_size && last_id != null) {
+                r.next = encodeCursor(last_date, last_id);
+            }
         }
         try {
             result.close();
@@ -583,6 +775,106 @@ public class ModelSearchHandler {
     }
 
 
+    private static String encodeCursor(String date, String modelId) {
+        String token = date + "\n" + modelId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param cursor
+     * @return date and model IRI of the last model of the previous page, or null if the cursor is invalid
+     */
+    private static String[] decodeCursor(String cursor) {
+        try {
+            String token = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int pos = token.indexOf('\n');
+            if (pos < 0 || pos == token.length() - 1) {
+                return null;
+            }
+            return new String[]{token.substring(0, pos), token.substring(pos + 1)};
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    /**
+     * Create a key for the count cache, which is independent of the order
+     * and the paging parameters of the request.
+     */
+    private static String getCountSignature(Set<String> taxa, Set<String> gene_type_uris, Set<String> go_type_uris, String expand,
+                                            Set<String> pmids, String title_search, Set<String> state_search, Set<String> contributor_search,
+                                            Set<String> group_search, String exactdate, String date_search, String datend, Set<String> id) {
+        Set<String> normalized_taxa = null;
+        if (taxa != null) {
+            normalized_taxa = new TreeSet<String>();
+            for (String taxon : taxa) {
+                normalized_taxa.add(normalizeTaxon(taxon));
+            }
+        }
+        Set<String> normalized_ids = null;
+        if (id != null) {
+            normalized_ids = new TreeSet<String>();
+            for (String mid : id) {
+                normalized_ids.add(normalizeModelId(mid));
+            }
+        }
+        // same precedence as the date filter of the query
+        String dates = null;
+        if (exactdate != null && exactdate.length() == 10) {
+            dates = "=" + exactdate;
+        } else if (date_search != null && date_search.length() == 10) {
+            dates = ">" + date_search;
+            if (datend != null && datend.length() == 10) {
+                dates += "<" + datend;
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Object part : Arrays.asList(normalized_taxa, sorted(gene_type_uris), sorted(go_type_uris), expand != null, sorted(pmids), title_search,
+                sorted(state_search), sorted(contributor_search), sorted(group_search), dates, normalized_ids)) {
+            sb.append(part).append('\t');
+        }
+        return sb.toString();
+    }
+
+    private static Set<String> sorted(Set<String> values) {
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        return new TreeSet<String>(values);
+    }
+
+    private static String normalizeTaxon(String taxon) {
+        if (taxon.startsWith("NCBITaxon:")) {
+            taxon = taxon.replace(":", "_");
+            taxon = "http://purl.obolibrary.org/obo/" + taxon;
+        } else if (!taxon.startsWith("http://purl.obolibrary.org/obo/NCBITaxon_")) {
+            taxon = "http://purl.obolibrary.org/obo/NCBITaxon_" + taxon;
+        }
+        return taxon;
+    }
+
+    private static String normalizeModelId(String mid) {
+        if (!mid.contains("http")) {
+            String[] curie = mid.split(":");
+            if (curie != null && curie.length == 2) {
+                mid = "http://model.geneontology.org/" + curie[1];
+            }
+            //TODO figure this out and add it to standard curie collection
+            //				try {
+            //					IRI iri = curie_handler.getIRI(id);
+            //					id = iri.toString();
+            //				} catch (UnknownIdentifierException e) {
+            //					// TODO Auto-generated catch block
+            //					e.printStackTrace();
+            //				}
+        }
+        return mid;
+    }
+
     @POST
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
@@ -603,9 +895,12 @@ public class ModelSearchHandler {
             @FormParam("limit") int limit,
             @FormParam("count") String count,
             @FormParam("debug") String debug,
-            @FormParam("debug") Set<String> id) {
+            @FormParam("debug") Set<String> id,
+            @FormParam("cursor") String cursor) {
         ModelSearchResult result = new ModelSearchResult();
-        result = search(taxa, gene_product_class_uris, terms, expand, pmids, title, state, contributor, group, exactdate, date, datend, offset, limit, count, debug, id);
+        try (AdmissionControl.Permit permit = admission.acquire(EndpointClass.SEARCH, estimateCost(gene_product_class_uris, terms, expand))) {
+            result = search(taxa, gene_product_class_uris, terms, expand, pmids, title, state, contributor, group, exactdate, date, datend, offset, limit, count, debug, id, cursor);
+        }
         return result;
     }
 
@@ -0,0 +1,578 @@
+package org.geneontology.minerva.server.handler;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.log4j.Logger;
+import org.geneontology.minerva.BlazegraphMolecularModelManager;
+import org.geneontology.minerva.BlazegraphOntologyManager;
+import org.geneontology.minerva.curie.CurieHandler;
+import org.geneontology.minerva.server.handler.ModelSearchHandler.ModelMeta;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Resource;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.TupleQueryResult;
+import org.semanticweb.owlapi.model.IRI;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over the stored models, for the model search.
+ * <p>
+ * For each model it keeps the metadata and the individuals for each type and
+ * source, and posting lists from types, sources (PMIDs), contributors, groups,
+ * states, dates and taxa to the models. A search intersects the posting lists
+ * and matches the results of the SPARQL query in {@link ModelSearchHandler}.
+ * Terms are expanded with the cached subclass closure from the ontology
+ * repository.
+ * <p>
+ * The index is loaded in the background and kept current with the
+ * {@link BlazegraphMolecularModelManager.StoredModelListener}. Until it is
+ * ready, {@link #isReady()} is false and searches have to use SPARQL.
+ */
+public class ModelSearchIndex implements BlazegraphMolecularModelManager.StoredModelListener {
+
+    private static final Logger LOG = Logger.getLogger(ModelSearchIndex.class);
+
+    static final String TITLE = "http://purl.org/dc/elements/1.1/title";
+    static final String DATE = "http://purl.org/dc/elements/1.1/date";
+    static final String CONTRIBUTOR = "http://purl.org/dc/elements/1.1/contributor";
+    static final String SOURCE = "http://purl.org/dc/elements/1.1/source";
+    static final String GROUP = "http://purl.org/pav/providedBy";
+    static final String STATE = "http://geneontology.org/lego/modelstate";
+
+    private static final String LOAD_QUERY = "SELECT ?id ?s ?p ?o WHERE { <values> GRAPH ?id { ?s ?p ?o . "
+            + "FILTER(?p IN (<" + TITLE + ">, <" + DATE + ">, <" + CONTRIBUTOR + ">, <" + SOURCE + ">, <" + GROUP + ">, <" + STATE + ">, "
+            + "<" + BlazegraphOntologyManager.in_taxon_uri + ">, <" + RDF.TYPE + ">)) } }";
+
+    /**
+     * Constraints of a model search, with all identifiers as full IRIs.
+     * Empty sets are no constraint.
+     */
+    static class Query {
+        Set<String> taxa = Collections.emptySet();
+        Set<String> geneProducts = Collections.emptySet();
+        Set<String> terms = Collections.emptySet();
+        boolean expand = false;
+        Set<String> pmids = Collections.emptySet();
+        Set<String> states = Collections.emptySet();
+        Set<String> contributors = Collections.emptySet();
+        Set<String> groups = Collections.emptySet();
+        String exactDate = null;
+        String date = null;
+        String dateEnd = null;
+        Set<String> ids = Collections.emptySet();
+        int offset = 0;
+        int limit = 0;
+        // keyset pagination: only models sorted after this date and id
+        String afterDate = null;
+        String afterId = null;
+    }
+
+    static class Result {
+        final int count;
+        final List<ModelMeta> models;
+        // date and id of the last model, if the page is full
+        String lastDate = null;
+        String lastId = null;
+
+        Result(int count, List<ModelMeta> models) {
+            this.count = count;
+            this.models = models;
+        }
+    }
+
+    /**
+     * The indexed values of one model. Filters only match plain literals, as
+     * the SPARQL filters compare with string literals, but the results
+     * contain all values.
+     */
+    static class IndexedModel {
+        final String id;
+        final TreeSet<String> titles = new TreeSet<>();
+        final TreeSet<String> dates = new TreeSet<>();
+        final TreeSet<String> literalDates = new TreeSet<>();
+        final TreeSet<String> states = new TreeSet<>();
+        final Set<String> literalStates = new HashSet<>();
+        final Set<String> contributors = new HashSet<>();
+        final Set<String> literalContributors = new HashSet<>();
+        final Set<String> groups = new HashSet<>();
+        final Set<String> literalGroups = new HashSet<>();
+        final Set<String> taxa = new HashSet<>();
+        final Map<String, Set<String>> typeIndividuals = new HashMap<>();
+        final Map<String, Set<String>> sourceIndividuals = new HashMap<>();
+
+        IndexedModel(String id) {
+            this.id = id;
+        }
+
+        void add(Resource s, URI p, Value o) {
+            final String predicate = p.stringValue();
+            if (id.equals(s.stringValue())) {
+                final String value = o.stringValue();
+                final boolean literal = isStringLiteral(o);
+                if (TITLE.equals(predicate)) {
+                    titles.add(value);
+                } else if (DATE.equals(predicate)) {
+                    dates.add(value);
+                    if (literal) {
+                        literalDates.add(value);
+                    }
+                } else if (STATE.equals(predicate)) {
+                    states.add(value);
+                    if (literal) {
+                        literalStates.add(value);
+                    }
+                } else if (CONTRIBUTOR.equals(predicate)) {
+                    contributors.add(value);
+                    if (literal) {
+                        literalContributors.add(value);
+                    }
+                } else if (GROUP.equals(predicate)) {
+                    groups.add(value);
+                    if (literal) {
+                        literalGroups.add(value);
+                    }
+                } else if (BlazegraphOntologyManager.in_taxon_uri.equals(predicate) && o instanceof URI) {
+                    taxa.add(value);
+                }
+            }
+            // only named individuals are reported as matches
+            if (s instanceof URI) {
+                if (RDF.TYPE.stringValue().equals(predicate) && o instanceof URI) {
+                    typeIndividuals.computeIfAbsent(o.stringValue(), k -> new HashSet<>()).add(s.stringValue());
+                } else if (SOURCE.equals(predicate) && isStringLiteral(o)) {
+                    sourceIndividuals.computeIfAbsent(o.stringValue(), k -> new HashSet<>()).add(s.stringValue());
+                }
+            }
+        }
+
+        /**
+         * @return true, if the model has the title, date and contributor required by the search
+         */
+        boolean isSearchable() {
+            return !titles.isEmpty() && !dates.isEmpty() && !contributors.isEmpty();
+        }
+    }
+
+    private static boolean isStringLiteral(Value value) {
+        if (value instanceof Literal) {
+            Literal literal = (Literal) value;
+            return literal.getLanguage() == null && (literal.getDatatype() == null || XMLSchema.STRING.equals(literal.getDatatype()));
+        }
+        return false;
+    }
+
+    private final BlazegraphMolecularModelManager<?> m3;
+    private final BlazegraphOntologyManager go_lego;
+    private final CurieHandler curieHandler;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, IndexedModel> models = new HashMap<>();
+    private final Map<String, Set<String>> typePostings = new HashMap<>();
+    private final Map<String, Set<String>> sourcePostings = new HashMap<>();
+    private final Map<String, Set<String>> contributorPostings = new HashMap<>();
+    private final Map<String, Set<String>> groupPostings = new HashMap<>();
+    private final Map<String, Set<String>> statePostings = new HashMap<>();
+    private final Map<String, Set<String>> taxonPostings = new HashMap<>();
+    private final NavigableMap<String, Set<String>> datePostings = new TreeMap<>();
+
+    private final Cache<String, Set<String>> subClasses = CacheBuilder.newBuilder().maximumSize(10000).build();
+
+    // loads and updates run one at a time, in the order of the changes
+    private final ExecutorService updates = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "model-search-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean ready = false;
+    private volatile long version = 0;
+
+    /**
+     * @param m3           model manager for the stored models, may be null if the index is filled directly
+     * @param go_lego      ontology for the term expansion, may be null
+     * @param curieHandler
+     */
+    ModelSearchIndex(BlazegraphMolecularModelManager<?> m3, BlazegraphOntologyManager go_lego, CurieHandler curieHandler) {
+        this.m3 = m3;
+        this.go_lego = go_lego;
+        this.curieHandler = curieHandler;
+    }
+
+    /**
+     * Create the index for the stored models of the manager and start
+     * loading it in the background.
+     *
+     * @param m3
+     * @return index
+     */
+    public static ModelSearchIndex create(BlazegraphMolecularModelManager<?> m3) {
+        final ModelSearchIndex index = new ModelSearchIndex(m3, m3.getGolego_repo(), m3.getCuriHandler());
+        // register first, changes during the load are applied after it
+        m3.addStoredModelListener(index);
+        index.updates.submit(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                index.load(null);
+                index.ready = true;
+                LOG.info("Loaded model search index with " + index.size() + " models in " + (System.currentTimeMillis() - start) + " ms");
+            } catch (Exception e) {
+                LOG.error("Could not load the model search index, searches will use SPARQL", e);
+            }
+        });
+        return index;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return models.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void storedModelChanged(IRI modelId) {
+        updates.submit(() -> {
+            try {
+                load(modelId);
+            } catch (Exception e) {
+                // a stale entry would give wrong results, use SPARQL from now on
+                ready = false;
+                LOG.error("Could not update the model search index for " + modelId + ", searches will use SPARQL", e);
+            }
+        });
+    }
+
+    /**
+     * Read the indexed triples of the stored model, or all stored models, and
+     * replace the entries in the index.
+     *
+     * @param modelId model or null for all models
+     * @throws Exception
+     */
+    private void load(IRI modelId) throws Exception {
+        String values = modelId == null ? "" : "VALUES ?id { <" + modelId + "> }";
+        Map<String, IndexedModel> loaded = new HashMap<>();
+        if (modelId != null) {
+            // if the model has no triples anymore, this removes it
+            loaded.put(modelId.toString(), new IndexedModel(modelId.toString()));
+        }
+        TupleQueryResult result = (TupleQueryResult) m3.executeSPARQLQueryWithoutPrefixManipulation(LOAD_QUERY.replace("<values>", values), 0);
+        try {
+            while (result.hasNext()) {
+                BindingSet bs = result.next();
+                String id = bs.getValue("id").stringValue();
+                loaded.computeIfAbsent(id, IndexedModel::new).add((Resource) bs.getValue("s"), (URI) bs.getValue("p"), bs.getValue("o"));
+            }
+        } finally {
+            result.close();
+        }
+        update(loaded.values());
+    }
+
+    /**
+     * Replace the entries of the models.
+     *
+     * @param indexedModels
+     */
+    void update(Collection<IndexedModel> indexedModels) {
+        lock.writeLock().lock();
+        try {
+            for (IndexedModel indexed : indexedModels) {
+                IndexedModel previous = models.remove(indexed.id);
+                if (previous != null) {
+                    updatePostings(previous, false);
+                }
+                if (indexed.isSearchable()) {
+                    models.put(indexed.id, indexed);
+                    updatePostings(indexed, true);
+                }
+            }
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return a number, which changes with each update of the index
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    private void updatePostings(IndexedModel indexed, boolean add) {
+        updatePostings(typePostings, indexed.typeIndividuals.keySet(), indexed.id, add);
+        updatePostings(sourcePostings, indexed.sourceIndividuals.keySet(), indexed.id, add);
+        updatePostings(contributorPostings, indexed.literalContributors, indexed.id, add);
+        updatePostings(groupPostings, indexed.literalGroups, indexed.id, add);
+        updatePostings(statePostings, indexed.literalStates, indexed.id, add);
+        updatePostings(taxonPostings, indexed.taxa, indexed.id, add);
+        updatePostings(datePostings, indexed.literalDates, indexed.id, add);
+    }
+
+    private static void updatePostings(Map<String, Set<String>> postings, Set<String> keys, String id, boolean add) {
+        for (String key : keys) {
+            if (add) {
+                postings.computeIfAbsent(key, k -> new HashSet<>()).add(id);
+            } else {
+                Set<String> ids = postings.get(key);
+                if (ids != null) {
+                    ids.remove(id);
+                    if (ids.isEmpty()) {
+                        postings.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param term
+     * @return the term and all its subclasses
+     * @throws IOException
+     */
+    Set<String> getSubClasses(String term) throws IOException {
+        if (go_lego == null) {
+            throw new IOException("No ontology available to expand: " + term);
+        }
+        try {
+            return subClasses.get(term, () -> go_lego.getAllSubClasses(term));
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * @param term
+     * @return the term and all its subclasses, or null if they were not looked up yet
+     */
+    Set<String> getCachedSubClasses(String term) {
+        return subClasses.getIfPresent(term);
+    }
+
+    /**
+     * Search the models.
+     *
+     * @param query
+     * @param countOnly if true, only count the models
+     * @return result
+     * @throws IOException if a term could not be expanded
+     */
+    Result search(Query query, boolean countOnly) throws IOException {
+        // expand before locking, this may query the ontology
+        final Map<String, Set<String>> expandedTerms = new HashMap<>();
+        for (String term : query.terms) {
+            expandedTerms.put(term, query.expand ? getSubClasses(term) : Collections.singleton(term));
+        }
+        lock.readLock().lock();
+        try {
+            final List<Set<String>> required = new ArrayList<>();
+            for (String gp : query.geneProducts) {
+                required.add(typePostings.getOrDefault(gp, Collections.emptySet()));
+            }
+            for (Set<String> types : expandedTerms.values()) {
+                required.add(union(typePostings, types));
+            }
+            for (String pmid : query.pmids) {
+                required.add(sourcePostings.getOrDefault(pmid, Collections.emptySet()));
+            }
+            for (String taxon : query.taxa) {
+                required.add(taxonPostings.getOrDefault(taxon, Collections.emptySet()));
+            }
+            if (!query.states.isEmpty()) {
+                required.add(union(statePostings, query.states));
+            }
+            if (!query.contributors.isEmpty()) {
+                required.add(union(contributorPostings, query.contributors));
+            }
+            if (!query.groups.isEmpty()) {
+                required.add(union(groupPostings, query.groups));
+            }
+            final NavigableMap<String, Set<String>> dateRange = getDateRange(query);
+            if (dateRange != null) {
+                required.add(union(dateRange, dateRange.keySet()));
+            }
+            if (!query.ids.isEmpty()) {
+                required.add(query.ids);
+            }
+            final Set<String> candidates = intersect(required);
+
+            final List<IndexedModel> found = new ArrayList<>(candidates.size());
+            for (String id : candidates) {
+                IndexedModel indexed = models.get(id);
+                if (indexed != null) {
+                    found.add(indexed);
+                }
+            }
+            if (countOnly) {
+                return new Result(found.size(), null);
+            }
+            // ORDER BY desc(?mindate) desc(?id)
+            final Map<IndexedModel, String> dates = new HashMap<>();
+            for (IndexedModel indexed : found) {
+                dates.put(indexed, getDate(indexed, dateRange));
+            }
+            final Comparator<IndexedModel> ascending = Comparator.comparing((IndexedModel indexed) -> dates.get(indexed)).thenComparing(indexed -> indexed.id);
+            int limit = query.limit;
+            if (query.offset == 0 && query.limit == 0) {
+                limit = 1000;
+            }
+            final int offset = Math.max(query.offset, 0);
+            // select the page without sorting all models
+            final int size = limit > 0 ? offset + limit : Integer.MAX_VALUE;
+            final PriorityQueue<IndexedModel> top = new PriorityQueue<>(ascending);
+            for (IndexedModel indexed : found) {
+                if (query.afterDate != null && compare(dates.get(indexed), indexed.id, query.afterDate, query.afterId) >= 0) {
+                    continue;
+                }
+                top.add(indexed);
+                if (top.size() > size) {
+                    top.poll();
+                }
+            }
+            final List<IndexedModel> sorted = new ArrayList<>(top);
+            sorted.sort(ascending.reversed());
+            final int from = Math.min(offset, sorted.size());
+            List<ModelMeta> page = new ArrayList<>(sorted.size() - from);
+            for (IndexedModel indexed : sorted.subList(from, sorted.size())) {
+                page.add(createModelMeta(indexed, dates.get(indexed), query, expandedTerms));
+            }
+            Result result = new Result(page.size(), page);
+            if (limit > 0 && page.size() == limit) {
+                IndexedModel last = sorted.get(sorted.size() - 1);
+                result.lastDate = dates.get(last);
+                result.lastId = last.id;
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int compare(String date, String id, String otherDate, String otherId) {
+        int c = date.compareTo(otherDate);
+        if (c == 0) {
+            c = id.compareTo(otherId);
+        }
+        return c;
+    }
+
+    private NavigableMap<String, Set<String>> getDateRange(Query query) {
+        if (query.exactDate != null && query.exactDate.length() == 10) {
+            return datePostings.subMap(query.exactDate, true, query.exactDate, true);
+        } else if (query.date != null && query.date.length() == 10) {
+            if (query.dateEnd != null && query.dateEnd.length() == 10) {
+                if (query.date.compareTo(query.dateEnd) >= 0) {
+                    return Collections.emptyNavigableMap();
+                }
+                return datePostings.subMap(query.date, false, query.dateEnd, false);
+            }
+            return datePostings.tailMap(query.date, false);
+        }
+        return null;
+    }
+
+    /**
+     * @param indexed
+     * @param dateRange
+     * @return the first date, only the dates matching the filter are considered
+     */
+    private static String getDate(IndexedModel indexed, NavigableMap<String, Set<String>> dateRange) {
+        if (dateRange != null) {
+            for (String date : indexed.literalDates) {
+                if (dateRange.containsKey(date)) {
+                    return date;
+                }
+            }
+        }
+        return indexed.dates.first();
+    }
+
+    private ModelMeta createModelMeta(IndexedModel indexed, String date, Query query, Map<String, Set<String>> expandedTerms) {
+        // the aggregates only see the values matching the filters
+        String state = indexed.states.isEmpty() ? "" : indexed.states.first();
+        if (!query.states.isEmpty()) {
+            state = null;
+            for (String s : indexed.literalStates) {
+                if (query.states.contains(s) && (state == null || s.compareTo(state) < 0)) {
+                    state = s;
+                }
+            }
+        }
+        Set<String> groups = new HashSet<>(indexed.groups);
+        if (groups.isEmpty()) {
+            // same as splitting the empty group concatenation
+            groups.add("");
+        }
+        //look up model in in-memory cache to check edit state
+        boolean modified = m3 != null && m3.isModelModified(IRI.create(indexed.id));
+        ModelMeta mm = new ModelMeta(getCuri(indexed.id), date, indexed.titles.first(), state,
+                new HashSet<>(indexed.contributors), groups, modified);
+        for (String gp : query.geneProducts) {
+            addMatches(mm, gp, indexed.typeIndividuals.get(gp));
+        }
+        for (Map.Entry<String, Set<String>> term : expandedTerms.entrySet()) {
+            for (String type : term.getValue()) {
+                addMatches(mm, term.getKey(), indexed.typeIndividuals.get(type));
+            }
+        }
+        for (String pmid : query.pmids) {
+            addMatches(mm, pmid, indexed.sourceIndividuals.get(pmid));
+        }
+        return mm;
+    }
+
+    private static void addMatches(ModelMeta mm, String key, Set<String> individuals) {
+        if (individuals != null) {
+            mm.getQuery_match().computeIfAbsent(key, k -> new HashSet<>()).addAll(individuals);
+        }
+    }
+
+    private String getCuri(String id) {
+        String curie = curieHandler.getCuri(IRI.create(id));
+        return curie != null ? curie : id;
+    }
+
+    private static Set<String> union(Map<String, Set<String>> postings, Set<String> keys) {
+        if (keys.size() == 1) {
+            return postings.getOrDefault(keys.iterator().next(), Collections.emptySet());
+        }
+        Set<String> ids = new HashSet<>();
+        for (String key : keys) {
+            Set<String> posting = postings.get(key);
+            if (posting != null) {
+                ids.addAll(posting);
+            }
+        }
+        return ids;
+    }
+
+    private Set<String> intersect(List<Set<String>> required) {
+        if (required.isEmpty()) {
+            return models.keySet();
+        }
+        // start with the shortest posting list
+        required.sort(Comparator.comparingInt(Set::size));
+        Set<String> result = new HashSet<>(required.get(0));
+        for (int i = 1; i < required.size() && !result.isEmpty(); i++) {
+            result.retainAll(required.get(i));
+        }
+        return result;
+    }
+}
@@ -1,8 +1,9 @@
 package org.geneontology.minerva.server.handler;
 
 import com.github.jsonldjava.sesame.SesameJSONLDWriterFactory;
-import com.google.gson.Gson;
+import com.google.common.util.concurrent.Striped;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.log4j.Logger;
 import org.geneontology.minerva.CoreMolecularModelManager.DeleteInformation;
@@ -35,10 +36,14 @@ import org.semanticweb.owlapi.model.*;
 import org.semanticweb.owlapi.model.parameters.OntologyCopy;
 import org.semanticweb.owlapi.reasoner.InconsistentOntologyException;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
 
 import static org.geneontology.minerva.server.handler.OperationsTools.requireNotNull;
 
@@ -58,6 +63,9 @@ abstract class OperationsImpl extends ModelCreator {
     private static final Logger LOG = Logger.getLogger(OperationsImpl.class);
     public static final int SPARQL_QUERY_TIMEOUT = 20;
 
+    // one batch at a time per model, for all endpoints
+    private final Striped<Lock> modelLocks = Striped.lock(64);
+
     OperationsImpl(UndoAwareMolecularModelManager models,
                    Set<OWLObjectProperty> importantRelations,
                    String defaultModelState) {
@@ -76,8 +84,22 @@ abstract class OperationsImpl extends ModelCreator {
         boolean renderBulk = false;
         boolean nonMeta = false;
         ModelContainer model = null;
+        // version of the model, before the first change in the batch
+        long modelVersion = -1;
         Map<String, OWLNamedIndividual> individualVariable = new HashMap<>();
         String diffResult = null;
+        // lock of the model, held until the batch is done
+        Lock modelLock = null;
+
+        /**
+         * Release the model lock, must be called when the batch is done.
+         */
+        void unlockModel() {
+            if (modelLock != null) {
+                modelLock.unlock();
+                modelLock = null;
+            }
+        }
 
         @Override
         public boolean notVariable(String id) {
@@ -130,7 +152,7 @@ abstract class OperationsImpl extends ModelCreator {
     String handleRequestForIndividual(M3Request request, Operation operation, String userId, Set<String> providerGroups, UndoMetadata token, BatchHandlerValues values) throws Exception {
         values.nonMeta = true;
         requireNotNull(request.arguments, "request.arguments");
-        values.model = checkModelId(values.model, request);
+        values.model = checkModelIdAndVersion(values, request);
 
         // get info, no modification
         if (Operation.get == operation) {
@@ -322,7 +344,7 @@ abstract class OperationsImpl extends ModelCreator {
     String handleRequestForEdge(M3Request request, Operation operation, String userId, Set<String> providerGroups, UndoMetadata token, BatchHandlerValues values) throws Exception {
         values.nonMeta = true;
         requireNotNull(request.arguments, "request.arguments");
-        values.model = checkModelId(values.model, request);
+        values.model = checkModelIdAndVersion(values, request);
         // required: subject, predicate, object
         requireNotNull(request.arguments.subject, "request.arguments.subject");
         requireNotNull(request.arguments.predicate, "request.arguments.predicate");
@@ -393,12 +415,12 @@ abstract class OperationsImpl extends ModelCreator {
         if (Operation.get == operation) {
             values.nonMeta = true;
             requireNotNull(request.arguments, "request.arguments");
-            values.model = checkModelId(values.model, request);
+            values.model = checkModelIdAndVersion(values, request);
             values.renderBulk = true;
         } else if (Operation.copy == operation) {
             values.nonMeta = true;
             requireNotNull(request.arguments, "request.arguments");
-            values.model = checkModelId(values.model, request);
+            values.model = checkModelIdAndVersion(values, request);
             boolean preserveEvidence = false;
             if (request.arguments.preserveEvidence != null) preserveEvidence = request.arguments.preserveEvidence;
             Set<OWLAnnotation> modelAnnotations = extract(request.arguments.values, userId, providerGroups, values, values.model);
@@ -407,7 +429,7 @@ abstract class OperationsImpl extends ModelCreator {
         } else if (Operation.updateImports == operation) {
             values.nonMeta = true;
             requireNotNull(request.arguments, "request.arguments");
-            values.model = checkModelId(values.model, request);
+            values.model = checkModelIdAndVersion(values, request);
             values.renderBulk = true;
         }
         // add an empty model
@@ -424,7 +446,7 @@ abstract class OperationsImpl extends ModelCreator {
             values.nonMeta = true;
             requireNotNull(request.arguments, "request.arguments");
             requireNotNull(request.arguments.values, "request.arguments.values");
-            values.model = checkModelId(values.model, request);
+            values.model = checkModelIdAndVersion(values, request);
             Set<OWLAnnotation> annotations = extract(request.arguments.values, userId, providerGroups, values, values.model);
             if (annotations != null) {
                 m3.addModelAnnotations(values.model, annotations, token);
@@ -434,7 +456,7 @@ abstract class OperationsImpl extends ModelCreator {
             values.nonMeta = true;
             requireNotNull(request.arguments, "request.arguments");
             requireNotNull(request.arguments.values, "request.arguments.values");
-            values.model = checkModelId(values.model, request);
+            values.model = checkModelIdAndVersion(values, request);
             Set<OWLAnnotation> annotations = extract(request.arguments.values, null, Collections.emptySet(), values, values.model);
             if (annotations != null) {
                 m3.removeAnnotations(values.model, annotations, token);
@@ -447,7 +469,7 @@ abstract class OperationsImpl extends ModelCreator {
                 return "Export model can only be combined with other meta operations.";
             }
             requireNotNull(request.arguments, "request.arguments");
-            values.model = checkModelId(values.model, request);
+            values.model = checkModelIdAndVersion(values, request);
             export(response, values.model, userId, providerGroups);
         } else if (Operation.exportModelLegacy == operation) {
             if (values.nonMeta) {
@@ -455,7 +477,7 @@ abstract class OperationsImpl extends ModelCreator {
                 return "Export legacy model can only be combined with other meta operations.";
             }
             requireNotNull(request.arguments, "request.arguments");
-            values.model = checkModelId(values.model, request);
+            values.model = checkModelIdAndVersion(values, request);
             exportLegacy(response, values.model, request.arguments.format, userId);
         } else if (Operation.importModel == operation) {
             values.nonMeta = true;
@@ -473,7 +495,7 @@ abstract class OperationsImpl extends ModelCreator {
         } else if (Operation.storeModel == operation) {
             values.nonMeta = true;
             requireNotNull(request.arguments, "request.arguments");
-            values.model = checkModelId(values.model, request);
+            values.model = checkModelIdAndVersion(values, request);
             Set<OWLAnnotation> annotations = extract(request.arguments.values, userId, providerGroups, values, values.model);
             if (validateBeforeSave()) {
                 List<String> issues = beforeSaveValidator.validateBeforeSave(values.model);
@@ -495,7 +517,7 @@ abstract class OperationsImpl extends ModelCreator {
         } else if (Operation.resetModel == operation) {
             values.nonMeta = true;
             requireNotNull(request.arguments, "request.arguments");
-            values.model = checkModelId(values.model, request);
+            values.model = checkModelIdAndVersion(values, request);
             //drop in memory model and reload
             IRI model_iri = values.model.getModelId();
             boolean drop_cached = true;
@@ -510,7 +532,7 @@ abstract class OperationsImpl extends ModelCreator {
             values.nonMeta = true;
             requireNotNull(request.arguments, "request.arguments");
             //this won't change
-            values.model = checkModelId(values.model, request);
+            values.model = checkModelIdAndVersion(values, request);
             IRI model_iri = values.model.getModelId();
             //run diff
             OWLOntologyManager man1 = OWLManager.createOWLOntologyManager();
@@ -537,13 +559,13 @@ abstract class OperationsImpl extends ModelCreator {
         } else if (Operation.undo == operation) {
             values.nonMeta = true;
             requireNotNull(request.arguments, "request.arguments");
-            values.model = checkModelId(values.model, request);
+            values.model = checkModelIdAndVersion(values, request);
             m3.undo(values.model, userId);
             values.renderBulk = true;
         } else if (Operation.redo == operation) {
             values.nonMeta = true;
             requireNotNull(request.arguments, "request.arguments");
-            values.model = checkModelId(values.model, request);
+            values.model = checkModelIdAndVersion(values, request);
             m3.redo(values.model, userId);
             values.renderBulk = true;
         } else if (Operation.getUndoRedo == operation) {
@@ -552,7 +574,7 @@ abstract class OperationsImpl extends ModelCreator {
                 return operation + " cannot be combined with other operations.";
             }
             requireNotNull(request.arguments, "request.arguments");
-            values.model = checkModelId(values.model, request);
+            values.model = checkModelIdAndVersion(values, request);
             getCurrentUndoRedoForModel(response, values.model.getModelId(), userId);
         } else {
             return "Unknown operation: " + operation;
@@ -572,9 +594,9 @@ abstract class OperationsImpl extends ModelCreator {
                 RDFWriter writer = new SesameJSONLDWriterFactory().getWriter(stream);
                 writer.handleNamespace("gomodel", "http://model.geneontology.org/");
                 Rio.write(QueryResults.asModel((GraphQueryResult) result), writer);
-                String json = stream.toString("UTF-8");
                 stream.close();
-                jsonObject = new Gson().fromJson(json, JsonObject.class);
+                // parse the bytes, no intermediate String
+                jsonObject = new JsonParser().parse(new InputStreamReader(new ByteArrayInputStream(stream.toByteArray()), StandardCharsets.UTF_8)).getAsJsonObject();
                 //QueryResultIO.write((GraphQueryResult) result, RDFFormat.RDFJSON, stream);
             } else if (result instanceof TupleQueryResult) {
                 jsonObject = new SPARQLResultJSONRenderer(curieHandler).renderResults((TupleQueryResult) result);
@@ -620,6 +642,50 @@ abstract class OperationsImpl extends ModelCreator {
         }
     }
 
+    /**
+     * The parts of the meta response, which only depend on the tbox and
+     * ECO. The arrays are shared by all responses and must not be modified.
+     */
+    private static class StaticMeta {
+        final JsonRelationInfo[] relations;
+        final JsonRelationInfo[] dataProperties;
+        final JsonEvidenceInfo[] evidence;
+
+        StaticMeta(JsonRelationInfo[] relations, JsonRelationInfo[] dataProperties, JsonEvidenceInfo[] evidence) {
+            this.relations = relations;
+            this.dataProperties = dataProperties;
+            this.evidence = evidence;
+        }
+    }
+
+    private final Object staticMetaMutex = new Object();
+    private volatile StaticMeta staticMeta = null;
+
+    private StaticMeta getStaticMeta() throws IOException, OWLException {
+        StaticMeta meta = staticMeta;
+        if (meta == null) {
+            synchronized (staticMetaMutex) {
+                meta = staticMeta;
+                if (meta == null) {
+                    meta = createStaticMeta();
+                    staticMeta = meta;
+                }
+            }
+        }
+        return meta;
+    }
+
+    private StaticMeta createStaticMeta() throws IOException, OWLException {
+        Pair<List<JsonRelationInfo>, List<JsonRelationInfo>> propPair = MolecularModelJsonRenderer.renderProperties(m3, importantRelations, curieHandler);
+        final List<JsonRelationInfo> relList = propPair.getLeft();
+        final List<JsonRelationInfo> propList = propPair.getRight();
+        final List<JsonEvidenceInfo> evidencesList = MolecularModelJsonRenderer.renderEvidences(m3, curieHandler);
+        return new StaticMeta(
+                relList != null ? relList.toArray(new JsonRelationInfo[relList.size()]) : null,
+                propList != null ? propList.toArray(new JsonRelationInfo[propList.size()]) : null,
+                evidencesList != null ? evidencesList.toArray(new JsonEvidenceInfo[evidencesList.size()]) : null);
+    }
+
     /**
      * Handle the request for the meta properties.
      *
@@ -635,24 +701,11 @@ abstract class OperationsImpl extends ModelCreator {
             response.data.meta = new MetaResponse();
         }
 
-        // relations
-        Pair<List<JsonRelationInfo>, List<JsonRelationInfo>> propPair = MolecularModelJsonRenderer.renderProperties(m3, importantRelations, curieHandler);
-        final List<JsonRelationInfo> relList = propPair.getLeft();
-        if (relList != null) {
-            response.data.meta.relations = relList.toArray(new JsonRelationInfo[relList.size()]);
-        }
-
-        // data properties
-        final List<JsonRelationInfo> propList = propPair.getRight();
-        if (propList != null) {
-            response.data.meta.dataProperties = propList.toArray(new JsonRelationInfo[propList.size()]);
-        }
-
-        // evidence
-        final List<JsonEvidenceInfo> evidencesList = MolecularModelJsonRenderer.renderEvidences(m3, curieHandler);
-        if (evidencesList != null) {
-            response.data.meta.evidence = evidencesList.toArray(new JsonEvidenceInfo[evidencesList.size()]);
-        }
+        // relations, data properties and evidence
+        final StaticMeta staticMeta = getStaticMeta();
+        response.data.meta.relations = staticMeta.relations;
+        response.data.meta.dataProperties = staticMeta.dataProperties;
+        response.data.meta.evidence = staticMeta.evidence;
 
         // model ids
         // and model annotations
@@ -746,6 +799,26 @@ abstract class OperationsImpl extends ModelCreator {
     }
 
 
+    /**
+     * Check the model id of the request, for the first model of the batch also lock it and remember its version.
+     */
+    private ModelContainer checkModelIdAndVersion(BatchHandlerValues values, M3Request request)
+            throws MissingParameterException, MultipleModelIdsParameterException, UnknownIdentifierException {
+        if (values.model == null && values.modelLock == null) {
+            // lock the model before the first access in the batch
+            final String currentModelId = request.arguments.modelId;
+            requireNotNull(currentModelId, "request.arguments.modelId");
+            Lock lock = modelLocks.get(curieHandler.getIRI(currentModelId).toString());
+            lock.lock();
+            values.modelLock = lock;
+        }
+        ModelContainer model = checkModelId(values.model, request);
+        if (values.model == null) {
+            values.modelVersion = model.getVersion();
+        }
+        return model;
+    }
+
     /**
      * @param model
      * @param request
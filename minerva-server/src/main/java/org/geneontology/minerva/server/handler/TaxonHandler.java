@@ -1,5 +1,8 @@
 package org.geneontology.minerva.server.handler;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import org.apache.log4j.Logger;
 import org.geneontology.minerva.BlazegraphMolecularModelManager;
 import org.geneontology.minerva.BlazegraphOntologyManager;
 import org.openrdf.query.BindingSet;
@@ -7,64 +10,223 @@ import org.openrdf.query.MalformedQueryException;
 import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.query.TupleQueryResult;
 import org.openrdf.repository.RepositoryException;
+import org.semanticweb.owlapi.model.IRI;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 /**
  * Respond to queries about taxa in minerva world
  */
 @Path("/search/taxa")
-public class TaxonHandler {
+public class TaxonHandler implements BlazegraphMolecularModelManager.StoredModelListener {
+
+    private static final Logger LOG = Logger.getLogger(TaxonHandler.class);
+
+    private static final String LOAD_QUERY = "SELECT ?model ?taxon WHERE { <values> GRAPH ?model { ?subject <" + BlazegraphOntologyManager.in_taxon_uri + "> ?taxon } }";
+
     private final BlazegraphMolecularModelManager<?> m3;
+    private final Gson gson = new Gson();
+
+    // only accessed from the update thread
+    private final TaxonCounts counts = new TaxonCounts();
+    private final Map<String, String> labels = new HashMap<String, String>();
+    // set by a complete load, cleared by any failure until the next complete load
+    private boolean valid = false;
+
+    // loads and updates run one at a time, in the order of the changes
+    private final ExecutorService updates = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "taxon-list");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // the response, rebuilt after each change, null until the list is loaded
+    private volatile JsonElement taxa = null;
 
     /**
-     * @param ont_annos
-     * @param started_at
+     * Start loading the taxa of the stored models in the background, until
+     * then the taxa are retrieved with SPARQL for each request.
+     *
+     * @param m3
      */
     public TaxonHandler(BlazegraphMolecularModelManager<?> m3) {
         this.m3 = m3;
+        // register first, changes during the load are applied after it
+        m3.addStoredModelListener(this);
+        updates.submit(this::reload);
+    }
+
+    /**
+     * Number of stored models per taxon, updated for each loaded model.
+     */
+    static class TaxonCounts {
+        private final Map<String, Set<String>> modelTaxa = new HashMap<String, Set<String>>();
+        private final Map<String, Integer> taxonCounts = new HashMap<String, Integer>();
+
+        void clear() {
+            modelTaxa.clear();
+            taxonCounts.clear();
+        }
+
+        /**
+         * Replace the taxa of the loaded models, a model with an empty set of
+         * taxa is removed.
+         *
+         * @param loaded taxa by model
+         */
+        void update(Map<String, Set<String>> loaded) {
+            for (Map.Entry<String, Set<String>> entry : loaded.entrySet()) {
+                Set<String> previous = entry.getValue().isEmpty() ? modelTaxa.remove(entry.getKey()) : modelTaxa.put(entry.getKey(), entry.getValue());
+                if (previous != null) {
+                    for (String taxon : previous) {
+                        taxonCounts.compute(taxon, (k, n) -> n == 1 ? null : n - 1);
+                    }
+                }
+                for (String taxon : entry.getValue()) {
+                    taxonCounts.merge(taxon, 1, Integer::sum);
+                }
+            }
+        }
+
+        Map<String, Integer> getCounts() {
+            return Collections.unmodifiableMap(taxonCounts);
+        }
     }
 
     public class Taxa {
         class Taxon {
             String id;
             String label;
+            Integer n;
 
             public Taxon(String id, String label) {
                 super();
                 this.id = id;
                 this.label = label;
             }
+
+            public Taxon(String id, String label, int n) {
+                this(id, label);
+                this.n = n;
+            }
         }
 
         public Set<Taxon> taxa;
 
-        public Taxa(Map<String, String> id_label) {
-            if (id_label != null) {
-                taxa = new HashSet<Taxon>();
-                for (String id : id_label.keySet()) {
-                    Taxon t = new Taxon(id, id_label.get(id));
-                    taxa.add(t);
-                }
+        public Taxa(Map<String, String> id_label, Map<String, Integer> id_count) {
+            taxa = new LinkedHashSet<Taxon>();
+            for (String id : id_label.keySet()) {
+                taxa.add(new Taxon(id, id_label.get(id), id_count.get(id)));
             }
         }
     }
 
+    @Override
+    public void storedModelChanged(IRI modelId) {
+        updates.submit(() -> {
+            if (!valid) {
+                // without a complete list, an update would publish partial counts
+                reload();
+                return;
+            }
+            try {
+                load(modelId);
+            } catch (Exception e) {
+                // a stale list would be wrong, use SPARQL until it is reloaded
+                valid = false;
+                taxa = null;
+                LOG.error("Could not update the taxon list for " + modelId + ", reloading it", e);
+                updates.submit(this::reload);
+            }
+        });
+    }
+
+    /**
+     * Load the taxa of all stored models from scratch. If this fails,
+     * requests use SPARQL and the next change tries again.
+     */
+    private void reload() {
+        try {
+            long start = System.currentTimeMillis();
+            counts.clear();
+            load(null);
+            LOG.info("Loaded " + counts.getCounts().size() + " taxa in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            valid = false;
+            taxa = null;
+            LOG.error("Could not load the taxon list, requests will use SPARQL", e);
+        }
+    }
+
+    /**
+     * Read the taxa of the stored model, or all stored models, update the
+     * counts and rebuild the response. Labels are only retrieved for taxa,
+     * which were not seen before. Updates of single models require a
+     * complete load before.
+     *
+     * @param modelId model or null for all models
+     * @throws Exception
+     */
+    private void load(IRI modelId) throws Exception {
+        String values = modelId == null ? "" : "VALUES ?model { <" + modelId + "> }";
+        Map<String, Set<String>> loaded = new HashMap<String, Set<String>>();
+        if (modelId != null) {
+            // if the model has no taxon anymore, this removes it
+            loaded.put(modelId.toString(), new HashSet<String>());
+        }
+        TupleQueryResult result = (TupleQueryResult) m3.executeSPARQLQueryWithoutPrefixManipulation(LOAD_QUERY.replace("<values>", values), 0);
+        try {
+            while (result.hasNext()) {
+                BindingSet bs = result.next();
+                String model = bs.getValue("model").stringValue();
+                loaded.computeIfAbsent(model, k -> new HashSet<String>()).add(bs.getValue("taxon").stringValue());
+            }
+        } finally {
+            result.close();
+        }
+        counts.update(loaded);
+        Map<String, String> id_label = new TreeMap<String, String>();
+        Map<String, Integer> id_count = new HashMap<String, Integer>();
+        for (Map.Entry<String, Integer> entry : counts.getCounts().entrySet()) {
+            String taxon = entry.getKey();
+            String label = labels.get(taxon);
+            if (label == null && !labels.containsKey(taxon)) {
+                label = m3.getGolego_repo().getLabel(taxon);
+                labels.put(taxon, label);
+            }
+            String tcurie = getCurie(taxon);
+            id_label.put(tcurie, label);
+            id_count.put(tcurie, entry.getValue());
+        }
+        if (modelId == null) {
+            valid = true;
+        }
+        taxa = gson.toJsonTree(new Taxa(id_label, id_count));
+    }
+
+    private static String getCurie(String taxon) {
+        return taxon.replace("http://purl.obolibrary.org/obo/NCBITaxon_", "NCBITaxon:");
+    }
+
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Taxa get() {
-        Map<String, String> id_label = new HashMap<String, String>();
+    public JsonElement get() {
+        JsonElement current = taxa;
+        if (current != null) {
+            return current;
+        }
+        Map<String, String> id_label = new TreeMap<String, String>();
+        Map<String, Integer> id_count = new HashMap<String, Integer>();
 
-        String sparql = "select distinct ?taxon where { ?model <" + BlazegraphOntologyManager.in_taxon_uri + "> ?taxon }";
+        // same models and counts as the loaded list
+        String sparql = "select ?taxon (count(distinct ?model) as ?n) where { graph ?model { ?subject <" + BlazegraphOntologyManager.in_taxon_uri + "> ?taxon } } group by ?taxon";
 
         TupleQueryResult result;
         try {
@@ -73,8 +235,9 @@ public class TaxonHandler {
                 BindingSet bs = result.next();
                 String taxon = bs.getBinding("taxon").getValue().stringValue();
                 String label = m3.getGolego_repo().getLabel(taxon);
-                String tcurie = taxon.replace("http://purl.obolibrary.org/obo/NCBITaxon_", "NCBITaxon:");
+                String tcurie = getCurie(taxon);
                 id_label.put(tcurie, label);
+                id_count.put(tcurie, Integer.parseInt(bs.getBinding("n").getValue().stringValue()));
             }
         } catch (MalformedQueryException | QueryEvaluationException | RepositoryException e) {
             e.printStackTrace();
@@ -83,7 +246,7 @@ public class TaxonHandler {
             e.printStackTrace();
         }
 
-        return new Taxa(id_label);
+        return gson.toJsonTree(new Taxa(id_label, id_count));
     }
 
     public BlazegraphMolecularModelManager<?> getM3() {
@@ -4,34 +4,46 @@ import org.geneontology.minerva.ModelContainer;
 import org.geneontology.minerva.ModelContainer.ModelChangeListener;
 import org.geneontology.minerva.json.InferenceProvider;
 import org.geneontology.minerva.server.validation.MinervaShexValidator;
+import org.geneontology.minerva.util.Metrics;
 import org.geneontology.rules.engine.RuleEngine;
 import org.geneontology.rules.util.ArachneOWLReasonerFactory;
+import org.geneontology.minerva.validation.ShexNodeResults;
+import org.geneontology.minerva.validation.ValidationResultSet;
 import org.semanticweb.elk.owlapi.ElkReasonerFactory;
-import org.semanticweb.owlapi.model.OWLOntologyChange;
-import org.semanticweb.owlapi.model.OWLOntologyCreationException;
+import org.semanticweb.owlapi.model.*;
 import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
 
 import java.io.IOException;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class CachingInferenceProviderCreatorImpl extends InferenceProviderCreatorImpl {
 
     private final Map<ModelContainer, InferenceProvider> inferenceCache = new ConcurrentHashMap<>();
 
+    /**
+     * The listeners stay registered for the lifetime of a model, so that all
+     * changes between two validations are known for the incremental shex validation.
+     */
+    private final Map<ModelContainer, ModelChangeListener> listeners = new ConcurrentHashMap<>();
+    private final Map<ModelContainer, ShexChanges> shexChanges = new ConcurrentHashMap<>();
+
     protected CachingInferenceProviderCreatorImpl(OWLReasonerFactory rf, int maxConcurrent, boolean useSLME, String name, MinervaShexValidator shex) {
         super(rf, maxConcurrent, useSLME, name, shex);
     }
 
     public static InferenceProviderCreator createElk(boolean useSLME, MinervaShexValidator shex) {
+        return createElk(useSLME, shex, 1);
+    }
+
+    public static InferenceProviderCreator createElk(boolean useSLME, MinervaShexValidator shex, int maxConcurrent) {
         String name;
         if (useSLME) {
             name = "Caching ELK-SLME";
         } else {
             name = "Caching ELK";
         }
-        return new CachingInferenceProviderCreatorImpl(new ElkReasonerFactory(), 1, useSLME, name, shex);
+        return new CachingInferenceProviderCreatorImpl(new ElkReasonerFactory(), maxConcurrent, useSLME, name, shex);
     }
 
 //TODO current Hermit doesn't provide a reasonerfactory ?  
@@ -47,17 +59,31 @@ public class CachingInferenceProviderCreatorImpl extends InferenceProviderCreato
 //	}
 
     public static InferenceProviderCreator createArachne(RuleEngine arachne, MinervaShexValidator shex) {
-        return new CachingInferenceProviderCreatorImpl(new ArachneOWLReasonerFactory(arachne), 1, false, "Caching Arachne", shex);
+        return createArachne(arachne, shex, 1);
+    }
+
+    public static InferenceProviderCreator createArachne(RuleEngine arachne, MinervaShexValidator shex, int maxConcurrent) {
+        return new CachingInferenceProviderCreatorImpl(new ArachneOWLReasonerFactory(arachne), maxConcurrent, false, "Caching Arachne", shex);
     }
 
     @Override
     public InferenceProvider create(final ModelContainer model) throws OWLOntologyCreationException, InterruptedException, IOException {
         synchronized (model.getAboxOntology()) {
             InferenceProvider inferenceProvider = inferenceCache.get(model);
+            Metrics.getDefault().cacheLookup("inferences", inferenceProvider != null);
             if (inferenceProvider == null) {
                 addMiss();
-                inferenceProvider = super.create(model);
-                model.registerListener(new ModelChangeListenerImplementation(model));
+                ShexChanges shexChange = shexChanges.remove(model);
+                if (shexChange != null) {
+                    inferenceProvider = super.create(model, shexChange.previous, shexChange.nodes);
+                } else {
+                    inferenceProvider = super.create(model);
+                }
+                if (!listeners.containsKey(model)) {
+                    ModelChangeListenerImplementation listener = new ModelChangeListenerImplementation(model);
+                    model.registerListener(listener);
+                    listeners.put(model, listener);
+                }
                 inferenceCache.put(model, inferenceProvider);
             } else {
                 addHit();
@@ -76,6 +102,60 @@ public class CachingInferenceProviderCreatorImpl extends InferenceProviderCreato
 
     protected void clear() {
         inferenceCache.clear();
+        shexChanges.clear();
+    }
+
+    /**
+     * The shex results of the last validation of a model and the nodes
+     * changed since, for an incremental re-validation.
+     */
+    private static final class ShexChanges {
+        private final ShexNodeResults previous;
+        private final Set<String> nodes = new HashSet<>();
+
+        private ShexChanges(ShexNodeResults previous) {
+            this.previous = previous;
+        }
+
+        /**
+         * @param changes
+         * @return false, if the changes can not be mapped to nodes and require a full validation
+         */
+        private boolean addChanges(List<OWLOntologyChange> changes) {
+            for (OWLOntologyChange change : changes) {
+                if (!change.isAxiomChange()) {
+                    // ontology annotations and imports
+                    return false;
+                }
+                OWLAxiom axiom = change.getAxiom();
+                for (OWLNamedIndividual individual : axiom.getIndividualsInSignature()) {
+                    nodes.add(individual.getIRI().toString());
+                }
+                if (axiom instanceof OWLAnnotationAssertionAxiom) {
+                    OWLAnnotationAssertionAxiom assertion = (OWLAnnotationAssertionAxiom) axiom;
+                    addIRI(assertion.getSubject());
+                    addIRI(assertion.getValue());
+                }
+                for (OWLAnnotation annotation : axiom.getAnnotations()) {
+                    addIRI(annotation.getValue());
+                }
+            }
+            return true;
+        }
+
+        private void addIRI(OWLAnnotationObject object) {
+            if (object instanceof IRI) {
+                nodes.add(object.toString());
+            }
+        }
+    }
+
+    private static ShexNodeResults getShexNodeResults(InferenceProvider provider) {
+        ValidationResultSet results = provider.getValidation_results();
+        if (results != null && results.getShexvalidation() != null) {
+            return results.getShexvalidation().getNodeResults();
+        }
+        return null;
     }
 
     private final class ModelChangeListenerImplementation implements ModelChangeListener {
@@ -88,8 +168,19 @@ public class CachingInferenceProviderCreatorImpl extends InferenceProviderCreato
         @Override
         public void handleChange(List<OWLOntologyChange> changes) {
             synchronized (model.getAboxOntology()) {
-                inferenceCache.remove(model);
-                model.unRegisterListener(this);
+                InferenceProvider previous = inferenceCache.remove(model);
+                if (previous != null) {
+                    ShexNodeResults results = getShexNodeResults(previous);
+                    if (results != null) {
+                        shexChanges.put(model, new ShexChanges(results));
+                    } else {
+                        shexChanges.remove(model);
+                    }
+                }
+                ShexChanges shexChange = shexChanges.get(model);
+                if (shexChange != null && !shexChange.addChanges(changes)) {
+                    shexChanges.remove(model);
+                }
             }
         }
 
@@ -97,6 +188,8 @@ public class CachingInferenceProviderCreatorImpl extends InferenceProviderCreato
         public void dispose() {
             synchronized (model.getAboxOntology()) {
                 inferenceCache.remove(model);
+                shexChanges.remove(model);
+                listeners.remove(model);
                 model.unRegisterListener(this);
             }
         }
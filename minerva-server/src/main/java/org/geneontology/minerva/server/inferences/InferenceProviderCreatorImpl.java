@@ -1,14 +1,20 @@
 package org.geneontology.minerva.server.inferences;
 
 import org.apache.log4j.Logger;
+import com.clarkparsia.owlapi.modularity.locality.LocalityClass;
+import com.clarkparsia.owlapi.modularity.locality.SyntacticLocalityEvaluator;
 import org.geneontology.minerva.ModelContainer;
+import org.geneontology.minerva.ModelContainer.ModelChangeListener;
 import org.geneontology.minerva.json.InferenceProvider;
 import org.geneontology.minerva.lookup.ExternalLookupService;
 import org.geneontology.minerva.lookup.ExternalLookupService.LookupEntry;
 import org.geneontology.minerva.server.validation.MinervaShexValidator;
+import org.geneontology.minerva.validation.ShexNodeResults;
 import org.semanticweb.elk.owlapi.ElkReasonerFactory;
 import org.semanticweb.owlapi.apibinding.OWLManager;
 import org.semanticweb.owlapi.model.*;
+import org.semanticweb.owlapi.model.parameters.AxiomAnnotations;
+import org.semanticweb.owlapi.model.parameters.Imports;
 import org.semanticweb.owlapi.model.parameters.OntologyCopy;
 import org.semanticweb.owlapi.reasoner.OWLReasoner;
 import org.semanticweb.owlapi.reasoner.OWLReasonerFactory;
@@ -18,6 +24,7 @@ import uk.ac.manchester.cs.owlapi.modularity.SyntacticLocalityModuleExtractor;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 
 public class InferenceProviderCreatorImpl implements InferenceProviderCreator {
@@ -31,6 +38,13 @@ public class InferenceProviderCreatorImpl implements InferenceProviderCreator {
     private final MinervaShexValidator shex;
 
 
+    /**
+     * SLME modules are kept per model and updated from the change events,
+     * instead of being extracted from scratch for each reasoner call.
+     */
+    private final Map<ModelContainer, SlmeModule> modules = new ConcurrentHashMap<>();
+    private final OWLOntologyManager moduleManager = OWLManager.createConcurrentOWLOntologyManager();
+
     InferenceProviderCreatorImpl(OWLReasonerFactory rf, int maxConcurrent, boolean useSLME, String name, MinervaShexValidator shex) {
         super();
         this.rf = rf;
@@ -61,9 +75,23 @@ public class InferenceProviderCreatorImpl implements InferenceProviderCreator {
 
     @Override
     public InferenceProvider create(ModelContainer model) throws OWLOntologyCreationException, InterruptedException, IOException {
+        return create(model, null, null);
+    }
+
+    /**
+     * Create the provider, re-using the shex results of a previous validation
+     * for the nodes not affected by the changed nodes.
+     *
+     * @param model
+     * @param previous      shex node results of the previous validation, may be null
+     * @param changed_nodes IRIs of the nodes changed since the previous validation, may be null
+     * @return provider
+     * @throws OWLOntologyCreationException
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    protected InferenceProvider create(ModelContainer model, ShexNodeResults previous, Set<String> changed_nodes) throws OWLOntologyCreationException, InterruptedException, IOException {
         OWLOntology ont = model.getAboxOntology();
-        final OWLOntologyManager m = ont.getOWLOntologyManager();
-        OWLOntology module = null;
         OWLReasoner reasoner = null;
         OWLOntology temp_ont = null;
         try {
@@ -72,12 +100,9 @@ public class InferenceProviderCreatorImpl implements InferenceProviderCreator {
                 concurrentLock.acquire();
                 try {
                     if (useSLME) {
-                        LOG.info("Creating for module: " + model.getModelId());
-                        ModuleType mtype = ModuleType.BOT;
-                        SyntacticLocalityModuleExtractor sme = new SyntacticLocalityModuleExtractor(m, ont, mtype);
-                        Set<OWLEntity> seeds = new HashSet<OWLEntity>(ont.getIndividualsInSignature());
-                        module = ont = sme.extractAsOntology(seeds, IRI.generateDocumentIRI());
-                        LOG.info("Done creating module: " + model.getModelId());
+                        LOG.info("Updating module for: " + model.getModelId());
+                        ont = getModule(model).update();
+                        LOG.info("Done updating module: " + model.getModelId());
                     }
                     //add root types for gene products.
                     //TODO investigate performance impact
@@ -86,7 +111,7 @@ public class InferenceProviderCreatorImpl implements InferenceProviderCreator {
                     temp_ont = addAllInferredTypesToCopyLocalOntoBlazegraph(ont);
                     //do reasoning and validation on the enhanced model
                     reasoner = rf.createReasoner(temp_ont);
-                    provider = MapInferenceProvider.create(reasoner, temp_ont, shex);
+                    provider = MapInferenceProvider.create(reasoner, temp_ont, shex, previous, changed_nodes);
                 } finally {
                     concurrentLock.release();
                 }
@@ -96,9 +121,6 @@ public class InferenceProviderCreatorImpl implements InferenceProviderCreator {
             if (reasoner != null) {
                 reasoner.dispose();
             }
-            if (module != null) {
-                m.removeOntology(module);
-            }
             if (temp_ont != null) {
                 temp_ont.getOWLOntologyManager().removeOntology(temp_ont);
             }
@@ -107,6 +129,158 @@ public class InferenceProviderCreatorImpl implements InferenceProviderCreator {
     }
 
 
+    private SlmeModule getModule(ModelContainer model) {
+        return modules.computeIfAbsent(model, m -> {
+            SlmeModule module = new SlmeModule(m);
+            m.registerListener(module);
+            return module;
+        });
+    }
+
+    /**
+     * Syntactic locality (BOT) module for the individuals of one model.
+     * <p>
+     * The module is extracted once and then kept current by replaying the
+     * abox changes: added axioms extend the module with the locality closure
+     * of the entities which are new to the module signature, removed abox
+     * axioms are dropped from the module. The signature never shrinks, which
+     * is safe as any subset of the ontology containing a module preserves its
+     * entailments. The module is re-extracted if the imports change or once
+     * too many axioms have been removed since the last extraction.
+     */
+    private final class SlmeModule implements ModelChangeListener {
+
+        private final ModelContainer model;
+        private final SyntacticLocalityEvaluator evaluator = new SyntacticLocalityEvaluator(LocalityClass.BOTTOM_BOTTOM);
+        private final List<OWLOntologyChange> pending = new ArrayList<>();
+        private OWLOntology module = null;
+        private Set<OWLEntity> signature = null;
+        private Set<IRI> signatureIRIs = null;
+        private boolean reextract = true;
+        private int removedSinceExtraction = 0;
+
+        private SlmeModule(ModelContainer model) {
+            this.model = model;
+        }
+
+        synchronized OWLOntology update() throws OWLOntologyCreationException {
+            if (reextract) {
+                extract();
+            } else if (pending.isEmpty() == false) {
+                applyPending();
+                if (removedSinceExtraction > module.getAxiomCount() / 2) {
+                    extract();
+                }
+            }
+            pending.clear();
+            return module;
+        }
+
+        private void extract() throws OWLOntologyCreationException {
+            final OWLOntology abox = model.getAboxOntology();
+            SyntacticLocalityModuleExtractor sme = new SyntacticLocalityModuleExtractor(abox.getOWLOntologyManager(), abox, ModuleType.BOT);
+            Set<OWLEntity> seeds = new HashSet<OWLEntity>(abox.getIndividualsInSignature());
+            Set<OWLAxiom> axioms = sme.extract(seeds);
+            if (module != null) {
+                moduleManager.removeOntology(module);
+            }
+            module = moduleManager.createOntology(axioms, IRI.generateDocumentIRI());
+            signature = new HashSet<>(module.getSignature());
+            signature.addAll(seeds);
+            signatureIRIs = new HashSet<>();
+            for (OWLEntity entity : signature) {
+                signatureIRIs.add(entity.getIRI());
+            }
+            reextract = false;
+            removedSinceExtraction = 0;
+        }
+
+        private void applyPending() {
+            final OWLOntology abox = model.getAboxOntology();
+            for (OWLOntologyChange change : pending) {
+                if (change.isAddAxiom()) {
+                    OWLAxiom axiom = change.getAxiom();
+                    // all individuals are seeds of the module
+                    extendSignature(abox, axiom.getIndividualsInSignature());
+                    if (axiom.isLogicalAxiom()) {
+                        if (module.containsAxiom(axiom) == false && evaluator.isLocal(axiom, signature) == false) {
+                            moduleManager.addAxiom(module, axiom);
+                            extendSignature(abox, axiom.getSignature());
+                        }
+                    } else if (axiom instanceof OWLDeclarationAxiom) {
+                        if (signature.contains(((OWLDeclarationAxiom) axiom).getEntity())) {
+                            moduleManager.addAxiom(module, axiom);
+                        }
+                    } else if (axiom instanceof OWLAnnotationAssertionAxiom) {
+                        if (signatureIRIs.contains(((OWLAnnotationAssertionAxiom) axiom).getSubject())) {
+                            moduleManager.addAxiom(module, axiom);
+                        }
+                    }
+                } else if (change.isRemoveAxiom()) {
+                    OWLAxiom axiom = change.getAxiom();
+                    if (module.containsAxiom(axiom) && abox.containsAxiom(axiom, Imports.INCLUDED, AxiomAnnotations.CONSIDER_AXIOM_ANNOTATIONS) == false) {
+                        moduleManager.removeAxiom(module, axiom);
+                        removedSinceExtraction += 1;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Add the entities to the module signature and pull in all axioms
+         * which are no longer local. The locality of an axiom can only change
+         * if an entity from its own signature is added, so it is sufficient to
+         * check the axioms referencing the new entities.
+         */
+        private void extendSignature(OWLOntology abox, Set<? extends OWLEntity> entities) {
+            Deque<OWLEntity> queue = new ArrayDeque<>();
+            for (OWLEntity entity : entities) {
+                if (signature.add(entity)) {
+                    queue.add(entity);
+                }
+            }
+            while (queue.isEmpty() == false) {
+                OWLEntity entity = queue.poll();
+                signatureIRIs.add(entity.getIRI());
+                moduleManager.addAxioms(module, abox.getDeclarationAxioms(entity));
+                moduleManager.addAxioms(module, abox.getAnnotationAssertionAxioms(entity.getIRI()));
+                for (OWLAxiom axiom : abox.getReferencingAxioms(entity, Imports.INCLUDED)) {
+                    if (axiom.isLogicalAxiom() && module.containsAxiom(axiom) == false && evaluator.isLocal(axiom, signature) == false) {
+                        moduleManager.addAxiom(module, axiom);
+                        for (OWLEntity e : axiom.getSignature()) {
+                            if (signature.add(e)) {
+                                queue.add(e);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        @Override
+        public synchronized void handleChange(List<OWLOntologyChange> changes) {
+            for (OWLOntologyChange change : changes) {
+                if (change.isImportChange()) {
+                    reextract = true;
+                }
+            }
+            if (reextract == false) {
+                pending.addAll(changes);
+            }
+        }
+
+        @Override
+        public synchronized void dispose() {
+            modules.remove(model);
+            model.unRegisterListener(this);
+            if (module != null) {
+                moduleManager.removeOntology(module);
+                module = null;
+            }
+            pending.clear();
+        }
+    }
+
     public OWLOntology addAllInferredTypesToCopyLocalOntoBlazegraph(OWLOntology asserted_ont) throws OWLOntologyCreationException, IOException {
         OWLOntologyManager ontman = OWLManager.createOWLOntologyManager();
         OWLDataFactory df = ontman.getOWLDataFactory();
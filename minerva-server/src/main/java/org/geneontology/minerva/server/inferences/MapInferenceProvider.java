@@ -5,7 +5,9 @@ import org.apache.log4j.Logger;
 import org.geneontology.minerva.json.InferenceProvider;
 import org.geneontology.minerva.server.validation.MinervaShexValidator;
 import org.geneontology.minerva.util.JenaOwlTool;
+import org.geneontology.minerva.util.Metrics;
 import org.geneontology.minerva.validation.OWLValidationReport;
+import org.geneontology.minerva.validation.ShexNodeResults;
 import org.geneontology.minerva.validation.ShexValidationReport;
 import org.geneontology.minerva.validation.ValidationResultSet;
 import org.geneontology.minerva.validation.Violation;
@@ -35,8 +37,23 @@ public class MapInferenceProvider implements InferenceProvider {
     }
 
     public static InferenceProvider create(OWLReasoner r, OWLOntology ont, MinervaShexValidator shex) throws OWLOntologyCreationException, IOException {
+        return create(r, ont, shex, null, null);
+    }
+
+    /**
+     * @param r
+     * @param ont
+     * @param shex
+     * @param previous      shex node results of the previous validation of the model, may be null
+     * @param changed_nodes IRIs of the nodes changed since the previous validation, may be null
+     * @return provider
+     * @throws OWLOntologyCreationException
+     * @throws IOException
+     */
+    public static InferenceProvider create(OWLReasoner r, OWLOntology ont, MinervaShexValidator shex, ShexNodeResults previous, Set<String> changed_nodes) throws OWLOntologyCreationException, IOException {
         Map<OWLNamedIndividual, Set<OWLClass>> inferredTypes = new HashMap<>();
         Map<OWLNamedIndividual, Set<OWLClass>> inferredTypesWithIndirects = new HashMap<>();
+        final long start = System.nanoTime();
         boolean isConsistent = r.isConsistent();
         if (isConsistent) {
             Set<OWLNamedIndividual> individuals = ont.getIndividualsInSignature();
@@ -61,6 +78,7 @@ public class MapInferenceProvider implements InferenceProvider {
                 inferredTypesWithIndirects.put(individual, all_inferred);
             }
         }
+        Metrics.getDefault().stage("reason").observeSince(start);
         //reasoner
         OWLValidationReport reasoner_validation = new OWLValidationReport();
         reasoner_validation.setConformant(isConsistent);
@@ -71,19 +89,22 @@ public class MapInferenceProvider implements InferenceProvider {
         //shex
         ShexValidationReport shex_validation = new ShexValidationReport();
         if (shex.isActive()) {
+            final long validationStart = System.nanoTime();
             //generate an RDF model
             Model model = JenaOwlTool.getJenaModel(ont);
             //add superclasses to types used in model - needed for shex to find everything
+            //as a view on the shared closure, nothing is copied into the model
             //model may now have additional inferred assertions from Arachne
-            model = shex.enrichSuperClasses(model);
+            model = shex.getModelWithSuperClasses(model);
             try {
                 LOGGER.info("Running shex validation - model (enriched with superclass hierarchy) size:" + model.size());
-                shex_validation = shex.runShapeMapValidation(model);
+                shex_validation = shex.runShapeMapValidation(model, previous, changed_nodes);
                 LOGGER.info("Done with shex validation. model is conformant is: " + shex_validation.isConformant());
             } catch (Exception e) {
                 // TODO Auto-generated catch block
                 e.printStackTrace();
             }
+            Metrics.getDefault().stage("validate").observeSince(validationStart);
         }
         ValidationResultSet all_validations = new ValidationResultSet(reasoner_validation, shex_validation);
         return new MapInferenceProvider(isConsistent, inferredTypes, inferredTypesWithIndirects, all_validations);
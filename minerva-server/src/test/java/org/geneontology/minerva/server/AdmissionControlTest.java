@@ -0,0 +1,98 @@
+package org.geneontology.minerva.server;
+
+import org.geneontology.minerva.server.AdmissionControl.EndpointClass;
+import org.geneontology.minerva.server.AdmissionControl.Permit;
+import org.junit.Test;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControlTest {
+
+    private static AdmissionControl create(int maxQueue, long maxWaitMillis) {
+        Map<EndpointClass, Integer> limits = new EnumMap<>(EndpointClass.class);
+        limits.put(EndpointClass.EDIT, 1);
+        limits.put(EndpointClass.SEARCH, 10);
+        limits.put(EndpointClass.BULK, 1);
+        return new AdmissionControl(limits, maxQueue, maxWaitMillis, 7);
+    }
+
+    private static void assertRejected(AdmissionControl admission, EndpointClass endpointClass, int cost) {
+        try {
+            admission.acquire(endpointClass, cost).close();
+            fail("Expected the request to be rejected");
+        } catch (WebApplicationException e) {
+            assertEquals(503, e.getResponse().getStatus());
+            assertEquals("7", String.valueOf(e.getResponse().getHeaders().getFirst(HttpHeaders.RETRY_AFTER)));
+        }
+    }
+
+    @Test
+    public void testCost() {
+        AdmissionControl admission = create(0, 0);
+        Permit expensive = admission.acquire(EndpointClass.SEARCH, 8);
+        assertEquals(8, admission.getUsed(EndpointClass.SEARCH));
+        assertRejected(admission, EndpointClass.SEARCH, 3);
+        admission.acquire(EndpointClass.SEARCH, 2).close();
+        expensive.close();
+        // closing twice does not release more permits
+        expensive.close();
+        assertEquals(0, admission.getUsed(EndpointClass.SEARCH));
+        // a search more expensive than the budget still runs alone
+        try (Permit permit = admission.acquire(EndpointClass.SEARCH, 1000)) {
+            assertEquals(10, admission.getUsed(EndpointClass.SEARCH));
+        }
+        // classes without a limit
+        try (Permit permit = admission.acquire(EndpointClass.READ, 1000)) {
+            assertEquals(1000, admission.getUsed(EndpointClass.READ));
+        }
+    }
+
+    @Test
+    public void testQueue() throws Exception {
+        AdmissionControl admission = create(1, 10000);
+        Permit bulk = admission.acquire(EndpointClass.BULK, 1);
+        Thread waiting = new Thread(() -> admission.acquire(EndpointClass.BULK, 1).close());
+        waiting.start();
+        while (waiting.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+        // the queue is full
+        assertRejected(admission, EndpointClass.BULK, 1);
+        bulk.close();
+        waiting.join();
+        assertEquals(0, admission.getUsed(EndpointClass.BULK));
+    }
+
+    @Test
+    public void testEditPriority() throws Exception {
+        AdmissionControl admission = create(10, 10000);
+        Permit edit = admission.acquire(EndpointClass.EDIT, 1);
+        admission.acquire(EndpointClass.SEARCH, 1).close();
+        Thread waitingEdit = new Thread(() -> admission.acquire(EndpointClass.EDIT, 1).close());
+        waitingEdit.start();
+        while (waitingEdit.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+        // other requests wait, while an edit is waiting
+        AtomicBoolean searched = new AtomicBoolean();
+        Thread waitingSearch = new Thread(() -> {
+            admission.acquire(EndpointClass.SEARCH, 1).close();
+            searched.set(true);
+        });
+        waitingSearch.start();
+        while (waitingSearch.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+        assertFalse(searched.get());
+        edit.close();
+        waitingEdit.join();
+        waitingSearch.join();
+        assertTrue(searched.get());
+    }
+}
@@ -255,6 +255,35 @@ public class BatchModelHandlerTest {
         assertEquals(1, iObjs.length);
     }
 
+    @Test
+    public void testMultiModelBatch() throws Exception {
+        final String modelId1 = generateBlankModel();
+        final String modelId2 = generateBlankModel();
+
+        M3Request[] requests = new M3Request[]{
+                BatchTestTools.addIndividual(modelId1, "GO:0006915"),
+                BatchTestTools.addIndividual(modelId2, "GO:0006915"),
+                BatchTestTools.addIndividual(modelId1, "GO:0003674")};
+        M3MultiBatchResponse resp = handler.m3MultiBatch(uid, Collections.emptySet(), "action", null, requests, false, true);
+        assertEquals(resp.message, M3BatchResponse.MESSAGE_TYPE_SUCCESS, resp.messageType);
+        assertEquals(Arrays.asList(modelId1, modelId2), new ArrayList<>(resp.data.keySet()));
+
+        // both requests for the first model are in one response
+        M3BatchResponse resp1 = resp.data.get(modelId1);
+        assertEquals(resp1.message, M3BatchResponse.MESSAGE_TYPE_SUCCESS, resp1.messageType);
+        assertEquals(2, BatchTestTools.responseIndividuals(resp1).length);
+        M3BatchResponse resp2 = resp.data.get(modelId2);
+        assertEquals(resp2.message, M3BatchResponse.MESSAGE_TYPE_SUCCESS, resp2.messageType);
+        assertEquals(1, BatchTestTools.responseIndividuals(resp2).length);
+
+        // requests without a model id are rejected
+        M3Request meta = new M3Request();
+        meta.entity = Entity.meta;
+        meta.operation = Operation.get;
+        resp = handler.m3MultiBatch(uid, Collections.emptySet(), "query", null, new M3Request[]{meta}, false, true);
+        assertEquals(M3BatchResponse.MESSAGE_TYPE_ERROR, resp.messageType);
+    }
+
     @Test
     public void testModelAnnotations() throws Exception {
         final String modelId = generateBlankModel();
@@ -0,0 +1,135 @@
+package org.geneontology.minerva.server.handler;
+
+import org.geneontology.minerva.ModelContainer;
+import org.geneontology.minerva.curie.CurieHandler;
+import org.geneontology.minerva.curie.DefaultCurieHandler;
+import org.geneontology.minerva.json.InferenceProvider;
+import org.geneontology.minerva.validation.*;
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class InferenceHistoryTest {
+
+    private final CurieHandler curieHandler = DefaultCurieHandler.getDefaultHandler();
+
+    @Test
+    public void testChangedIndividuals() throws Exception {
+        OWLOntologyManager m = OWLManager.createOWLOntologyManager();
+        OWLDataFactory f = m.getOWLDataFactory();
+        OWLOntology abox = m.createOntology(IRI.create("http://model.geneontology.org/test"));
+        OWLNamedIndividual a = f.getOWLNamedIndividual(IRI.create("http://model.geneontology.org/test/a"));
+        OWLNamedIndividual b = f.getOWLNamedIndividual(IRI.create("http://model.geneontology.org/test/b"));
+        OWLNamedIndividual c = f.getOWLNamedIndividual(IRI.create("http://model.geneontology.org/test/c"));
+        for (OWLNamedIndividual i : Arrays.asList(a, b, c)) {
+            m.addAxiom(abox, f.getOWLDeclarationAxiom(i));
+        }
+        ModelContainer model = new ModelContainer(abox.getOntologyID().getOntologyIRI().get(), m.createOntology(), abox);
+
+        OWLClass x = f.getOWLClass(IRI.create("http://purl.obolibrary.org/obo/GO_0000001"));
+        OWLClass y = f.getOWLClass(IRI.create("http://purl.obolibrary.org/obo/GO_0000002"));
+
+        Map<OWLNamedIndividual, Set<OWLClass>> types1 = new HashMap<>();
+        types1.put(a, Collections.singleton(x));
+        InferenceProvider p1 = new TestInferenceProvider(true, types1, Collections.emptySet());
+
+        Map<OWLNamedIndividual, Set<OWLClass>> types2 = new HashMap<>();
+        types2.put(a, Collections.singleton(x));
+        types2.put(b, Collections.singleton(y));
+        InferenceProvider p2 = new TestInferenceProvider(true, types2, Collections.singleton(curieHandler.getCuri(c.getIRI())));
+
+        InferenceHistory history = new InferenceHistory(10);
+        assertNull(history.getChangedIndividuals(model, 1, p2, curieHandler));
+
+        history.put(model, 1, p1);
+        assertEquals(new HashSet<>(Arrays.asList(b, c)), history.getChangedIndividuals(model, 1, p2, curieHandler));
+        assertEquals(Collections.emptySet(), history.getChangedIndividuals(model, 1, p1, curieHandler));
+        // other changes since the last reasoned response
+        assertNull(history.getChangedIndividuals(model, 2, p2, curieHandler));
+        // consistency changed
+        assertNull(history.getChangedIndividuals(model, 1, new TestInferenceProvider(false, types2, Collections.emptySet()), curieHandler));
+    }
+
+    @Test
+    public void testChangedValidationResults() throws Exception {
+        OWLOntologyManager m = OWLManager.createOWLOntologyManager();
+        OWLDataFactory f = m.getOWLDataFactory();
+        OWLOntology abox = m.createOntology(IRI.create("http://model.geneontology.org/test"));
+        OWLNamedIndividual a = f.getOWLNamedIndividual(IRI.create("http://model.geneontology.org/test/a"));
+        OWLNamedIndividual b = f.getOWLNamedIndividual(IRI.create("http://model.geneontology.org/test/b"));
+        for (OWLNamedIndividual i : Arrays.asList(a, b)) {
+            m.addAxiom(abox, f.getOWLDeclarationAxiom(i));
+        }
+        ModelContainer model = new ModelContainer(abox.getOntologyID().getOntologyIRI().get(), m.createOntology(), abox);
+        String aCurie = curieHandler.getCuri(a.getIRI());
+        String bCurie = curieHandler.getCuri(b.getIRI());
+
+        InferenceProvider p1 = new TestInferenceProvider(true, Collections.emptyMap(), createShexReport(aCurie, "MolecularFunction", bCurie, "BiologicalProcess"));
+        // a still violates a shape, but a different one
+        InferenceProvider p2 = new TestInferenceProvider(true, Collections.emptyMap(), createShexReport(aCurie, "CellularComponent", bCurie, "BiologicalProcess"));
+        // b now matches a different shape
+        InferenceProvider p3 = new TestInferenceProvider(true, Collections.emptyMap(), createShexReport(aCurie, "CellularComponent", bCurie, "MolecularFunction"));
+
+        InferenceHistory history = new InferenceHistory(10);
+        history.put(model, 1, p1);
+        assertEquals(Collections.emptySet(), history.getChangedIndividuals(model, 1, p1, curieHandler));
+        assertEquals(Collections.singleton(a), history.getChangedIndividuals(model, 1, p2, curieHandler));
+        history.put(model, 2, p2);
+        assertEquals(Collections.singleton(b), history.getChangedIndividuals(model, 2, p3, curieHandler));
+    }
+
+    private static ShexValidationReport createShexReport(String violatingNode, String violatedShape, String matchingNode, String matchedShape) {
+        ShexValidationReport shex = new ShexValidationReport();
+        ShexViolation violation = new ShexViolation(violatingNode);
+        ShexExplanation explanation = new ShexExplanation();
+        explanation.setShape(violatedShape);
+        violation.addExplanation(explanation);
+        shex.addViolation(violation);
+        shex.addMatchedShape(matchingNode, matchedShape);
+        return shex;
+    }
+
+    private static class TestInferenceProvider implements InferenceProvider {
+
+        private final boolean consistent;
+        private final Map<OWLNamedIndividual, Set<OWLClass>> types;
+        private final ValidationResultSet validations;
+
+        TestInferenceProvider(boolean consistent, Map<OWLNamedIndividual, Set<OWLClass>> types, Set<String> violations) {
+            this(consistent, types, new ShexValidationReport());
+            for (String node : violations) {
+                validations.getShexvalidation().addViolation(new ShexViolation(node));
+            }
+        }
+
+        TestInferenceProvider(boolean consistent, Map<OWLNamedIndividual, Set<OWLClass>> types, ShexValidationReport shex) {
+            this.consistent = consistent;
+            this.types = types;
+            this.validations = new ValidationResultSet(new OWLValidationReport(), shex);
+        }
+
+        @Override
+        public boolean isConsistent() {
+            return consistent;
+        }
+
+        @Override
+        public Set<OWLClass> getTypes(OWLNamedIndividual i) {
+            return types.getOrDefault(i, Collections.emptySet());
+        }
+
+        @Override
+        public ValidationResultSet getValidation_results() {
+            return validations;
+        }
+
+        @Override
+        public Set<OWLClass> getAllTypes(OWLNamedIndividual i) {
+            return getTypes(i);
+        }
+    }
+}
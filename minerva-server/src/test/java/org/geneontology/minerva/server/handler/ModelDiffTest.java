@@ -0,0 +1,50 @@
+package org.geneontology.minerva.server.handler;
+
+import org.junit.Test;
+import org.semanticweb.owlapi.apibinding.OWLManager;
+import org.semanticweb.owlapi.model.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+public class ModelDiffTest {
+
+    @Test
+    public void testDiff() throws Exception {
+        OWLOntologyManager m = OWLManager.createOWLOntologyManager();
+        OWLDataFactory f = m.getOWLDataFactory();
+        OWLNamedIndividual a = f.getOWLNamedIndividual(IRI.create("http://model.geneontology.org/test/a"));
+        OWLNamedIndividual b = f.getOWLNamedIndividual(IRI.create("http://model.geneontology.org/test/b"));
+        OWLNamedIndividual c = f.getOWLNamedIndividual(IRI.create("http://model.geneontology.org/test/c"));
+        OWLObjectProperty partOf = f.getOWLObjectProperty(IRI.create("http://purl.obolibrary.org/obo/BFO_0000050"));
+        OWLClass x = f.getOWLClass(IRI.create("http://purl.obolibrary.org/obo/GO_0000001"));
+        OWLAnnotationProperty comment = f.getRDFSComment();
+
+        OWLOntology stored = m.createOntology(IRI.create("http://model.geneontology.org/stored"));
+        OWLOntology active = m.createOntology(IRI.create("http://model.geneontology.org/active"));
+        for (OWLOntology ont : new OWLOntology[]{stored, active}) {
+            m.addAxiom(ont, f.getOWLDeclarationAxiom(a));
+            m.addAxiom(ont, f.getOWLDeclarationAxiom(b));
+            m.addAxiom(ont, f.getOWLClassAssertionAxiom(x, a));
+        }
+        assertTrue(ModelDiff.compute(stored, active).isEmpty());
+
+        // c is removed, b gets a comment and a is part of b
+        m.addAxiom(stored, f.getOWLDeclarationAxiom(c));
+        m.addAxiom(active, f.getOWLAnnotationAssertionAxiom(comment, b.getIRI(), f.getOWLLiteral("changed")));
+        OWLObjectPropertyAssertionAxiom fact = f.getOWLObjectPropertyAssertionAxiom(partOf, a, b);
+        m.addAxiom(active, fact);
+
+        ModelDiff diff = ModelDiff.compute(stored, active);
+        assertFalse(diff.isEmpty());
+        assertFalse(diff.annotationsChanged);
+        assertEquals(2, diff.added.size());
+        assertEquals(Collections.singleton(f.getOWLDeclarationAxiom(c)), diff.removed);
+        assertEquals(Collections.singleton(fact), ModelDiff.getFacts(diff.added));
+        assertEquals(new HashSet<>(Arrays.asList(a, b)), ModelDiff.getIndividuals(diff.added, active));
+        assertEquals(Collections.singleton(c), ModelDiff.getIndividuals(diff.removed, stored));
+    }
+}
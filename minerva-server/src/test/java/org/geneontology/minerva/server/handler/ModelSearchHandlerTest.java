@@ -53,8 +53,11 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -72,6 +75,7 @@ public class ModelSearchHandlerTest {
     static CurieHandler curieHandler;
     static UndoAwareMolecularModelManager models;
     private static JsonOrJsonpBatchHandler handler;
+    private static ModelSearchHandler searchHandler;
 
     @ClassRule
     public static TemporaryFolder tmp = new TemporaryFolder();
@@ -103,7 +107,7 @@ public class ModelSearchHandlerTest {
         resourceConfig.register(GsonMessageBodyHandler.class);
         resourceConfig.register(RequireJsonpFilter.class);
 
-        ModelSearchHandler searchHandler = new ModelSearchHandler(models);
+        searchHandler = new ModelSearchHandler(models);
         resourceConfig = resourceConfig.registerInstances(searchHandler);
 
         // setup jetty server port, buffers and context path
@@ -622,6 +626,45 @@ public class ModelSearchHandlerTest {
         assertTrue(result.getModels() == null);
     }
 
+    @Test
+    public final void testIndexMatchesSparql() throws Exception {
+        long deadline = System.currentTimeMillis() + 60000;
+        while (!searchHandler.isIndexReady()) {
+            assertTrue("The search index was not loaded in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(100);
+        }
+        Set<String> development = Collections.singleton("development");
+        // without debug the index answers, with debug the SPARQL query
+        assertSameResults(null, null, 0);
+        assertSameResults(null, "2018-08-20", 0);
+        assertSameResults(null, "2018-08-20", 1);
+        assertSameResults(development, null, 0);
+        assertSameResults(development, null, 2);
+
+        ModelSearchResult indexCount = searchHandler.search(null, null, null, null, null, null, null, null, null, null, "2018-08-20", null, 0, 0, "", null, null);
+        ModelSearchResult sparqlCount = searchHandler.search(null, null, null, null, null, null, null, null, null, null, "2018-08-20", null, 0, 0, "", "", null);
+        // the count of the index is cached, but debug still runs the query
+        assertFalse(sparqlCount.getSparql().startsWith("add 'debug'"));
+        assertEquals(sparqlCount.getN(), indexCount.getN());
+        assertNull(indexCount.getModels());
+        assertEquals(searchHandler.search(null, null, null, null, null, null, null, null, null, null, "2018-08-20", null, 0, 0, null, null, null).getN(), indexCount.getN());
+    }
+
+    private static void assertSameResults(Set<String> state, String date, int offset) {
+        ModelSearchResult index = searchHandler.search(null, null, null, null, null, null, state, null, null, null, date, null, offset, 0, null, null, null);
+        ModelSearchResult sparql = searchHandler.search(null, null, null, null, null, null, state, null, null, null, date, null, offset, 0, null, "", null);
+        assertEquals(getIds(sparql), getIds(index));
+        assertEquals(sparql.getN(), index.getN());
+    }
+
+    private static List<String> getIds(ModelSearchResult result) {
+        List<String> ids = new ArrayList<String>();
+        for (ModelSearchHandler.ModelMeta mm : result.getModels()) {
+            ids.add(mm.getId());
+        }
+        return ids;
+    }
+
     private static String makeBlazegraphJournal(String input_folder) throws IOException, OWLOntologyCreationException, RepositoryException, RDFParseException, RDFHandlerException {
         String inputDB = tmp.newFile().getAbsolutePath();
         File i = new File(input_folder);
@@ -0,0 +1,138 @@
+package org.geneontology.minerva.server.handler;
+
+import org.geneontology.minerva.BlazegraphOntologyManager;
+import org.geneontology.minerva.curie.CurieHandler;
+import org.geneontology.minerva.curie.CurieMappings;
+import org.geneontology.minerva.curie.DefaultCurieHandler;
+import org.geneontology.minerva.curie.MappedCurieHandler;
+import org.geneontology.minerva.server.handler.ModelSearchHandler.ModelMeta;
+import org.geneontology.minerva.server.handler.ModelSearchIndex.IndexedModel;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.vocabulary.RDF;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ModelSearchIndexTest {
+
+    private static final String GP = "http://identifiers.org/uniprot/P15822";
+    private static final String TERM = "http://purl.obolibrary.org/obo/GO_0003677";
+    private static final String TAXON = "http://purl.obolibrary.org/obo/NCBITaxon_10090";
+
+    private ModelSearchIndex index;
+
+    @Before
+    public void setUp() {
+        CurieMappings localMappings = new CurieMappings.SimpleCurieMappings(Collections.singletonMap("gomodel", "http://model.geneontology.org/"));
+        CurieHandler curieHandler = new MappedCurieHandler(DefaultCurieHandler.loadDefaultMappings(), localMappings);
+        index = new ModelSearchIndex(null, null, curieHandler);
+        index.update(Arrays.asList(
+                createModel("1", "2019-06-26", "production", "http://orcid.org/1", GP, null),
+                createModel("2", "2020-01-01", "development", "http://orcid.org/2", GP, TERM),
+                createModel("3", "2020-01-01", "production", "http://orcid.org/1", null, TERM)));
+    }
+
+    private static IndexedModel createModel(String n, String date, String state, String contributor, String gp, String term) {
+        String id = "http://model.geneontology.org/" + n;
+        IndexedModel indexed = new IndexedModel(id);
+        URIImpl model = new URIImpl(id);
+        indexed.add(model, new URIImpl(ModelSearchIndex.TITLE), new LiteralImpl("title " + n));
+        indexed.add(model, new URIImpl(ModelSearchIndex.DATE), new LiteralImpl(date));
+        indexed.add(model, new URIImpl(ModelSearchIndex.STATE), new LiteralImpl(state));
+        indexed.add(model, new URIImpl(ModelSearchIndex.CONTRIBUTOR), new LiteralImpl(contributor));
+        indexed.add(model, new URIImpl(BlazegraphOntologyManager.in_taxon_uri), new URIImpl(TAXON));
+        if (gp != null) {
+            indexed.add(new URIImpl(id + "/gp"), RDF.TYPE, new URIImpl(gp));
+            indexed.add(new URIImpl(id + "/evidence"), new URIImpl(ModelSearchIndex.SOURCE), new LiteralImpl("PMID:" + n));
+        }
+        if (term != null) {
+            indexed.add(new URIImpl(id + "/term"), RDF.TYPE, new URIImpl(term));
+        }
+        return indexed;
+    }
+
+    private static List<String> ids(ModelSearchIndex.Result result) {
+        List<String> ids = new ArrayList<>();
+        for (ModelMeta mm : result.models) {
+            ids.add(mm.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testSearch() throws Exception {
+        ModelSearchIndex.Query query = new ModelSearchIndex.Query();
+        // newest first, then by id
+        assertEquals(Arrays.asList("gomodel:3", "gomodel:2", "gomodel:1"), ids(index.search(query, false)));
+        assertEquals(3, index.search(query, true).count);
+
+        query.geneProducts = Collections.singleton(GP);
+        query.terms = Collections.singleton(TERM);
+        ModelSearchIndex.Result result = index.search(query, false);
+        assertEquals(Collections.singletonList("gomodel:2"), ids(result));
+        ModelMeta mm = result.models.get(0);
+        assertEquals(Collections.singleton("http://model.geneontology.org/2/gp"), mm.getQuery_match().get(GP));
+        assertEquals(Collections.singleton("http://model.geneontology.org/2/term"), mm.getQuery_match().get(TERM));
+        assertEquals("title 2", mm.getTitle());
+        assertEquals(Collections.singleton(""), mm.getGroups());
+
+        query = new ModelSearchIndex.Query();
+        query.states = Collections.singleton("production");
+        query.contributors = Collections.singleton("http://orcid.org/1");
+        query.taxa = Collections.singleton(TAXON);
+        assertEquals(Arrays.asList("gomodel:3", "gomodel:1"), ids(index.search(query, false)));
+        query.date = "2019-12-31";
+        assertEquals(Collections.singletonList("gomodel:3"), ids(index.search(query, false)));
+        query.date = null;
+        query.exactDate = "2019-06-26";
+        assertEquals(Collections.singletonList("gomodel:1"), ids(index.search(query, false)));
+
+        query = new ModelSearchIndex.Query();
+        query.pmids = Collections.singleton("PMID:1");
+        assertEquals(Collections.singletonList("gomodel:1"), ids(index.search(query, false)));
+
+        query = new ModelSearchIndex.Query();
+        query.offset = 1;
+        query.limit = 1;
+        assertEquals(Collections.singletonList("gomodel:2"), ids(index.search(query, false)));
+    }
+
+    @Test
+    public void testCursor() throws Exception {
+        ModelSearchIndex.Query query = new ModelSearchIndex.Query();
+        query.limit = 2;
+        ModelSearchIndex.Result result = index.search(query, false);
+        assertEquals(Arrays.asList("gomodel:3", "gomodel:2"), ids(result));
+        assertEquals("2020-01-01", result.lastDate);
+        assertEquals("http://model.geneontology.org/2", result.lastId);
+
+        query.afterDate = result.lastDate;
+        query.afterId = result.lastId;
+        result = index.search(query, false);
+        assertEquals(Collections.singletonList("gomodel:1"), ids(result));
+        // last page
+        assertNull(result.lastId);
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        ModelSearchIndex.Query query = new ModelSearchIndex.Query();
+        query.geneProducts = Collections.singleton(GP);
+        assertEquals(Arrays.asList("gomodel:2", "gomodel:1"), ids(index.search(query, false)));
+
+        // the gene product was removed from model 2, model 1 lost its title
+        IndexedModel untitled = new IndexedModel("http://model.geneontology.org/1");
+        untitled.add(new URIImpl(untitled.id), new URIImpl(ModelSearchIndex.DATE), new LiteralImpl("2019-06-26"));
+        index.update(Arrays.asList(createModel("2", "2020-01-02", "production", "http://orcid.org/2", null, TERM), untitled));
+        assertTrue(index.search(query, false).models.isEmpty());
+        assertEquals(2, index.size());
+
+        query = new ModelSearchIndex.Query();
+        query.states = Collections.singleton("development");
+        assertEquals(0, index.search(query, true).count);
+    }
+}
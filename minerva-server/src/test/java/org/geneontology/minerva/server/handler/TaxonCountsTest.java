@@ -0,0 +1,44 @@
+package org.geneontology.minerva.server.handler;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TaxonCountsTest {
+
+    private static final String HUMAN = "http://purl.obolibrary.org/obo/NCBITaxon_9606";
+    private static final String MOUSE = "http://purl.obolibrary.org/obo/NCBITaxon_10090";
+
+    @Test
+    public void testLoadAndUpdate() {
+        TaxonHandler.TaxonCounts counts = new TaxonHandler.TaxonCounts();
+        // complete load
+        Map<String, Set<String>> all = new HashMap<>();
+        all.put("m1", new HashSet<>(Arrays.asList(HUMAN, MOUSE)));
+        all.put("m2", Collections.singleton(HUMAN));
+        counts.update(all);
+        assertEquals(2, counts.getCounts().get(HUMAN).intValue());
+        assertEquals(1, counts.getCounts().get(MOUSE).intValue());
+
+        // a model changes its taxa
+        counts.update(Collections.singletonMap("m1", Collections.singleton(MOUSE)));
+        assertEquals(1, counts.getCounts().get(HUMAN).intValue());
+        assertEquals(1, counts.getCounts().get(MOUSE).intValue());
+
+        // a new model
+        counts.update(Collections.singletonMap("m3", Collections.singleton(MOUSE)));
+        assertEquals(2, counts.getCounts().get(MOUSE).intValue());
+
+        // a model without taxa is removed, taxa without models are dropped
+        counts.update(Collections.singletonMap("m2", Collections.emptySet()));
+        assertFalse(counts.getCounts().containsKey(HUMAN));
+        assertEquals(2, counts.getCounts().get(MOUSE).intValue());
+
+        // a reload starts from scratch
+        counts.clear();
+        counts.update(Collections.singletonMap("m2", Collections.singleton(HUMAN)));
+        assertEquals(Collections.singletonMap(HUMAN, 1), counts.getCounts());
+    }
+}